@@ -0,0 +1,278 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of children running at the same time and adjusts the
+ * limit while the suite runs. Once per sample - at least a second, and at
+ * least as many finished children as the limit allows to run - the
+ * throughput in finished children per second is compared to that of the
+ * sample before. The limit keeps moving in the same direction while
+ * throughput improves and turns around when it degrades. It is lowered
+ * whenever garbage collection takes a large share of the time or the system
+ * load exceeds twice the number of processors, and it is never raised while
+ * not all of it is used.
+ * <p>
+ * Every sample is kept as a {@link Decision}, for the profile report or a
+ * report of its own.
+ */
+final class AdaptiveConcurrency {
+
+	static final int DEFAULT_MAXIMUM_PER_PROCESSOR = 4;
+
+	private static final long SAMPLE_NANOS = 1000000000L;
+	private static final double THROUGHPUT_TOLERANCE = 0.05;
+	private static final double MAX_GC_SHARE = 0.25;
+	private static final double MAX_LOAD_PER_PROCESSOR = 2.0;
+
+	private final int processors;
+	private final OperatingSystemMXBean system = ManagementFactory.getOperatingSystemMXBean();
+	private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+	private final int maximum;
+	private final AdjustableSemaphore permits;
+	private final long startNanos = System.nanoTime();
+	private final List<Decision> decisions = new ArrayList<Decision>();
+
+	private int limit;
+	private int running;
+	private int peakRunning;
+	private int direction = 1;
+	private int finished;
+	private long sampleStartNanos = startNanos;
+	private long sampleStartGcMillis;
+	private double lastThroughput = -1;
+
+	/**
+	 * @param maxConcurrency
+	 *            the highest limit; 0 means
+	 *            {@value #DEFAULT_MAXIMUM_PER_PROCESSOR} per processor
+	 */
+	AdaptiveConcurrency(int maxConcurrency) {
+		this(maxConcurrency, Runtime.getRuntime().availableProcessors());
+	}
+
+	AdaptiveConcurrency(int maxConcurrency, int processors) {
+		this.processors = processors;
+		maximum = maxConcurrency > 0 ? maxConcurrency : DEFAULT_MAXIMUM_PER_PROCESSOR * processors;
+		limit = Math.min(processors, maximum);
+		permits = new AdjustableSemaphore(limit);
+		sampleStartGcMillis = gcMillis();
+	}
+
+	int getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * Waits until another child may start.
+	 */
+	void acquire() throws InterruptedException {
+		permits.acquire();
+		synchronized (this) {
+			running++;
+			peakRunning = Math.max(peakRunning, running);
+		}
+	}
+
+	void release() {
+		permits.release();
+		synchronized (this) {
+			running--;
+			finished++;
+			long now = System.nanoTime();
+			if (now - sampleStartNanos >= SAMPLE_NANOS && finished >= limit) {
+				decide(now);
+			}
+		}
+	}
+
+	synchronized List<Decision> getDecisions() {
+		return Collections.unmodifiableList(new ArrayList<Decision>(decisions));
+	}
+
+	/**
+	 * Writes the decisions as CSV, the same way as the profile report does.
+	 */
+	void writeDecisions(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			ProfilingListener.writeCsv(out, getDecisions());
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Cannot write concurrency report " + file);
+		}
+	}
+
+	private void decide(long now) {
+		double seconds = (now - sampleStartNanos) / 1e9;
+		double throughput = finished / seconds;
+		long gc = gcMillis();
+		double gcShare = gc < 0 || sampleStartGcMillis < 0 ? -1 : (gc - sampleStartGcMillis) / (seconds * 1000);
+		double load = system.getSystemLoadAverage();
+		double loadPerProcessor = load < 0 ? -1 : load / processors;
+
+		decide((now - startNanos) / 1000000, throughput, gcShare, loadPerProcessor);
+
+		finished = 0;
+		peakRunning = running;
+		sampleStartNanos = now;
+		sampleStartGcMillis = gc;
+	}
+
+	/**
+	 * Decides on the next limit from the measurements of a sample, the
+	 * throughput of the sample before and the most children that ran at once
+	 * during the sample, and hands out or takes away permits accordingly.
+	 *
+	 * @param gcShare
+	 *            the share of the sample's time spent collecting garbage, -1
+	 *            if unknown
+	 * @param loadPerProcessor
+	 *            the system load divided by the processors, -1 if unknown
+	 */
+	synchronized Decision decide(long atMillis, double throughput, double gcShare, double loadPerProcessor) {
+		int next = limit;
+		String reason;
+		if (gcShare > MAX_GC_SHARE) {
+			next = lower();
+			reason = "garbage collection took " + percent(gcShare) + " of the time";
+		} else if (loadPerProcessor > MAX_LOAD_PER_PROCESSOR) {
+			next = lower();
+			reason = "system overloaded";
+		} else if (lastThroughput < 0) {
+			next = direction > 0 ? raise() : limit;
+			reason = "first sample";
+		} else if (throughput >= lastThroughput * (1 + THROUGHPUT_TOLERANCE)) {
+			next = direction > 0 ? raise() : lower();
+			reason = "throughput improved";
+		} else if (throughput <= lastThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+			direction = -direction;
+			next = direction > 0 ? raise() : lower();
+			reason = "throughput degraded";
+		} else {
+			reason = "throughput unchanged";
+		}
+		if (next > limit && peakRunning < limit) {
+			next = limit;
+			reason += ", but only " + peakRunning + " children ran at once";
+		}
+		if (next > limit) {
+			direction = 1;
+			permits.release(next - limit);
+		} else if (next < limit) {
+			direction = -1;
+			permits.reduce(limit - next);
+		} else if (next == 1) {
+			// Nothing left to lower
+			direction = 1;
+		}
+		Decision decision = new Decision(atMillis, limit, next, throughput, gcShare, loadPerProcessor, reason);
+		decisions.add(decision);
+		limit = next;
+		lastThroughput = throughput;
+		return decision;
+	}
+
+	private int raise() {
+		return Math.min(maximum, limit + step());
+	}
+
+	private int lower() {
+		return Math.max(1, limit - step());
+	}
+
+	private int step() {
+		return Math.max(1, limit / 4);
+	}
+
+	/**
+	 * @return the accumulated collection time of all collectors, -1 if the
+	 *         JVM does not tell
+	 */
+	private long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean each : collectors) {
+			long time = each.getCollectionTime();
+			if (time < 0) {
+				return -1;
+			}
+			total += time;
+		}
+		return total;
+	}
+
+	private static String percent(double share) {
+		return String.format(Locale.ROOT, "%.0f%%", share * 100);
+	}
+
+	/**
+	 * A semaphore whose permits can be taken away, even from running
+	 * children: the limit drops as they finish.
+	 */
+	private static final class AdjustableSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		AdjustableSemaphore(int permits) {
+			super(permits);
+		}
+
+		void reduce(int reduction) {
+			reducePermits(reduction);
+		}
+	}
+
+	/**
+	 * The outcome of one sample. GC share and load per processor are -1 if
+	 * the JVM cannot measure them.
+	 */
+	static final class Decision {
+		final long atMillis;
+		final int from;
+		final int to;
+		final double throughput;
+		final double gcShare;
+		final double loadPerProcessor;
+		final String reason;
+
+		Decision(long atMillis, int from, int to, double throughput, double gcShare, double loadPerProcessor,
+				String reason) {
+			this.atMillis = atMillis;
+			this.from = from;
+			this.to = to;
+			this.throughput = throughput;
+			this.gcShare = gcShare;
+			this.loadPerProcessor = loadPerProcessor;
+			this.reason = reason;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%d -> %d at %.1f children/s, GC %s, load %.2f per processor: %s", from,
+					to, throughput, gcShare < 0 ? "unknown" : percent(gcShare), loadPerProcessor, reason);
+		}
+	}
+}
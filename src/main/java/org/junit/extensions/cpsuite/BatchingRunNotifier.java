@@ -0,0 +1,222 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+
+/**
+ * Buffers the events fired on each thread and hands them to the downstream
+ * notifier in batches. Buffering takes no lock; full batches are put on a
+ * lock-free queue and delivered by whichever thread finds no other thread
+ * delivering, so a thread never waits for the listeners of another. The
+ * events of one thread are delivered in the order in which they were fired.
+ * <p>
+ * Listeners added to this notifier itself are called right away on the
+ * firing thread, which is what listeners that measure the running thread
+ * need. They must be thread safe.
+ */
+final class BatchingRunNotifier extends RunNotifier {
+
+	private final RunNotifier downstream;
+	private final int batchSize;
+
+	private final ThreadLocal<List<Event>> buffers = new ThreadLocal<List<Event>>() {
+		@Override
+		protected List<Event> initialValue() {
+			return new ArrayList<Event>();
+		}
+	};
+	private final Queue<List<Event>> batches = new ConcurrentLinkedQueue<List<Event>>();
+	private final AtomicBoolean delivering = new AtomicBoolean(false);
+	private volatile boolean stopped = false;
+
+	BatchingRunNotifier(RunNotifier downstream, int batchSize) {
+		this.downstream = downstream;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void fireTestRunStarted(Description description) {
+		super.fireTestRunStarted(description);
+		add(new Event(Event.RUN_STARTED, description, null, null));
+	}
+
+	@Override
+	public void fireTestRunFinished(Result result) {
+		super.fireTestRunFinished(result);
+		add(new Event(Event.RUN_FINISHED, null, null, result));
+	}
+
+	@Override
+	public void fireTestSuiteStarted(Description description) {
+		super.fireTestSuiteStarted(description);
+		add(new Event(Event.SUITE_STARTED, description, null, null));
+	}
+
+	@Override
+	public void fireTestSuiteFinished(Description description) {
+		super.fireTestSuiteFinished(description);
+		add(new Event(Event.SUITE_FINISHED, description, null, null));
+	}
+
+	@Override
+	public void fireTestStarted(Description description) throws StoppedByUserException {
+		if (stopped) {
+			throw new StoppedByUserException();
+		}
+		super.fireTestStarted(description);
+		add(new Event(Event.STARTED, description, null, null));
+	}
+
+	@Override
+	public void fireTestFailure(Failure failure) {
+		super.fireTestFailure(failure);
+		add(new Event(Event.FAILURE, null, failure, null));
+	}
+
+	@Override
+	public void fireTestAssumptionFailed(Failure failure) {
+		super.fireTestAssumptionFailed(failure);
+		add(new Event(Event.ASSUMPTION_FAILED, null, failure, null));
+	}
+
+	@Override
+	public void fireTestIgnored(Description description) {
+		super.fireTestIgnored(description);
+		add(new Event(Event.IGNORED, description, null, null));
+	}
+
+	@Override
+	public void fireTestFinished(Description description) {
+		super.fireTestFinished(description);
+		add(new Event(Event.FINISHED, description, null, null));
+	}
+
+	@Override
+	public void pleaseStop() {
+		stopped = true;
+		super.pleaseStop();
+		downstream.pleaseStop();
+	}
+
+	private void add(Event event) {
+		List<Event> buffer = buffers.get();
+		buffer.add(event);
+		if (buffer.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Hands the events buffered on the current thread on for delivery.
+	 */
+	void flush() {
+		List<Event> buffer = buffers.get();
+		if (!buffer.isEmpty()) {
+			batches.add(buffer);
+			buffers.set(new ArrayList<Event>(Math.min(batchSize, 64)));
+		}
+		deliver();
+	}
+
+	/**
+	 * Flushes the current thread and waits until all batches handed on so far
+	 * have been delivered.
+	 */
+	void drain() {
+		flush();
+		while (!batches.isEmpty() || delivering.get()) {
+			deliver();
+			Thread.yield();
+		}
+	}
+
+	private void deliver() {
+		// Recheck after giving up, a batch may have been queued meanwhile
+		while (!batches.isEmpty() && delivering.compareAndSet(false, true)) {
+			try {
+				List<Event> batch;
+				while ((batch = batches.poll()) != null) {
+					for (Event each : batch) {
+						deliver(each);
+					}
+				}
+			} finally {
+				delivering.set(false);
+			}
+		}
+	}
+
+	private void deliver(Event event) {
+		switch (event.kind) {
+		case Event.RUN_STARTED:
+			downstream.fireTestRunStarted(event.description);
+			break;
+		case Event.RUN_FINISHED:
+			downstream.fireTestRunFinished(event.result);
+			break;
+		case Event.SUITE_STARTED:
+			downstream.fireTestSuiteStarted(event.description);
+			break;
+		case Event.SUITE_FINISHED:
+			downstream.fireTestSuiteFinished(event.description);
+			break;
+		case Event.STARTED:
+			try {
+				downstream.fireTestStarted(event.description);
+			} catch (StoppedByUserException e) {
+				// Tests that have not been started yet won't be
+				stopped = true;
+			}
+			break;
+		case Event.FAILURE:
+			downstream.fireTestFailure(event.failure);
+			break;
+		case Event.ASSUMPTION_FAILED:
+			downstream.fireTestAssumptionFailed(event.failure);
+			break;
+		case Event.IGNORED:
+			downstream.fireTestIgnored(event.description);
+			break;
+		default:
+			downstream.fireTestFinished(event.description);
+		}
+	}
+
+	private static final class Event {
+		static final int RUN_STARTED = 0;
+		static final int RUN_FINISHED = 1;
+		static final int SUITE_STARTED = 2;
+		static final int SUITE_FINISHED = 3;
+		static final int STARTED = 4;
+		static final int FAILURE = 5;
+		static final int ASSUMPTION_FAILED = 6;
+		static final int IGNORED = 7;
+		static final int FINISHED = 8;
+
+		final int kind;
+		final Description description;
+		final Failure failure;
+		final Result result;
+
+		Event(int kind, Description description, Failure failure, Result result) {
+			this.kind = kind;
+			this.description = description;
+			this.failure = failure;
+			this.result = result;
+		}
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.Request;
+
+/**
+ * Creates a dynamic Application Class-Data Sharing archive of the classes a
+ * suite loads to find and describe its tests, so that forked test JVMs map
+ * them from the archive instead of loading and verifying them again. Needs
+ * JDK 13 or later.
+ * <p>
+ * Run it with the test class path:
+ *
+ * <pre>
+ * java -cp &lt;test class path&gt; org.junit.extensions.cpsuite.ClassDataSharingArchive &lt;suite class&gt; [&lt;directory&gt;]
+ * </pre>
+ *
+ * The tool starts a JVM that searches the suite's test classes and creates
+ * their runners, and writes the list of the classes this loads,
+ * <code>suite.classlist</code>. A second JVM loads these classes again and
+ * writes the archive <code>suite.jsa</code> when it exits. Test JVMs use the
+ * archive through the argument file <code>jvm.options</code>, e.g.
+ * <code>java @target/cpsuite-cds/jvm.options org.junit.runner.JUnitCore &lt;suite class&gt;</code>.
+ * <p>
+ * The JVM only archives classes from jar files and refuses to create an
+ * archive once it has loaded a class from a directory. The second JVM
+ * therefore only has the jars on its class path. A JVM only uses an archive
+ * if its class path starts with the one the archive was created with, so
+ * the argument file sets the class path with the jars first and the
+ * directories last.
+ * <p>
+ * The archive belongs to a fingerprint of the JVM and of the class path:
+ * the entries, their sizes and modification times. If the fingerprint has
+ * not changed, the tool does nothing; otherwise it deletes the archive and
+ * creates a new one. Until the new archive is complete the argument file is
+ * empty, so test JVMs never use a stale archive.
+ */
+public final class ClassDataSharingArchive {
+
+	private static final String DEFAULT_DIRECTORY = "target/cpsuite-cds";
+
+	private static final String ARCHIVE = "suite.jsa";
+	private static final String CLASS_LIST = "suite.classlist";
+	private static final String FINGERPRINT = "fingerprint";
+	private static final String JVM_OPTIONS = "jvm.options";
+	private static final String DESCRIBE = "--describe";
+	private static final String LOAD = "--load";
+
+	private final String suiteClassName;
+	private final File directory;
+	private final String classpath;
+
+	public ClassDataSharingArchive(String suiteClassName, File directory, String classpath) {
+		this.suiteClassName = suiteClassName;
+		this.directory = directory;
+		this.classpath = classpath;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 2 && args[0].equals(DESCRIBE)) {
+			describeSuite(args[1]);
+			return;
+		}
+		if (args.length == 2 && args[0].equals(LOAD)) {
+			loadClasses(new File(args[1]));
+			return;
+		}
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: " + ClassDataSharingArchive.class.getName() + " <suite class> [<directory>]");
+			System.exit(2);
+		}
+		File directory = new File(args.length > 1 ? args[1] : DEFAULT_DIRECTORY);
+		ClassDataSharingArchive archive = new ClassDataSharingArchive(args[0], directory, System.getProperty("java.class.path"));
+		if (!archive.update()) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs in the JVM that creates the archive: describing the suite loads
+	 * the suite's test classes, their runners and everything needed to find
+	 * them.
+	 */
+	private static void describeSuite(String suiteClassName) throws ClassNotFoundException {
+		Class<?> suiteClass = Class.forName(suiteClassName);
+		Description description = Request.aClass(suiteClass).getRunner().getDescription();
+		System.out.println("Described " + description.testCount() + " tests of " + suiteClassName);
+	}
+
+	/**
+	 * Runs in the JVM that writes the archive. Classes that were loaded from
+	 * directories cannot be found there and are skipped.
+	 */
+	private static void loadClasses(File classList) throws IOException {
+		ClassLoader classLoader = ClassDataSharingArchive.class.getClassLoader();
+		int loaded = 0;
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(classList), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				// Lines look like "java/lang/Object id: 0"; others describe
+				// lambdas or are comments
+				if (line.length() == 0 || line.startsWith("#") || line.startsWith("@")) {
+					continue;
+				}
+				String className = line.split(" ")[0].replace('/', '.');
+				try {
+					Class.forName(className, false, classLoader);
+					loaded++;
+				} catch (ClassNotFoundException e) {
+					// Loaded from a directory
+				} catch (LinkageError e) {
+					// Depends on a class from a directory
+				}
+			}
+		} finally {
+			in.close();
+		}
+		System.out.println("Loaded " + loaded + " classes for the archive");
+	}
+
+	/**
+	 * Creates the archive unless there is one for the current fingerprint.
+	 *
+	 * @return whether an up to date archive exists afterwards
+	 */
+	public boolean update() throws IOException, InterruptedException {
+		String fingerprint = fingerprint();
+		File archive = new File(directory, ARCHIVE);
+		if (archive.isFile() && fingerprint.equals(readFingerprint())) {
+			return true;
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		// Nobody must use the old archive from here on
+		writeFile(new File(directory, JVM_OPTIONS), "");
+		new File(directory, FINGERPRINT).delete();
+		archive.delete();
+		File classList = new File(directory, CLASS_LIST);
+		if (!writeClassList(classList) || !writeArchive(archive, classList) || !archive.isFile()) {
+			System.err.println("Could not create class data sharing archive " + archive);
+			return false;
+		}
+		writeFile(new File(directory, JVM_OPTIONS), "-XX:SharedArchiveFile=" + quote(archive.getAbsolutePath()) + "\n-cp "
+				+ quote(join(getJars(), getDirectories())) + "\n");
+		writeFile(new File(directory, FINGERPRINT), fingerprint);
+		return true;
+	}
+
+	private boolean writeClassList(File classList) throws IOException, InterruptedException {
+		return runJava("-XX:DumpLoadedClassList=" + classList.getAbsolutePath(), classpath, DESCRIBE, suiteClassName);
+	}
+
+	private boolean writeArchive(File archive, File classList) throws IOException, InterruptedException {
+		// The tool itself has to be on the class path
+		String toolJar = new File(ClassDataSharingArchive.class.getProtectionDomain().getCodeSource().getLocation()
+				.getPath()).getPath();
+		List<String> jars = getJars();
+		return runJava("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath(),
+				join(jars, jars.contains(toolJar) ? new ArrayList<String>() : Arrays.asList(toolJar)), LOAD,
+				classList.getAbsolutePath());
+	}
+
+	private boolean runJava(String option, String classpath, String mode, String argument) throws IOException,
+			InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.add(option);
+		command.add("-cp");
+		command.add(classpath);
+		command.add(ClassDataSharingArchive.class.getName());
+		command.add(mode);
+		command.add(argument);
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		return process.waitFor() == 0;
+	}
+
+	private List<String> getJars() {
+		List<String> jars = new ArrayList<String>();
+		for (String each : classpath.split(File.pathSeparator)) {
+			if (each.length() > 0 && !new File(each).isDirectory()) {
+				jars.add(each);
+			}
+		}
+		return jars;
+	}
+
+	private List<String> getDirectories() {
+		List<String> directories = new ArrayList<String>();
+		for (String each : classpath.split(File.pathSeparator)) {
+			if (each.length() > 0 && new File(each).isDirectory()) {
+				directories.add(each);
+			}
+		}
+		return directories;
+	}
+
+	private static String join(List<String> first, List<String> second) {
+		StringBuilder joined = new StringBuilder();
+		for (List<String> entries : Arrays.asList(first, second)) {
+			for (String each : entries) {
+				if (joined.length() > 0) {
+					joined.append(File.pathSeparator);
+				}
+				joined.append(each);
+			}
+		}
+		return joined.toString();
+	}
+
+	/**
+	 * Quotes an argument file value; backslashes are escape characters in
+	 * quotes.
+	 */
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\") + "\"";
+	}
+
+	/**
+	 * The JVM and, for every class path entry, its path, size and
+	 * modification time; for directories those of all files in them.
+	 */
+	String fingerprint() throws IOException {
+		MessageDigest digest = newDigest();
+		update(digest, System.getProperty("java.home"));
+		update(digest, System.getProperty("java.vm.version"));
+		for (String each : classpath.split(File.pathSeparator)) {
+			if (each.length() > 0) {
+				update(digest, new File(each));
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte each : digest.digest()) {
+			hex.append(String.format("%02x", each & 0xff));
+		}
+		return hex.toString();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void update(MessageDigest digest, File file) throws UnsupportedEncodingException {
+		update(digest, file.getAbsolutePath());
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				Arrays.sort(children);
+				for (File each : children) {
+					update(digest, each);
+				}
+			}
+			return;
+		}
+		update(digest, file.length() + ":" + file.lastModified());
+	}
+
+	private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+		digest.update(String.valueOf(value).getBytes("UTF-8"));
+		digest.update((byte) 0);
+	}
+
+	private String readFingerprint() {
+		File file = new File(directory, FINGERPRINT);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+			try {
+				StringBuilder content = new StringBuilder();
+				char[] buffer = new char[256];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					content.append(buffer, 0, read);
+				}
+				return content.toString().trim();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// Create the archive again
+			return null;
+		}
+	}
+
+	private static void writeFile(File file, String content) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			out.print(content);
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Cannot write " + file);
+		}
+	}
+}
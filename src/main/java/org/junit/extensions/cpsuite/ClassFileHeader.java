@@ -0,0 +1,391 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The header of a class file - access flags, name, superclass and interfaces -
+ * read from its bytes without loading the class, together with the runtime
+ * visible annotations of the class and of its public methods.
+ */
+public final class ClassFileHeader {
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+	private static final String ENCLOSING_METHOD = "EnclosingMethod";
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_INTERFACE = 0x0200;
+	private static final int ACC_SYNTHETIC = 0x1000;
+	private static final int ACC_ANNOTATION = 0x2000;
+	private static final int ACC_ENUM = 0x4000;
+	private static final int ACC_MODULE = 0x8000;
+
+	private final int accessFlags;
+	private final String className;
+	private final String superclassName;
+	private final List<String> interfaceNames;
+	private final List<String> annotationNames;
+	private final Set<String> publicMethodAnnotationNames;
+	private final boolean localOrAnonymous;
+
+	private ClassFileHeader(int accessFlags, String className, String superclassName, List<String> interfaceNames,
+			List<String> annotationNames, Set<String> publicMethodAnnotationNames, boolean localOrAnonymous) {
+		this.accessFlags = accessFlags;
+		this.className = className;
+		this.superclassName = superclassName;
+		this.interfaceNames = interfaceNames;
+		this.annotationNames = annotationNames;
+		this.publicMethodAnnotationNames = publicMethodAnnotationNames;
+		this.localOrAnonymous = localOrAnonymous;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the bytes are not a class file
+	 */
+	public static ClassFileHeader parse(byte[] bytes) {
+		try {
+			ClassFileReader reader = new ClassFileReader(bytes);
+			if (reader.u4() != MAGIC) {
+				throw new IllegalArgumentException("Not a class file");
+			}
+			reader.skip(4); // minor and major version
+			reader.readConstantPool();
+			int accessFlags = reader.u2();
+			String className = reader.className(reader.u2());
+			String superclassName = reader.className(reader.u2());
+			int interfaceCount = reader.u2();
+			List<String> interfaceNames = new ArrayList<String>(interfaceCount);
+			for (int i = 0; i < interfaceCount; i++) {
+				interfaceNames.add(reader.className(reader.u2()));
+			}
+			skipMembers(reader);
+			Set<String> publicMethodAnnotationNames = readPublicMethodAnnotationNames(reader);
+			List<String> annotationNames = new ArrayList<String>();
+			boolean localOrAnonymous = false;
+			int attributeCount = reader.u2();
+			for (int i = 0; i < attributeCount; i++) {
+				String attributeName = reader.utf8(reader.u2());
+				int length = reader.u4();
+				if (attributeName.equals(RUNTIME_VISIBLE_ANNOTATIONS)) {
+					reader.readAnnotationNames(annotationNames);
+				} else {
+					// Only local and anonymous classes have an enclosing method
+					localOrAnonymous |= attributeName.equals(ENCLOSING_METHOD);
+					reader.skip(length);
+				}
+			}
+			return new ClassFileHeader(accessFlags, className, superclassName, Collections.unmodifiableList(interfaceNames),
+					Collections.unmodifiableList(annotationNames), Collections.unmodifiableSet(publicMethodAnnotationNames),
+					localOrAnonymous);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated class file", e);
+		}
+	}
+
+	/**
+	 * Skips fields, which have the same layout as methods.
+	 */
+	private static void skipMembers(ClassFileReader reader) {
+		int count = reader.u2();
+		for (int i = 0; i < count; i++) {
+			reader.skip(6); // access flags, name and descriptor
+			skipAttributes(reader);
+		}
+	}
+
+	private static void skipAttributes(ClassFileReader reader) {
+		int count = reader.u2();
+		for (int i = 0; i < count; i++) {
+			reader.skip(2);
+			reader.skip(reader.u4());
+		}
+	}
+
+	private static Set<String> readPublicMethodAnnotationNames(ClassFileReader reader) {
+		Set<String> names = new HashSet<String>();
+		int methodCount = reader.u2();
+		for (int i = 0; i < methodCount; i++) {
+			boolean isPublic = (reader.u2() & ACC_PUBLIC) != 0;
+			reader.skip(4); // name and descriptor
+			int attributeCount = reader.u2();
+			for (int j = 0; j < attributeCount; j++) {
+				String attributeName = reader.utf8(reader.u2());
+				int length = reader.u4();
+				if (isPublic && attributeName.equals(RUNTIME_VISIBLE_ANNOTATIONS)) {
+					List<String> annotationNames = new ArrayList<String>();
+					reader.readAnnotationNames(annotationNames);
+					names.addAll(annotationNames);
+				} else {
+					reader.skip(length);
+				}
+			}
+		}
+		return names;
+	}
+
+	public int getAccessFlags() {
+		return accessFlags;
+	}
+
+	/**
+	 * @return the binary name, e.g. <code>a.b.C$D</code>
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * @return the binary name of the superclass, <code>null</code> for
+	 *         <code>java.lang.Object</code> and modules
+	 */
+	public String getSuperclassName() {
+		return superclassName;
+	}
+
+	public List<String> getInterfaceNames() {
+		return interfaceNames;
+	}
+
+	/**
+	 * @return the binary names of the runtime visible annotations of the
+	 *         class itself, not including inherited ones
+	 */
+	public List<String> getAnnotationNames() {
+		return annotationNames;
+	}
+
+	/**
+	 * @return the binary names of the runtime visible annotations of the
+	 *         public methods the class declares
+	 */
+	public Set<String> getPublicMethodAnnotationNames() {
+		return publicMethodAnnotationNames;
+	}
+
+	public boolean isLocalOrAnonymous() {
+		return localOrAnonymous;
+	}
+
+	public boolean isAbstract() {
+		return (accessFlags & Modifier.ABSTRACT) != 0;
+	}
+
+	public boolean isInterface() {
+		return (accessFlags & ACC_INTERFACE) != 0;
+	}
+
+	public boolean isAnnotation() {
+		return (accessFlags & ACC_ANNOTATION) != 0;
+	}
+
+	public boolean isEnum() {
+		return (accessFlags & ACC_ENUM) != 0;
+	}
+
+	public boolean isSynthetic() {
+		return (accessFlags & ACC_SYNTHETIC) != 0;
+	}
+
+	public boolean isModule() {
+		return (accessFlags & ACC_MODULE) != 0;
+	}
+
+	/**
+	 * Minimal big endian reader over the bytes of a class file.
+	 */
+	static final class ClassFileReader {
+		private static final int CONSTANT_UTF8 = 1;
+		private static final int CONSTANT_INTEGER = 3;
+		private static final int CONSTANT_FLOAT = 4;
+		private static final int CONSTANT_LONG = 5;
+		private static final int CONSTANT_DOUBLE = 6;
+		private static final int CONSTANT_CLASS = 7;
+		private static final int CONSTANT_STRING = 8;
+		private static final int CONSTANT_FIELDREF = 9;
+		private static final int CONSTANT_METHODREF = 10;
+		private static final int CONSTANT_INTERFACE_METHODREF = 11;
+		private static final int CONSTANT_NAME_AND_TYPE = 12;
+		private static final int CONSTANT_METHOD_HANDLE = 15;
+		private static final int CONSTANT_METHOD_TYPE = 16;
+		private static final int CONSTANT_DYNAMIC = 17;
+		private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+		private static final int CONSTANT_MODULE = 19;
+		private static final int CONSTANT_PACKAGE = 20;
+
+		private final byte[] bytes;
+		private int position = 0;
+
+		// Offset of each constant pool entry's payload, just after its tag
+		private int[] constantOffsets;
+		private String[] utf8Cache;
+
+		ClassFileReader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		int u1() {
+			if (position >= bytes.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			return bytes[position++] & 0xFF;
+		}
+
+		int u2() {
+			return (u1() << 8) | u1();
+		}
+
+		int u4() {
+			return (u2() << 16) | u2();
+		}
+
+		void skip(int count) {
+			position += count;
+			if (position > bytes.length) {
+				throw new IndexOutOfBoundsException();
+			}
+		}
+
+		void readConstantPool() {
+			int count = u2();
+			constantOffsets = new int[count];
+			utf8Cache = new String[count];
+			for (int index = 1; index < count; index++) {
+				int tag = u1();
+				constantOffsets[index] = position;
+				switch (tag) {
+				case CONSTANT_UTF8:
+					skip(u2());
+					break;
+				case CONSTANT_CLASS:
+				case CONSTANT_STRING:
+				case CONSTANT_METHOD_TYPE:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					skip(2);
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					skip(3);
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELDREF:
+				case CONSTANT_METHODREF:
+				case CONSTANT_INTERFACE_METHODREF:
+				case CONSTANT_NAME_AND_TYPE:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					skip(4);
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					skip(8);
+					index++;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+				}
+			}
+		}
+
+		String utf8(int index) {
+			if (index <= 0 || index >= constantOffsets.length) {
+				throw new IllegalArgumentException("Invalid constant pool index " + index);
+			}
+			if (utf8Cache[index] == null) {
+				int offset = constantOffsets[index];
+				int length = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+				try {
+					utf8Cache[index] = new DataInputStream(new ByteArrayInputStream(bytes, offset, length + 2)).readUTF();
+				} catch (IOException e) {
+					throw new IllegalArgumentException("Malformed constant pool entry " + index, e);
+				}
+			}
+			return utf8Cache[index];
+		}
+
+		/**
+		 * Reads the types of the annotations of a
+		 * <code>RuntimeVisibleAnnotations</code> attribute and skips their
+		 * values.
+		 */
+		void readAnnotationNames(List<String> names) {
+			int count = u2();
+			for (int i = 0; i < count; i++) {
+				names.add(typeName(utf8(u2())));
+				skipElementValuePairs();
+			}
+		}
+
+		private void skipElementValuePairs() {
+			int count = u2();
+			for (int i = 0; i < count; i++) {
+				skip(2); // element name
+				skipElementValue();
+			}
+		}
+
+		private void skipElementValue() {
+			int tag = u1();
+			switch (tag) {
+			case 'e':
+				skip(4); // type and constant name
+				break;
+			case '@':
+				skip(2); // annotation type
+				skipElementValuePairs();
+				break;
+			case '[':
+				int count = u2();
+				for (int i = 0; i < count; i++) {
+					skipElementValue();
+				}
+				break;
+			default:
+				// Constants and classes
+				skip(2);
+			}
+		}
+
+		/**
+		 * @return the binary name for a field descriptor like
+		 *         <code>La/b/C;</code>
+		 */
+		private static String typeName(String descriptor) {
+			if (descriptor.length() < 3 || descriptor.charAt(0) != 'L' || !descriptor.endsWith(";")) {
+				throw new IllegalArgumentException("Invalid annotation type " + descriptor);
+			}
+			return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+		}
+
+		/**
+		 * @return the binary name of the class at the given constant pool
+		 *         index, <code>null</code> for index 0
+		 */
+		String className(int index) {
+			if (index == 0) {
+				return null;
+			}
+			if (index >= constantOffsets.length) {
+				throw new IllegalArgumentException("Invalid constant pool index " + index);
+			}
+			int offset = constantOffsets[index];
+			int nameIndex = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+			return utf8(nameIndex).replace('/', '.');
+		}
+	}
+}
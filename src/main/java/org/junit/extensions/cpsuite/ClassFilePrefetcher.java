@@ -0,0 +1,165 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads and parses class files on a small pool of I/O threads ahead of the
+ * thread that loads them, so that reading from slow file systems overlaps
+ * with class loading instead of stalling it. Without threads, a class file is
+ * read and parsed on the calling thread when it is asked for. Class files in
+ * jars are read through the jar the search already has open.
+ */
+final class ClassFilePrefetcher {
+
+	static final String THREADS_PROPERTY = "cpsuite.prefetchThreads";
+
+	// null if the class files are read on the calling thread
+	private final ExecutorService executor;
+
+	ClassFilePrefetcher(int threads) {
+		this.executor = threads > 0 ? Executors.newFixedThreadPool(threads, new PrefetchThreadFactory()) : null;
+	}
+
+	/**
+	 * @return <code>null</code> unless class files are to be screened, which
+	 *         the property switches on; with 0 threads they are read on the
+	 *         searching thread
+	 */
+	static ClassFilePrefetcher fromSystemProperties() {
+		Integer threads = Integer.getInteger(THREADS_PROPERTY);
+		return threads == null || threads.intValue() < 0 ? null : new ClassFilePrefetcher(threads.intValue());
+	}
+
+	/**
+	 * @return whether class files are read on background threads
+	 */
+	boolean isAsynchronous() {
+		return executor != null;
+	}
+
+	/**
+	 * @param fileNames
+	 *            the iterator the root is searched with
+	 * @return <code>null</code> if the class files of the root cannot be
+	 *         read
+	 */
+	Root open(File root, Iterable<String> fileNames) {
+		if (fileNames instanceof JarFilenameIterator) {
+			return new JarRoot(((JarFilenameIterator) fileNames).share());
+		}
+		if (root != null && root.isDirectory()) {
+			return new DirectoryRoot(root);
+		}
+		return null;
+	}
+
+	void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The class files of one class path root.
+	 */
+	abstract class Root {
+
+		/**
+		 * Reads the header on a background thread; only for asynchronous
+		 * prefetchers.
+		 *
+		 * @return the future result of {@link #readHeader(String)}
+		 */
+		Future<ClassFileHeader> prefetch(final String fileName) {
+			return executor.submit(new Callable<ClassFileHeader>() {
+				public ClassFileHeader call() throws IOException {
+					return readHeader(fileName);
+				}
+			});
+		}
+
+		/**
+		 * @return <code>null</code> if there is no such file
+		 * @throws IllegalArgumentException
+		 *             if the file is not a class file
+		 */
+		ClassFileHeader readHeader(String fileName) throws IOException {
+			byte[] bytes = read(fileName);
+			return bytes == null ? null : ClassFileHeader.parse(bytes);
+		}
+
+		abstract byte[] read(String fileName) throws IOException;
+	}
+
+	private final class DirectoryRoot extends Root {
+		private final File directory;
+
+		DirectoryRoot(File directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		byte[] read(String fileName) throws IOException {
+			File file = new File(directory, fileName);
+			return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+		}
+	}
+
+	/**
+	 * The jar is owned by the iterator that shared it.
+	 */
+	private final class JarRoot extends Root {
+		private final JarFile jar;
+
+		JarRoot(JarFile jar) {
+			this.jar = jar;
+		}
+
+		@Override
+		byte[] read(String fileName) throws IOException {
+			ZipEntry entry = jar.getEntry(fileName);
+			if (entry == null) {
+				return null;
+			}
+			InputStream in = jar.getInputStream(entry);
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 4096);
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+				return out.toByteArray();
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private static final class PrefetchThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "cpsuite-prefetch-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+/**
+ * Optional extension of {@link ClassTester} for testers that can reject a
+ * candidate from its class file header and the headers of its supertypes,
+ * before the class is loaded. It is only consulted when class files are
+ * screened; a candidate that passes is still loaded and handed to
+ * {@link ClassTester#acceptClass(Class)}, so a tester only needs to be sure
+ * when it rejects.
+ */
+public interface ClassFileTester {
+	boolean acceptClassFile(ClassFileHeader header, TypeIndex index);
+}
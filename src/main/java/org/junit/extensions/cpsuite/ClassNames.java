@@ -0,0 +1,199 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact, insertion ordered set of fully qualified class names. Every
+ * package name is stored once and simple names are kept as UTF-8 bytes in a
+ * shared pool, so a class costs a few bytes more than its simple name instead
+ * of a String, its backing array and a hash table node.
+ */
+final class ClassNames implements Iterable<String> {
+
+	private static final String UTF8 = "UTF-8";
+
+	private final List<String> packages = new ArrayList<String>();
+	private final Map<String, Integer> packageIds = new HashMap<String, Integer>();
+
+	private int size = 0;
+	private int[] packageOf = new int[16];
+	private int[] nameStart = new int[17];
+	private byte[] pool = new byte[256];
+
+	// Open addressing table holding (index + 1) of each name; 0 marks a free slot
+	private int[] slots = new int[32];
+
+	/**
+	 * @return <code>true</code> if the name was not yet contained
+	 */
+	boolean add(String className) {
+		int packageId = packageId(packageOf(className), true);
+		byte[] simpleName = utf8(simpleNameOf(className));
+		int hash = hash(packageId, simpleName, 0, simpleName.length);
+		int slot = findSlot(hash, packageId, simpleName);
+		if (slots[slot] != 0) {
+			return false;
+		}
+		append(packageId, simpleName);
+		slots[slot] = size;
+		if (size * 2 > slots.length) {
+			rehash();
+		}
+		return true;
+	}
+
+	boolean contains(String className) {
+		int packageId = packageId(packageOf(className), false);
+		if (packageId < 0) {
+			return false;
+		}
+		byte[] simpleName = utf8(simpleNameOf(className));
+		int hash = hash(packageId, simpleName, 0, simpleName.length);
+		return slots[findSlot(hash, packageId, simpleName)] != 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	String get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		String packageName = packages.get(packageOf[index]);
+		String simpleName = decode(nameStart[index], nameStart[index + 1]);
+		return packageName.length() == 0 ? simpleName : packageName + "." + simpleName;
+	}
+
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int index = 0;
+
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return get(index++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private int packageId(String packageName, boolean create) {
+		Integer id = packageIds.get(packageName);
+		if (id != null) {
+			return id.intValue();
+		}
+		if (!create) {
+			return -1;
+		}
+		packages.add(packageName);
+		packageIds.put(packageName, packages.size() - 1);
+		return packages.size() - 1;
+	}
+
+	private int findSlot(int hash, int packageId, byte[] simpleName) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != 0 && !matches(slots[slot] - 1, packageId, simpleName)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean matches(int index, int packageId, byte[] simpleName) {
+		if (packageOf[index] != packageId) {
+			return false;
+		}
+		int start = nameStart[index];
+		if (nameStart[index + 1] - start != simpleName.length) {
+			return false;
+		}
+		for (int i = 0; i < simpleName.length; i++) {
+			if (pool[start + i] != simpleName[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void append(int packageId, byte[] simpleName) {
+		if (size == packageOf.length) {
+			packageOf = Arrays.copyOf(packageOf, size * 2);
+			nameStart = Arrays.copyOf(nameStart, size * 2 + 1);
+		}
+		int start = nameStart[size];
+		if (start + simpleName.length > pool.length) {
+			pool = Arrays.copyOf(pool, Math.max(pool.length * 2, start + simpleName.length));
+		}
+		System.arraycopy(simpleName, 0, pool, start, simpleName.length);
+		packageOf[size] = packageId;
+		size++;
+		nameStart[size] = start + simpleName.length;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int index = 0; index < size; index++) {
+			int start = nameStart[index];
+			int slot = hash(packageOf[index], pool, start, nameStart[index + 1] - start) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = index + 1;
+		}
+	}
+
+	private static int hash(int packageId, byte[] bytes, int offset, int length) {
+		int hash = packageId;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static String packageOf(String className) {
+		int lastDot = className.lastIndexOf('.');
+		return lastDot < 0 ? "" : className.substring(0, lastDot);
+	}
+
+	private static String simpleNameOf(String className) {
+		return className.substring(className.lastIndexOf('.') + 1);
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes(UTF8);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private String decode(int start, int end) {
+		try {
+			return new String(pool, start, end - start, UTF8);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -5,7 +5,14 @@
  */
 package org.junit.extensions.cpsuite;
 
+/**
+ * Creates the finder that discovers the test classes of a suite. A suite uses
+ * the factory named in its <code>FinderFactory</code> annotation; without one
+ * it uses the first factory registered as a service in
+ * <code>META-INF/services/org.junit.extensions.cpsuite.ClassesFinderFactory</code>
+ * and falls back to {@link ClasspathFinderFactory}. Factories need a public
+ * default constructor.
+ */
 public interface ClassesFinderFactory {
-	ClassesFinder create(boolean searchInJars, String[] filterPatterns, String[] classpathFilterPatterns, SuiteType[] suiteTypes,
-                         Class<?>[] baseTypes, Class<?>[] excludedBaseTypes, String classpathProperty);
+	ClassesFinder create(FinderConfig config);
 }
@@ -5,16 +5,33 @@
  */
 package org.junit.extensions.cpsuite;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
- * Utility class to find classes within the class path, both inside and outside
- * of jar files. Inner and anonymous classes are not being considered in the
- * first place.
+ * Utility class to find classes within the class path and the module path, both
+ * inside and outside of jar files. Inner and anonymous classes are not being
+ * considered in the first place. If the jar scan policy says so, jars nested
+ * in jar files are searched as well, in memory, and their classes are loaded
+ * through a {@link NestedJarClassLoader}.
  * 
  * It's originally evolved out of ClassPathTestCollector in JUnit 3.8.1
  */
@@ -23,18 +40,132 @@ public class ClasspathClassesFinder implements ClassesFinder
 
 	private static final int CLASS_SUFFIX_LENGTH = ".class".length();
 	private static final String FALLBACK_CLASSPATH_PROPERTY = "java.class.path";
+	private static final String MODULE_PATH_PROPERTY = "jdk.module.path";
+	private static final String MODULE_INFO_CLASS = "module-info.class";
+	private static final int PREFETCH_WINDOW = 64;
 
-	private final ClassTester tester;
+	private final List<ClassTester> testers;
 
 	private final String classpathProperty;
 
+	private final ClassLoader classLoader;
+
+	private final JarScanPolicy jarScanPolicy;
+
+	private ClassFilePrefetcher prefetcher;
+
+	private TypeIndex typeIndex;
+
+	private DiscoveryDiagnostics diagnostics;
+
+	// Created when the first nested jar is found
+	private NestedJarClassLoader nestedJarLoader;
+
+	// Only while a root scan event is being recorded
+	private RootScan rootScan;
+
+	// Tells whether the classes of a jar could all be loaded
+	private int loadFailures;
+
 	public ClasspathClassesFinder(ClassTester tester, String classpathProperty) {
-		this.tester = tester;
+		this(tester, classpathProperty, ClasspathClassesFinder.class.getClassLoader());
+	}
+
+	/**
+	 * @param classLoader
+	 *            the class loader through which candidates are loaded
+	 */
+	public ClasspathClassesFinder(ClassTester tester, String classpathProperty, ClassLoader classLoader) {
+		this(Collections.singletonList(tester), classpathProperty, classLoader);
+	}
+
+	private ClasspathClassesFinder(List<ClassTester> testers, String classpathProperty, ClassLoader classLoader) {
+		this.testers = testers;
 		this.classpathProperty = classpathProperty;
+		this.classLoader = classLoader;
+		this.jarScanPolicy = JarScanPolicy.fromSystemProperties(describeTesters());
+	}
+
+	/**
+	 * @return what the testers accept, which the jar scan policy caches its
+	 *         findings for; <code>null</code> if a tester cannot tell
+	 */
+	private String describeTesters() {
+		StringBuilder description = new StringBuilder();
+		for (ClassTester each : testers) {
+			// Subclasses may accept other classes than their configuration says
+			if (each.getClass() != ClasspathSuiteTester.class) {
+				return null;
+			}
+			description.append(((ClasspathSuiteTester) each).describe()).append('\n');
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Finds the classes accepted by each of several testers in a single pass
+	 * over the roots: every root is walked and every candidate is loaded at
+	 * most once, no matter how many testers consider it. The result for a
+	 * tester is the same as that of {@link #find()} with the tester alone.
+	 *
+	 * @return the accepted classes for each key, in the order of the given map
+	 */
+	public static <K> Map<K, List<Class<?>>> findAll(Map<K, ? extends ClassTester> testers, String classpathProperty,
+			ClassLoader classLoader) {
+		ClasspathClassesFinder finder = new ClasspathClassesFinder(new ArrayList<ClassTester>(testers.values()), classpathProperty,
+				classLoader);
+		List<List<Class<?>>> found = finder.findForAllTesters();
+		Map<K, List<Class<?>>> result = new LinkedHashMap<K, List<Class<?>>>();
+		int index = 0;
+		for (K each : testers.keySet()) {
+			result.put(each, found.get(index++));
+		}
+		return result;
 	}
 
 	public List<Class<?>> find() {
-		return findClassesInClasspath(getClasspath());
+		return findForAllTesters().get(0);
+	}
+
+	private List<List<Class<?>>> findForAllTesters() {
+		List<File> roots = new ArrayList<File>();
+		roots.addAll(getModulePathRoots());
+		for (String each : splitClassPath(getClasspath())) {
+			roots.add(new File(each));
+		}
+		prefetcher = ClassFilePrefetcher.fromSystemProperties();
+		typeIndex = prefetcher == null ? null : new TypeIndex(classLoader);
+		diagnostics = DiscoveryDiagnostics.fromSystemProperties();
+		List<List<Class<?>>> classes;
+		try {
+			classes = findClassesInRoots(roots);
+			writeDiagnostics();
+		} finally {
+			if (prefetcher != null) {
+				prefetcher.shutdown();
+				prefetcher = null;
+			}
+			typeIndex = null;
+			diagnostics = null;
+		}
+		try {
+			jarScanPolicy.saveCache();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return classes;
+	}
+
+	private void writeDiagnostics() {
+		if (diagnostics == null) {
+			return;
+		}
+		try {
+			diagnostics.writeReport();
+		} catch (IOException e) {
+			// A missing report must not fail the search
+			e.printStackTrace();
+		}
 	}
 
 	private String getClasspath() {
@@ -44,70 +175,415 @@ public class ClasspathClassesFinder implements ClassesFinder
 		return classPath;
 	}
 
-	private List<Class<?>> findClassesInClasspath(String classPath) {
-		return findClassesInRoots(splitClassPath(classPath));
+	/**
+	 * Named modules take precedence over the class path when the application
+	 * class loader resolves a class, so their roots are searched first. A
+	 * module path entry is either a module (modular jar or exploded module)
+	 * or a directory of modules.
+	 */
+	private List<File> getModulePathRoots() {
+		List<File> roots = new ArrayList<File>();
+		String modulePath = System.getProperty(MODULE_PATH_PROPERTY);
+		if (modulePath == null || modulePath.length() == 0) {
+			return roots;
+		}
+		for (String each : splitClassPath(modulePath)) {
+			File entry = new File(each);
+			if (entry.isDirectory() && !new File(entry, MODULE_INFO_CLASS).isFile()) {
+				File[] modules = entry.listFiles();
+				if (modules != null) {
+					Arrays.sort(modules);
+					roots.addAll(Arrays.asList(modules));
+				}
+			} else {
+				roots.add(entry);
+			}
+		}
+		return roots;
 	}
 
-	private List<Class<?>> findClassesInRoots(List<String> roots) {
-		List<Class<?>> classes = new ArrayList<Class<?>>(100);
-		for (String root : roots) {
-			gatherClassesInRoot(new File(root), classes);
+	/**
+	 * Roots are searched in class loader order; roots referenced from a jar's
+	 * <code>Class-Path</code> manifest attribute are searched right after
+	 * that jar. A class found in more than one root is only considered in the
+	 * first one, which is the copy the class loader will actually load.
+	 */
+	private List<List<Class<?>>> findClassesInRoots(List<File> roots) {
+		Search search = new Search(testers.size());
+		Set<File> seenRoots = new HashSet<File>();
+		LinkedList<File> pendingRoots = new LinkedList<File>(roots);
+		while (!pendingRoots.isEmpty()) {
+			File root = pendingRoots.removeFirst();
+			if (!seenRoots.add(canonicalFile(root))) {
+				continue;
+			}
+			List<File> referencedRoots = gatherClassesInRoot(root, search);
+			pendingRoots.addAll(0, referencedRoots);
 		}
-		return classes;
+		return search.classes;
+	}
+
+	private ClassLoader getLoadingClassLoader() {
+		return nestedJarLoader != null ? nestedJarLoader : classLoader;
+	}
+
+	private File canonicalFile(File file) {
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException e) {
+			return file.getAbsoluteFile();
+		}
+	}
+
+	private List<File> gatherClassesInRoot(File classRoot, Search search) {
+		boolean isJar = isJarFile(classRoot.getName()) && !classRoot.isDirectory();
+		boolean[] activeTesters = new boolean[testers.size()];
+		boolean anyActive = false;
+		for (int i = 0; i < activeTesters.length; i++) {
+			ClassTester tester = testers.get(i);
+			activeTesters[i] = tester.acceptClassRoot(classRoot.getAbsolutePath()) && (!isJar || tester.searchInJars());
+			anyActive |= activeTesters[i];
+		}
+		if (!anyActive) {
+			return Collections.emptyList();
+		}
+		if (diagnostics != null) {
+			diagnostics.enterRoot(classRoot);
+		}
+		Object event = FlightRecorderEvents.beginRootScan();
+		rootScan = event == null ? null : new RootScan(classRoot, isJar);
+		try {
+			if (isJar) {
+				return gatherClassesInJar(classRoot, search, activeTesters);
+			}
+			if (classRoot.isDirectory()) {
+				gatherClasses(search, activeTesters, new RecursiveFilenameIterator(classRoot), classRoot);
+			}
+			return Collections.emptyList();
+		} finally {
+			if (rootScan != null) {
+				FlightRecorderEvents.endRootScan(event, classRoot, rootScan.entries, rootScan.getBytes());
+				rootScan = null;
+			}
+		}
+	}
+
+	private List<File> gatherClassesInJar(File jar, Search search, boolean[] activeTesters) {
+		if (!jarScanPolicy.shouldScan(jar)) {
+			return Collections.emptyList();
+		}
+		JarFilenameIterator jarFilenames;
+		try {
+			jarFilenames = new JarFilenameIterator(jar);
+		} catch (IOException e) {
+			// Don't iterate unavailable jar files
+			e.printStackTrace();
+			if (diagnostics != null) {
+				diagnostics.unreadableRoot(jar, e);
+			}
+			return Collections.emptyList();
+		}
+		int failuresBefore = loadFailures;
+		int found = gatherClasses(search, activeTesters, jarFilenames, jar);
+		if (jarScanPolicy.scanNestedJars()) {
+			found += gatherClassesInNestedJars(jar, search, activeTesters);
+		}
+		List<File> referencedRoots = jarFilenames.getClassPathReferences();
+		// A jar that only points at other jars must be opened again next time,
+		// and a search narrowed to requested classes says nothing about the rest
+		if (!isNarrowed()) {
+			jarScanPolicy.scanned(jar, found > 0 || !referencedRoots.isEmpty(), loadFailures == failuresBefore);
+		}
+		return referencedRoots;
+	}
+
+	private boolean isNarrowed() {
+		for (ClassTester each : testers) {
+			if (each instanceof ClasspathSuiteTester && ((ClasspathSuiteTester) each).isNarrowed()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Nested jars are searched right after the jar that holds them, in the
+	 * order of their entries. They are read into memory and stay there, as
+	 * their classes may be loaded any time later.
+	 */
+	private int gatherClassesInNestedJars(File jar, Search search, boolean[] activeTesters) {
+		JarFile jarFile;
+		try {
+			jarFile = new JarFile(jar);
+		} catch (IOException e) {
+			// Already reported when the jar was iterated
+			return 0;
+		}
+		int found = 0;
+		try {
+			Enumeration<JarEntry> entries = jarFile.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				if (entry.isDirectory() || !isJarFile(entry.getName())) {
+					continue;
+				}
+				NestedJar nestedJar;
+				try {
+					nestedJar = NestedJar.read(jar, jarFile, entry);
+				} catch (IOException e) {
+					// Don't iterate unreadable nested jars
+					e.printStackTrace();
+					if (diagnostics != null) {
+						diagnostics.unreadableRoot(new File(jar, entry.getName()), e);
+					}
+					continue;
+				}
+				if (nestedJarLoader == null) {
+					nestedJarLoader = new NestedJarClassLoader(classLoader);
+				}
+				nestedJarLoader.add(nestedJar);
+				found += gatherClassesFrom(search, activeTesters, nestedJar.getFileNames(), null);
+			}
+		} finally {
+			close(jarFile);
+		}
+		return found;
 	}
 
-	private void gatherClassesInRoot(File classRoot, List<Class<?>> classes) {
-		Iterable<String> relativeFilenames = new NullIterator<String>();
-        if (tester.acceptClassRoot(classRoot.getAbsolutePath())) {
-            if (tester.searchInJars() && isJarFile(classRoot)) {
-                try {
-                    relativeFilenames = new JarFilenameIterator(classRoot);
-                } catch (IOException e) {
-                    // Don't iterate unavailable ja files
-                    e.printStackTrace();
-                }
-            }
-            else if (classRoot.isDirectory()) {
-                relativeFilenames = new RecursiveFilenameIterator(classRoot);
-            }
-        }
-		gatherClasses(classes, relativeFilenames);
+	private boolean isJarFile(String fileName) {
+		return fileName.toLowerCase(Locale.ROOT).endsWith(".jar");
 	}
 
-	private boolean isJarFile(File classRoot) {
-		return classRoot.getName().endsWith(".jar") || classRoot.getName().endsWith(".JAR");
+	private int gatherClasses(Search search, boolean[] activeTesters, Iterable<String> filenamesIterator, File classRoot) {
+		ClassFilePrefetcher.Root prefetchedRoot = prefetcher == null ? null : prefetcher.open(classRoot, filenamesIterator);
+		try {
+			return gatherClassesFrom(search, activeTesters, filenamesIterator, prefetchedRoot);
+		} finally {
+			close(filenamesIterator);
+		}
 	}
 
-	private void gatherClasses(List<Class<?>> classes, Iterable<String> filenamesIterator) {
+	private void close(Object closeable) {
+		if (closeable instanceof Closeable) {
+			try {
+				((Closeable) closeable).close();
+			} catch (IOException e) {
+				// Nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * If class files are screened, candidates are screened by their class
+	 * files before they are loaded. When they are prefetched, up to
+	 * {@link #PREFETCH_WINDOW} candidates are read and parsed in the
+	 * background while the oldest one is screened and loaded.
+	 */
+	private int gatherClassesFrom(Search search, boolean[] activeTesters, Iterable<String> filenamesIterator,
+			ClassFilePrefetcher.Root prefetchedRoot) {
+		int found = 0;
+		Deque<Candidate> pending = new ArrayDeque<Candidate>();
 		for (String fileName : filenamesIterator) {
-			if (!isClassFile(fileName)) {
+			if (rootScan != null) {
+				rootScan.count(fileName);
+			}
+			Candidate candidate = candidate(fileName, search, activeTesters);
+			if (candidate == null) {
 				continue;
 			}
-			String className = classNameFromFile(fileName);
-			if (!tester.acceptClassName(className)) {
+			if (prefetchedRoot == null) {
+				found += loadClass(search, candidate);
 				continue;
 			}
-			if (!tester.acceptInnerClass() && isInnerClass(className)) {
+			String entryName = entryName(filenamesIterator, fileName);
+			if (!prefetcher.isAsynchronous()) {
+				found += screenAndLoadClass(search, candidate, readHeader(prefetchedRoot, entryName));
 				continue;
 			}
-			try {
-				Class<?> clazz = Class.forName(className, false, getClass().getClassLoader());
-				if (clazz == null || clazz.isLocalClass() || clazz.isAnonymousClass()) {
-					continue;
+			candidate.header = prefetchedRoot.prefetch(entryName);
+			pending.add(candidate);
+			if (pending.size() >= PREFETCH_WINDOW) {
+				found += screenAndLoadPrefetched(search, pending.remove());
+			}
+		}
+		while (!pending.isEmpty()) {
+			found += screenAndLoadPrefetched(search, pending.remove());
+		}
+		return found;
+	}
+
+	/**
+	 * Multi-release jars give classes by their base name, but their class
+	 * files may be in an entry for the running Java version.
+	 */
+	private String entryName(Iterable<String> filenamesIterator, String fileName) {
+		if (filenamesIterator instanceof JarFilenameIterator) {
+			return ((JarFilenameIterator) filenamesIterator).getEntryName();
+		}
+		return fileName;
+	}
+
+	/**
+	 * @return the candidate with the testers for which it is new,
+	 *         <code>null</code> if it is new for none of them
+	 */
+	private Candidate candidate(String fileName, Search search, boolean[] activeTesters) {
+		if (!isClassFile(fileName)) {
+			return null;
+		}
+		String className = classNameFromFile(fileName);
+		boolean[] interestedTesters = null;
+		for (int i = 0; i < activeTesters.length; i++) {
+			if (activeTesters[i] && isCandidateFor(testers.get(i), className, search.seenClassNames[i])) {
+				if (interestedTesters == null) {
+					interestedTesters = new boolean[activeTesters.length];
 				}
-				if (tester.acceptClass(clazz)) {
-					classes.add(clazz);
+				interestedTesters[i] = true;
+			}
+		}
+		return interestedTesters == null ? null : new Candidate(className, interestedTesters);
+	}
+
+	private boolean isCandidateFor(ClassTester tester, String className, ClassNames seenClassNames) {
+		if (!tester.acceptClassName(className)) {
+			return false;
+		}
+		if (!tester.acceptInnerClass() && isInnerClass(className)) {
+			return false;
+		}
+		return seenClassNames.add(className);
+	}
+
+	/**
+	 * @return <code>null</code> if the class file cannot be read or parsed
+	 */
+	private ClassFileHeader readHeader(ClassFilePrefetcher.Root root, String entryName) {
+		try {
+			return root.readHeader(entryName);
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private int screenAndLoadPrefetched(Search search, Candidate candidate) {
+		ClassFileHeader header;
+		try {
+			header = candidate.header.get();
+		} catch (ExecutionException e) {
+			header = null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			header = null;
+		}
+		return screenAndLoadClass(search, candidate, header);
+	}
+
+	private int screenAndLoadClass(Search search, Candidate candidate, ClassFileHeader header) {
+		if (!acceptClassFile(candidate, header)) {
+			return 0;
+		}
+		return loadClass(search, candidate);
+	}
+
+	/**
+	 * Drops the testers that reject the candidate's class file. A class file
+	 * that cannot be read or parsed here rules nothing out; the class loader
+	 * has the final say.
+	 *
+	 * @param header
+	 *            <code>null</code> if the class file cannot be read or parsed
+	 * @return whether any tester is left
+	 */
+	private boolean acceptClassFile(Candidate candidate, ClassFileHeader header) {
+		if (header == null) {
+			return true;
+		}
+		if (!candidate.className.equals(header.getClassName())) {
+			reject(candidate.className, DiscoveryDiagnostics.NAME_MISMATCH);
+			return false;
+		}
+		if (header.isLocalOrAnonymous()) {
+			reject(candidate.className, DiscoveryDiagnostics.LOCAL_OR_ANONYMOUS);
+			return false;
+		}
+		boolean anyAccepted = false;
+		for (int i = 0; i < candidate.testers.length; i++) {
+			if (candidate.testers[i]) {
+				ClassTester tester = testers.get(i);
+				candidate.testers[i] = !(tester instanceof ClassFileTester)
+						|| ((ClassFileTester) tester).acceptClassFile(header, typeIndex);
+				anyAccepted |= candidate.testers[i];
+			}
+		}
+		if (!anyAccepted) {
+			reject(candidate.className, DiscoveryDiagnostics.CLASS_FILE_REJECTED);
+		}
+		return anyAccepted;
+	}
+
+	private void reject(String className, String reason) {
+		if (diagnostics != null) {
+			diagnostics.rejected(reason);
+		}
+		FlightRecorderEvents.candidateChecked(className, false, reason);
+	}
+
+	/**
+	 * @return the number of testers that accepted the class
+	 */
+	private int loadClass(Search search, Candidate candidate) {
+		String className = candidate.className;
+		int accepted = 0;
+		long start = System.nanoTime();
+		Object event = FlightRecorderEvents.beginClassLoad();
+		String failure = null;
+		try {
+			Class<?> clazz = Class.forName(className, false, getLoadingClassLoader());
+			if (clazz == null || clazz.isLocalClass() || clazz.isAnonymousClass()) {
+				reject(className, DiscoveryDiagnostics.LOCAL_OR_ANONYMOUS);
+				return 0;
+			}
+			for (int i = 0; i < candidate.testers.length; i++) {
+				if (candidate.testers[i] && testers.get(i).acceptClass(clazz)) {
+					search.classes.get(i).add(clazz);
+					accepted++;
 				}
-			} catch (ClassNotFoundException cnfe) {
-				// ignore not instantiable classes
-			} catch (NoClassDefFoundError ncdfe) {
-				// ignore not instantiable classes
-			} catch (ExceptionInInitializerError ciie) {
-				// ignore not instantiable classes
-			} catch (UnsatisfiedLinkError ule) {
-				// ignore not instantiable classes
 			}
+			if (diagnostics != null) {
+				diagnostics.loaded(className, System.nanoTime() - start, accepted > 0);
+			}
+			FlightRecorderEvents.candidateChecked(className, accepted > 0, accepted > 0 ? DiscoveryDiagnostics.ACCEPTED
+					: DiscoveryDiagnostics.NOT_ACCEPTED);
+		} catch (ClassNotFoundException cnfe) {
+			// ignore not instantiable classes
+			failure = loadFailed(className, start, cnfe);
+		} catch (NoClassDefFoundError ncdfe) {
+			// ignore not instantiable classes
+			failure = loadFailed(className, start, ncdfe);
+		} catch (ExceptionInInitializerError ciie) {
+			// ignore not instantiable classes
+			failure = loadFailed(className, start, ciie);
+		} catch (UnsatisfiedLinkError ule) {
+			// ignore not instantiable classes
+			failure = loadFailed(className, start, ule);
+		} catch (ClassFormatError cfe) {
+			// ignore files that only look like class files
+			failure = loadFailed(className, start, cfe);
+		} finally {
+			FlightRecorderEvents.endClassLoad(event, className, failure);
 		}
+		return accepted;
+	}
+
+	private String loadFailed(String className, long start, Throwable error) {
+		loadFailures++;
+		if (diagnostics != null) {
+			diagnostics.failed(className, System.nanoTime() - start, error);
+		}
+		FlightRecorderEvents.candidateChecked(className, false, error.getClass().getName());
+		return String.valueOf(error);
 	}
 
 	private boolean isInnerClass(String className) {
@@ -145,11 +621,69 @@ public class ClasspathClassesFinder implements ClassesFinder
 	}
 
 	public ClassTester getTester() {
-		return tester;
+		return testers.get(0);
 	}
 
 	public String getClasspathProperty() {
 		return classpathProperty;
 	}
 
+	/**
+	 * The accepted classes and the already considered class names of each
+	 * tester. Accepted classes have been loaded to be tested anyway, so they
+	 * are kept as they are; only the far more numerous names are compacted.
+	 */
+	private static final class Search {
+		final List<List<Class<?>>> classes;
+		final ClassNames[] seenClassNames;
+
+		Search(int testers) {
+			classes = new ArrayList<List<Class<?>>>(testers);
+			seenClassNames = new ClassNames[testers];
+			for (int i = 0; i < testers; i++) {
+				classes.add(new ArrayList<Class<?>>());
+				seenClassNames[i] = new ClassNames();
+			}
+		}
+	}
+
+	/**
+	 * Counts the entries of a root and the bytes of its class files.
+	 */
+	private static final class RootScan {
+		final File root;
+		final boolean isJar;
+		int entries;
+		long classFileBytes;
+
+		RootScan(File root, boolean isJar) {
+			this.root = root;
+			this.isJar = isJar;
+		}
+
+		void count(String fileName) {
+			entries++;
+			if (!isJar && fileName.endsWith(".class")) {
+				classFileBytes += new File(root, fileName).length();
+			}
+		}
+
+		long getBytes() {
+			return isJar ? root.length() : classFileBytes;
+		}
+	}
+
+	private static final class Candidate {
+		final String className;
+		// The testers that still consider the candidate
+		final boolean[] testers;
+		// Only while the class file is being prefetched
+		Future<ClassFileHeader> header;
+
+		Candidate(String className, boolean[] testers) {
+			this.className = className;
+			this.testers = testers;
+		}
+	}
+
 }
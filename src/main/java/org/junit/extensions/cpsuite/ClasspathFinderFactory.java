@@ -5,12 +5,40 @@
  */
 package org.junit.extensions.cpsuite;
 
+import java.util.List;
+
 public class ClasspathFinderFactory implements ClassesFinderFactory
 {
-	public ClassesFinder create(boolean searchInJars, String[] filterPatterns, String[] classpathFilterPatterns, SuiteType[] suiteTypes, Class<?>[] baseTypes,
-			Class<?>[] excludedBaseTypes, String classpathProperty) {
-		ClassTester tester = new ClasspathSuiteTester(searchInJars, filterPatterns, classpathFilterPatterns, suiteTypes, baseTypes, excludedBaseTypes);
-		return new ClasspathClassesFinder(tester, classpathProperty);
+	public ClassesFinder create(final FinderConfig config) {
+		final ClasspathSuite.DiscoverTogether discoverTogether = config.getSuiteClass() == null ? null : config.getSuiteClass()
+				.getAnnotation(ClasspathSuite.DiscoverTogether.class);
+		// The classes found for the group are those of complete runs
+		if (discoverTogether != null && config.getRequestedClassnames().length == 0) {
+			return new ClassesFinder() {
+				public List<Class<?>> find() {
+					return SharedDiscovery.find(config, discoverTogether.value());
+				}
+			};
+		}
+		return new ClasspathClassesFinder(createTester(config), config.getClasspathProperty(), getClassLoader(config));
+	}
+
+	/**
+	 * The test classes are loaded through the class loader of the suite,
+	 * which need not be the one of ClasspathSuite, e.g. in the
+	 * {@link TestDaemon}.
+	 */
+	static ClassLoader getClassLoader(FinderConfig config) {
+		Class<?> suiteClass = config.getSuiteClass();
+		if (suiteClass == null || suiteClass.getClassLoader() == null) {
+			return ClasspathClassesFinder.class.getClassLoader();
+		}
+		return suiteClass.getClassLoader();
+	}
+
+	static ClassTester createTester(FinderConfig config) {
+		return new ClasspathSuiteTester(config.isSearchInJars(), config.getClassnameFilters(), config.getClasspathFilters(),
+				config.getSuiteTypes(), config.getBaseTypes(), config.getExcludedBaseTypes(), config.getRequestedClassnames());
 	}
 
 }
@@ -5,21 +5,44 @@
  */
 package org.junit.extensions.cpsuite;
 
+import org.junit.internal.runners.ErrorReportingRunner;
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
 import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.ParentRunner;
 import org.junit.runners.Suite;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
+import org.junit.runners.model.Statement;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
 import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClasspathSuite extends Suite {
 
@@ -30,9 +53,45 @@ public class ClasspathSuite extends Suite {
 	private static final String[] DEFAULT_CLASSNAME_FILTERS = new String[0];
 	private static final String[] DEFAULT_CLASSPATH_FILTERS = new String[0];
 	private static final String DEFAULT_CLASSPATH_PROPERTY = "java.class.path";
+	private static final String PROFILE_REPORT_PROPERTY = "cpsuite.profileReport";
+	private static final String CONCURRENCY_REPORT_PROPERTY = "cpsuite.concurrencyReport";
+	private static final String FAILURE_HISTORY_PROPERTY = "cpsuite.failureHistory";
+	private static final String FAILURES_FILE_PROPERTY = "cpsuite.failuresFile";
+	private static final String WORK_QUEUE_PROPERTY = "cpsuite.workQueue";
+	private static final String WORK_QUEUE_RUN_PROPERTY = "cpsuite.workQueue.run";
+	private static final long WORK_QUEUE_POLL_MILLIS = 200;
+
+	private static final String FIXTURE = "fixture";
 
 	private final Class<?> suiteClass;
 
+	private volatile SuiteFixtures startedFixtures;
+
+	private volatile StaticInitializer staticInitializer;
+
+	private volatile FailureCounter failureCounter;
+
+	private volatile ProfilingListener profiler;
+
+	private final RunnerBuilder builder;
+
+	private final ClassesFinderFactory finderFactory;
+
+	private final FinderConfig finderConfig;
+
+	private final Comparator<Class<?>> classComparator;
+
+	private final Object childrenLock = new Object();
+
+	// Found on first use, so that filters can narrow the search
+	private List<Runner> children;
+
+	// Reported instead of running when a rerun finds none of the failed tests
+	private Exception staleFailures;
+
+	// Set through setScheduler(), e.g. by ParallelComputer
+	private volatile RunnerScheduler scheduler;
+
 	/**
 	 * The <code>ClassnameFilters</code> annotation specifies a set of regex
 	 * expressions for all test classes (ie. their qualified names) to include
@@ -117,40 +176,496 @@ public class ClasspathSuite extends Suite {
 
 	/**
 	 * The <code>BeforeSuite</code> marks a method that will be run before the
-	 * suite is run.
+	 * suite is run. Such methods run one after the other, a method after the
+	 * methods named in <code>dependsOn</code>; if one fails, the remaining
+	 * ones are not run. With <code>ConcurrentFixtures</code> they run
+	 * concurrently instead.
 	 */
 	@Retention(RetentionPolicy.RUNTIME)
 	@Target(ElementType.METHOD)
 	public @interface BeforeSuite {
+		String[] dependsOn() default {};
+	}
+
+	/**
+	 * The <code>AfterSuite</code> marks a method that will be run after the
+	 * suite has been run, even if it failed. Such methods run one after the
+	 * other, a method after the methods named in <code>dependsOn</code>. With
+	 * <code>ConcurrentFixtures</code> they run concurrently instead.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.METHOD)
+	public @interface AfterSuite {
+		String[] dependsOn() default {};
+	}
+
+	/**
+	 * The <code>ConcurrentFixtures</code> annotation runs the
+	 * <code>BeforeSuite</code> and the <code>AfterSuite</code> methods of the
+	 * suite concurrently, each on its own thread. A method only starts once
+	 * the methods named in its <code>dependsOn</code> have completed and is
+	 * not run if one of them failed.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface ConcurrentFixtures {
+	}
+
+	/**
+	 * The <code>RequiresFixtures</code> annotation on a test class names the
+	 * <code>BeforeSuite</code> methods the class needs. The class starts as
+	 * soon as those have completed instead of waiting for all of them. If one
+	 * of them fails only the class is reported as failed.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface RequiresFixtures {
+		String[] value();
+	}
+
+	/**
+	 * The <code>ProfileReport</code> annotation names a file to which wall
+	 * time, thread CPU time and allocated bytes of every test class and test
+	 * method are written after the run, slowest first. File names ending in
+	 * ".csv" produce CSV, all others JSON. The system property
+	 * "cpsuite.profileReport" overrides the annotation.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface ProfileReport {
+		String value();
+	}
+
+	/**
+	 * The <code>ParallelExecution</code> annotation runs the test classes of
+	 * the suite concurrently, each on its own thread. Virtual threads are used
+	 * if the JVM supports them, otherwise a pool of platform threads.
+	 * <code>maxConcurrency</code> caps the number of test classes running at
+	 * the same time; the default of 0 means no cap with virtual threads and
+	 * one test class per processor with platform threads. With
+	 * <code>adaptive</code> the number starts at one test class per processor
+	 * and is adjusted to system load, garbage collection and throughput while
+	 * the suite runs, up to <code>maxConcurrency</code> or four per processor.
+	 * The adjustments are written to the profile report, and as CSV to the
+	 * file the system property "cpsuite.concurrencyReport" names.
+	 * <p>
+	 * The suite fails if a scheduler has been set on it as well, e.g. by
+	 * <code>ParallelComputer</code>.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface ParallelExecution {
+		int maxConcurrency() default 0;
+
+		boolean virtualThreads() default true;
+
+		boolean adaptive() default false;
+	}
+
+	/**
+	 * The <code>ResourceLock</code> annotation on a test class or one of its
+	 * superclasses declares a resource the class shares with other test
+	 * classes, e.g. a database port, a directory or a system property. With
+	 * <code>ParallelExecution</code>, a class that uses a resource
+	 * <code>EXCLUSIVE</code>ly never runs at the same time as another class
+	 * that declares the resource, while classes that only <code>READ</code>
+	 * it may run together. Classes that declare no resources run in parallel
+	 * with all others.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	@Inherited
+	public @interface ResourceLock {
+		String value();
+
+		ResourceAccess access() default ResourceAccess.EXCLUSIVE;
+	}
+
+	/**
+	 * The <code>ResourceLocks</code> annotation declares several resources
+	 * of a test class.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	@Inherited
+	public @interface ResourceLocks {
+		ResourceLock[] value();
+	}
+
+	/**
+	 * The <code>InitializeInBackground</code> annotation runs the static
+	 * initializers of the test classes on <code>threads</code> background
+	 * threads, in the order the classes run and at most
+	 * <code>lookahead</code> classes ahead of the last class that started.
+	 * A class whose static initializer fails is reported as failed without
+	 * being run. Static initializers that depend on <code>BeforeSuite</code>
+	 * fixtures or on the thread that runs the class must not be run in the
+	 * background.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface InitializeInBackground {
+		int threads() default 2;
+
+		int lookahead() default 8;
+	}
+
+	/**
+	 * The <code>BatchNotifications</code> annotation buffers the events of
+	 * the tests on the thread that runs them and passes them on to the
+	 * listeners of the run in batches of up to <code>batchSize</code> events,
+	 * so that threads do not contend for the listeners on every event. The
+	 * events of a test class are passed on in order, at the latest when the
+	 * class has finished; listeners therefore see them late.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface BatchNotifications {
+		int batchSize() default 256;
+	}
+
+	/**
+	 * The <code>SharedWorkQueue</code> annotation names a directory through
+	 * which several JVMs running the suite share its test classes: each JVM
+	 * takes the next test class nobody has taken yet whenever it is free, and
+	 * only reports the classes it ran. Test classes taken by a JVM that dies
+	 * are run again by another one. The system property "cpsuite.workQueue"
+	 * overrides the annotation.
+	 * <p>
+	 * The system property "cpsuite.workQueue.run" names the run the JVMs take
+	 * part in; each run gets a directory of its own below the given one.
+	 * Without it the directory must be empty when the first JVM starts, and a
+	 * JVM that finds all test classes already done fails the suite.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface SharedWorkQueue {
+		String value();
+	}
+
+	/**
+	 * The <code>SplitTestClasses</code> annotation splits test classes with
+	 * more than <code>methodsPerChunk</code> test methods into chunks of at
+	 * most that many methods. Each chunk is a child of the suite of its own,
+	 * so with <code>ParallelExecution</code> the chunks of a large class run
+	 * concurrently. Classes with <code>BeforeClass</code>,
+	 * <code>AfterClass</code> or <code>ClassRule</code> fixtures are only split
+	 * if they are annotated with <code>Splittable</code>.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface SplitTestClasses {
+		int methodsPerChunk();
+	}
+
+	/**
+	 * The <code>Splittable</code> annotation on a test class with class level
+	 * fixtures allows <code>SplitTestClasses</code> to split it. The fixtures
+	 * are then run once for every chunk.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface Splittable {
+	}
+
+	/**
+	 * The <code>ClassOrder</code> annotation specifies the comparator that
+	 * determines the order in which test classes are run. The comparator needs
+	 * a public constructor that takes the suite class or a public default
+	 * constructor. When the annotation is missing, test classes are run in
+	 * alphabetical order.
+	 *
+	 * @see RecentFailuresFirst
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface ClassOrder {
+		Class<? extends Comparator<Class<?>>> value();
+	}
+
+	/**
+	 * The <code>FailureHistoryFile</code> annotation names a file in which the
+	 * suite records, across runs, which test classes failed and when their
+	 * class files changed. <code>RecentFailuresFirst</code> orders test
+	 * classes by it. The system property "cpsuite.failureHistory" overrides
+	 * the annotation.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface FailureHistoryFile {
+		String value();
+	}
+
+	/**
+	 * The <code>FailuresFile</code> annotation names a file to which the
+	 * failed test classes and methods are written after each run. If the
+	 * system property "cpsuite.rerunFailures" is true, the suite doesn't
+	 * search the class path but only runs the tests listed in the file. The
+	 * system property "cpsuite.failuresFile" overrides the annotation.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface FailuresFile {
+		String value();
+	}
+
+	/**
+	 * The <code>FailFast</code> annotation stops the suite after
+	 * <code>maxFailures</code> failures. Test classes that have not been
+	 * started by then are reported as ignored; test classes that are already
+	 * running are completed.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface FailFast {
+		int maxFailures() default 1;
+	}
+
+	/**
+	 * The <code>FinderFactory</code> annotation specifies the
+	 * <code>ClassesFinderFactory</code> that creates the finder used to
+	 * discover the test classes. <code>options</code> are passed on to the
+	 * factory as "name=value" pairs. When the annotation is missing, the first
+	 * factory registered with <code>java.util.ServiceLoader</code> is used, or
+	 * the default classpath search if there is none.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface FinderFactory {
+		Class<? extends ClassesFinderFactory> value();
+
+		String[] options() default {};
+	}
+
+	/**
+	 * The <code>DiscoverTogether</code> annotation names the suites that run
+	 * in the same JVM as this one. The first of them to be created discovers
+	 * the test classes of all of them in a single pass over the class path,
+	 * and the others use that result when they are created. Only suites with
+	 * the default finder and the same classpath property take part.
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface DiscoverTogether {
+		Class<?>[] value();
 	}
 
 	/**
 	 * Used by JUnit
 	 */
 	public ClasspathSuite(Class<?> suiteClass, RunnerBuilder builder) throws InitializationError {
-		this(suiteClass, builder, new ClasspathFinderFactory());
+		this(suiteClass, builder, getFinderFactory(suiteClass));
 	}
 
 	/**
-	 * For testing purposes only
+	 * Uses the given factory instead of the one the suite class names or the
+	 * ones registered as services.
 	 */
 	public ClasspathSuite(Class<?> suiteClass, RunnerBuilder builder, ClassesFinderFactory factory) throws InitializationError {
-		super(builder, suiteClass, getSortedTestclasses(createFinder(suiteClass, factory)));
+		super(suiteClass, Collections.<Runner> emptyList());
 		this.suiteClass = suiteClass;
+		this.builder = builder;
+		this.finderFactory = factory;
+		this.finderConfig = createFinderConfig(suiteClass);
+		this.classComparator = getClassComparator(suiteClass);
+		validateSplitTestClasses(suiteClass);
+		filterToRequestedTests();
+		filterToFailedTests();
+	}
+
+	@Override
+	protected List<Runner> getChildren() {
+		synchronized (childrenLock) {
+			if (children == null) {
+				children = createChildren(new String[0]);
+			}
+			return children;
+		}
+	}
+
+	/**
+	 * Searches only for the classes the filter may let through if that can
+	 * be told from the filter and the suite has not searched yet, i.e. it has
+	 * been neither described nor run. Should the narrowed search not find any
+	 * of the filtered tests after all, the suite falls back to searching for
+	 * all its test classes.
+	 */
+	@Override
+	public void filter(Filter filter) throws NoTestsRemainException {
+		String[] requestedClassnames = RequestedTests.getClassnames(filter);
+		if (requestedClassnames != null && canNarrowSearch()) {
+			synchronized (childrenLock) {
+				if (children == null) {
+					List<Runner> requested = createChildren(requestedClassnames);
+					if (anyShouldRun(filter, requested)) {
+						children = requested;
+					}
+				}
+			}
+		}
+		super.filter(filter);
+	}
+
+	/**
+	 * A suite found as a <code>RunWith</code> class may contain the requested
+	 * tests under any name.
+	 */
+	private boolean canNarrowSearch() {
+		return !Arrays.asList(finderConfig.getSuiteTypes()).contains(SuiteType.RUN_WITH_CLASSES);
+	}
+
+	private boolean anyShouldRun(Filter filter, List<Runner> runners) {
+		for (Runner each : runners) {
+			if (filter.shouldRun(describeChild(each))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<Runner> createChildren(String[] requestedClassnames) {
+		try {
+			ClassesFinder finder = createFinder(suiteClass, finderFactory, finderConfig.withRequestedClassnames(requestedClassnames));
+			List<Class<?>> testclasses;
+			if (requestedClassnames.length == 0 && !(finder instanceof FailedTests)) {
+				testclasses = new ArrayList<Class<?>>(DiscoveryCache.find(suiteClass, finderConfig.getClasspathProperty(),
+						finder));
+			} else {
+				testclasses = new ArrayList<Class<?>>(finder.find());
+			}
+			if (classComparator instanceof RecentFailuresFirst) {
+				((RecentFailuresFirst) classComparator).rankAll(testclasses);
+			}
+			Collections.sort(testclasses, classComparator);
+			return createRunners(suiteClass, builder, testclasses.toArray(new Class[testclasses.size()]));
+		} catch (InitializationError e) {
+			return Collections.<Runner> singletonList(new ErrorReportingRunner(suiteClass, e));
+		}
+	}
+
+	private void filterToRequestedTests() {
+		Filter requestedTests = RequestedTests.fromSystemProperties();
+		if (requestedTests == null) {
+			return;
+		}
+		try {
+			filter(requestedTests);
+		} catch (NoTestsRemainException e) {
+			// None of the requested tests is part of the suite
+		}
+	}
+
+	private void filterToFailedTests() {
+		FailedTests failedTests = FailedTests.forRerun(suiteClass);
+		if (failedTests == null) {
+			return;
+		}
+		if (failedTests.isEmpty()) {
+			System.err.println("Nothing failed in the last run of " + suiteClass.getName() + ", there is nothing to rerun");
+		}
+		try {
+			filter(failedTests.filter());
+		} catch (NoTestsRemainException e) {
+			if (!failedTests.isEmpty()) {
+				staleFailures = failedTests.noneFound();
+			}
+		}
+	}
+
+	private static List<Runner> createRunners(Class<?> suiteClass, RunnerBuilder builder, Class<?>[] testclasses)
+			throws InitializationError {
+		List<Runner> runners = builder.runners(suiteClass, testclasses);
+		SplitTestClasses splitTestClasses = suiteClass.getAnnotation(SplitTestClasses.class);
+		if (splitTestClasses == null) {
+			return runners;
+		}
+		List<Runner> chunks = new ArrayList<Runner>();
+		for (Runner each : runners) {
+			chunks.addAll(MethodChunkRunner.split(each, builder, splitTestClasses.methodsPerChunk()));
+		}
+		return chunks;
+	}
+
+	private static void validateSplitTestClasses(Class<?> suiteClass) throws InitializationError {
+		SplitTestClasses splitTestClasses = suiteClass.getAnnotation(SplitTestClasses.class);
+		if (splitTestClasses != null && splitTestClasses.methodsPerChunk() < 1) {
+			throw new InitializationError("methodsPerChunk of SplitTestClasses must be at least 1");
+		}
+	}
+
+	private static ClassesFinder createFinder(Class<?> suiteClass, ClassesFinderFactory finderFactory, FinderConfig config) {
+		FailedTests failedTests = FailedTests.forRerun(suiteClass);
+		if (failedTests != null) {
+			return failedTests;
+		}
+		return finderFactory.create(config);
+	}
+
+	static FinderConfig createFinderConfig(Class<?> suiteClass) throws InitializationError {
+		return new FinderConfig(suiteClass, getSearchInJars(suiteClass), getClassnameFilters(suiteClass), getClasspathFilters(suiteClass),
+				getSuiteTypes(suiteClass), getBaseTypes(suiteClass), getExcludedBaseTypes(suiteClass), getClasspathProperty(suiteClass),
+				getFinderOptions(suiteClass));
+	}
+
+	static ClassesFinderFactory getFinderFactory(Class<?> suiteClass) throws InitializationError {
+		FinderFactory finderFactoryAnnotation = suiteClass.getAnnotation(FinderFactory.class);
+		if (finderFactoryAnnotation != null) {
+			try {
+				return finderFactoryAnnotation.value().getConstructor().newInstance();
+			} catch (InvocationTargetException e) {
+				throw new InitializationError(e.getCause());
+			} catch (Exception e) {
+				throw new InitializationError(e);
+			}
+		}
+		try {
+			Iterator<ClassesFinderFactory> registered = ServiceLoader.load(ClassesFinderFactory.class, suiteClass.getClassLoader())
+					.iterator();
+			if (registered.hasNext()) {
+				return registered.next();
+			}
+		} catch (ServiceConfigurationError e) {
+			throw new InitializationError(e);
+		}
+		return new ClasspathFinderFactory();
 	}
 
-	private static ClassesFinder createFinder(Class<?> suiteClass, ClassesFinderFactory finderFactory) {
-		return finderFactory.create(getSearchInJars(suiteClass), getClassnameFilters(suiteClass), getClasspathFilters(suiteClass),
-                getSuiteTypes(suiteClass), getBaseTypes(suiteClass), getExcludedBaseTypes(suiteClass), getClasspathProperty(suiteClass));
+	private static Map<String, String> getFinderOptions(Class<?> suiteClass) throws InitializationError {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		FinderFactory finderFactoryAnnotation = suiteClass.getAnnotation(FinderFactory.class);
+		if (finderFactoryAnnotation == null) {
+			return options;
+		}
+		for (String each : finderFactoryAnnotation.options()) {
+			int separator = each.indexOf('=');
+			if (separator < 0) {
+				throw new InitializationError("Finder option '" + each + "' is not of the form name=value");
+			}
+			options.put(each.substring(0, separator).trim(), each.substring(separator + 1).trim());
+		}
+		return options;
 	}
 
-	private static Class<?>[] getSortedTestclasses(ClassesFinder finder) {
-		List<Class<?>> testclasses = finder.find();
-		Collections.sort(testclasses, getClassComparator());
-		return testclasses.toArray(new Class[testclasses.size()]);
+	private static Comparator<Class<?>> getClassComparator(Class<?> suiteClass) throws InitializationError {
+		ClassOrder classOrderAnnotation = suiteClass.getAnnotation(ClassOrder.class);
+		if (classOrderAnnotation == null) {
+			return getAlphabeticalComparator();
+		}
+		Class<? extends Comparator<Class<?>>> comparatorClass = classOrderAnnotation.value();
+		try {
+			try {
+				return comparatorClass.getConstructor(Class.class).newInstance(suiteClass);
+			} catch (NoSuchMethodException e) {
+				return comparatorClass.getConstructor().newInstance();
+			}
+		} catch (InvocationTargetException e) {
+			throw new InitializationError(e.getCause());
+		} catch (Exception e) {
+			throw new InitializationError(e);
+		}
 	}
 
-	private static Comparator<Class<?>> getClassComparator() {
+	private static Comparator<Class<?>> getAlphabeticalComparator() {
 		return new Comparator<Class<?>>() {
 			public int compare(Class<?> o1, Class<?> o2) {
 				return o1.getName().compareTo(o2.getName());
@@ -214,29 +729,574 @@ public class ClasspathSuite extends Suite {
 		return cpPropertyAnnotation.value();
 	}
 
+	private static File getProfileReport(Class<?> suiteClass) {
+		String fromProperty = System.getProperty(PROFILE_REPORT_PROPERTY);
+		if (fromProperty != null && fromProperty.length() > 0) {
+			return new File(fromProperty);
+		}
+		ProfileReport profileReportAnnotation = suiteClass.getAnnotation(ProfileReport.class);
+		if (profileReportAnnotation == null) {
+			return null;
+		}
+		return new File(profileReportAnnotation.value());
+	}
+
+	static File getFailureHistoryFile(Class<?> suiteClass) {
+		String fromProperty = System.getProperty(FAILURE_HISTORY_PROPERTY);
+		if (fromProperty != null && fromProperty.length() > 0) {
+			return new File(fromProperty);
+		}
+		FailureHistoryFile failureHistoryAnnotation = suiteClass.getAnnotation(FailureHistoryFile.class);
+		if (failureHistoryAnnotation == null) {
+			return null;
+		}
+		return new File(failureHistoryAnnotation.value());
+	}
+
+	static File getFailuresFile(Class<?> suiteClass) {
+		String fromProperty = System.getProperty(FAILURES_FILE_PROPERTY);
+		if (fromProperty != null && fromProperty.length() > 0) {
+			return new File(fromProperty);
+		}
+		FailuresFile failuresFileAnnotation = suiteClass.getAnnotation(FailuresFile.class);
+		if (failuresFileAnnotation == null) {
+			return null;
+		}
+		return new File(failuresFileAnnotation.value());
+	}
+
+	static File getWorkQueueDirectory(Class<?> suiteClass) {
+		File directory = null;
+		String fromProperty = System.getProperty(WORK_QUEUE_PROPERTY);
+		if (fromProperty != null && fromProperty.length() > 0) {
+			directory = new File(fromProperty);
+		} else {
+			SharedWorkQueue workQueueAnnotation = suiteClass.getAnnotation(SharedWorkQueue.class);
+			if (workQueueAnnotation != null) {
+				directory = new File(workQueueAnnotation.value());
+			}
+		}
+		String run = getWorkQueueRun();
+		return directory == null || run == null ? directory : new File(directory, run);
+	}
+
+	private static String getWorkQueueRun() {
+		String run = System.getProperty(WORK_QUEUE_RUN_PROPERTY);
+		return run == null || run.length() == 0 ? null : run;
+	}
+
 	@Override
-	public void run(RunNotifier notifier) {
+	public void run(RunNotifier runNotifier) {
+		BatchNotifications batchNotifications = suiteClass.getAnnotation(BatchNotifications.class);
+		BatchingRunNotifier batching = null;
+		RunNotifier notifier = runNotifier;
+		if (batchNotifications != null) {
+			batching = new BatchingRunNotifier(runNotifier, Math.max(1, batchNotifications.batchSize()));
+			notifier = batching;
+		}
+		File failuresFile = getFailuresFile(suiteClass);
+		FailedTests.Recorder failures = null;
+		if (failuresFile != null) {
+			failures = new FailedTests.Recorder(getDescription());
+			notifier.addListener(failures);
+		}
+		File failureHistory = getFailureHistoryFile(suiteClass);
+		FailureHistory.Recorder recorder = null;
+		if (failureHistory != null) {
+			recorder = new FailureHistory.Recorder(getDescription());
+			notifier.addListener(recorder);
+		}
+		FailFast failFast = suiteClass.getAnnotation(FailFast.class);
+		if (failFast != null) {
+			failureCounter = new FailureCounter(failFast.maxFailures());
+			notifier.addListener(failureCounter);
+		}
 		try {
-			runBeforeMethods();
-		} catch (Exception e) {
+			if (staleFailures != null) {
+				// Recorded as a failure of the suite, so the next rerun runs
+				// the whole suite
+				notifier.fireTestFailure(new Failure(getDescription(), staleFailures));
+			} else {
+				runProfiled(notifier);
+			}
+		} finally {
+			if (batching != null) {
+				batching.drain();
+			}
+			if (failureCounter != null) {
+				notifier.removeListener(failureCounter);
+				failureCounter = null;
+			}
+			if (recorder != null) {
+				notifier.removeListener(recorder);
+				saveFailureHistory(recorder, failureHistory);
+			}
+			if (failures != null) {
+				notifier.removeListener(failures);
+				writeFailuresFile(failures, failuresFile);
+			}
+		}
+	}
+
+	private void writeFailuresFile(FailedTests.Recorder failures, File failuresFile) {
+		try {
+			failures.write(failuresFile);
+		} catch (IOException e) {
+			// A missing failures file must not fail the run
+			e.printStackTrace();
+		}
+	}
+
+	private void runProfiled(RunNotifier notifier) {
+		File profileReport = getProfileReport(suiteClass);
+		ProfilingListener profiler = null;
+		if (profileReport != null) {
+			profiler = new ProfilingListener(getDescription());
+			notifier.addListener(profiler);
+			this.profiler = profiler;
+		}
+		try {
+			SuiteFixtures beforeSuite;
+			SuiteFixtures afterSuite;
+			try {
+				beforeSuite = createFixtures(BeforeSuite.class);
+				afterSuite = createFixtures(AfterSuite.class);
+			} catch (IllegalArgumentException e) {
+				notifier.fireTestFailure(new Failure(getDescription(), e));
+				return;
+			}
+			try {
+				runWithFixtures(beforeSuite, notifier);
+			} finally {
+				runAfterMethods(afterSuite, notifier);
+				recordDurations(profiler, beforeSuite);
+				recordDurations(profiler, afterSuite);
+			}
+		} finally {
+			if (profiler != null) {
+				this.profiler = null;
+				notifier.removeListener(profiler);
+				writeProfileReport(profiler, profileReport);
+			}
+		}
+	}
+
+	/**
+	 * Unless a test class declares the fixtures it requires, the suite waits
+	 * for all <code>BeforeSuite</code> methods and is not run at all if one of
+	 * them fails.
+	 */
+	private void runWithFixtures(SuiteFixtures beforeSuite, RunNotifier notifier) {
+		if (hasConcurrentFixtures()) {
+			beforeSuite.start();
+		} else {
+			beforeSuite.runInOrder(true);
+		}
+		try {
+			if (!anyChildRequiresFixtures()) {
+				Throwable failure = beforeSuite.awaitAll();
+				if (failure != null) {
+					notifier.fireTestFailure(new Failure(getDescription(), failure));
+					return;
+				}
+				super.run(notifier);
+				return;
+			}
+			startedFixtures = beforeSuite;
+			try {
+				super.run(notifier);
+			} finally {
+				startedFixtures = null;
+			}
+			for (Throwable each : beforeSuite.awaitUnreportedFailures()) {
+				notifier.fireTestFailure(new Failure(getDescription(), each));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			notifier.fireTestFailure(new Failure(getDescription(), e));
+		}
+	}
+
+	private void runAfterMethods(SuiteFixtures afterSuite, RunNotifier notifier) {
+		if (hasConcurrentFixtures()) {
+			afterSuite.start();
+		} else {
+			afterSuite.runInOrder(false);
+		}
+		try {
+			for (Throwable each : afterSuite.awaitUnreportedFailures()) {
+				notifier.fireTestFailure(new Failure(getDescription(), each));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			notifier.fireTestFailure(new Failure(getDescription(), e));
+		}
+	}
+
+	private boolean hasConcurrentFixtures() {
+		return suiteClass.isAnnotationPresent(ConcurrentFixtures.class);
+	}
+
+	private boolean anyChildRequiresFixtures() {
+		for (Description each : getDescription().getChildren()) {
+			if (each.getAnnotation(RequiresFixtures.class) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void recordDurations(ProfilingListener profiler, SuiteFixtures fixtures) {
+		if (profiler == null) {
 			return;
 		}
-		super.run(notifier);
+		for (Map.Entry<String, Long> each : fixtures.getDurations().entrySet()) {
+			profiler.record(FIXTURE, suiteClass.getName() + "." + each.getKey(), each.getValue(), -1, -1);
+		}
 	}
 
-	private void runBeforeMethods() throws Exception {
-		for (Method each : suiteClass.getMethods()) {
-			if (each.isAnnotationPresent(BeforeSuite.class)) {
-				if (isPublicStaticVoid(each)) {
-					each.invoke(null, new Object[0]);
+	private void writeProfileReport(ProfilingListener profiler, File profileReport) {
+		try {
+			profiler.writeReport(profileReport);
+		} catch (IOException e) {
+			// A missing report must not fail the run
+			e.printStackTrace();
+		}
+	}
+
+	private void saveFailureHistory(FailureHistory.Recorder recorder, File failureHistory) {
+		FailureHistory history = FailureHistory.load(failureHistory);
+		recorder.recordTo(history, suiteClass.getClassLoader());
+		try {
+			history.save();
+		} catch (IOException e) {
+			// A missing history must not fail the run
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	protected Statement childrenInvoker(final RunNotifier notifier) {
+		final Statement children = runChildrenStatement(notifier);
+		final InitializeInBackground initializeInBackground = suiteClass.getAnnotation(InitializeInBackground.class);
+		if (initializeInBackground == null) {
+			return children;
+		}
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				StaticInitializer initializer = new StaticInitializer(getTestClasses(getFilteredChildren()),
+						initializeInBackground.threads(), initializeInBackground.lookahead());
+				initializer.start();
+				staticInitializer = initializer;
+				try {
+					children.evaluate();
+				} finally {
+					staticInitializer = null;
+					initializer.shutdown();
 				}
 			}
+		};
+	}
+
+	private static List<Class<?>> getTestClasses(List<Runner> children) {
+		List<Class<?>> classes = new ArrayList<Class<?>>(children.size());
+		for (Runner each : children) {
+			Class<?> testClass = getTestClass(each);
+			if (testClass != null) {
+				classes.add(testClass);
+			}
+		}
+		return classes;
+	}
+
+	/**
+	 * @return <code>null</code> if the runner doesn't tell
+	 */
+	private static Class<?> getTestClass(Runner runner) {
+		if (runner instanceof MethodChunkRunner) {
+			return getTestClass(((MethodChunkRunner) runner).getDelegate());
 		}
+		if (runner instanceof ParentRunner) {
+			return ((ParentRunner<?>) runner).getTestClass().getJavaClass();
+		}
+		return null;
+	}
+
+	private Statement runChildrenStatement(final RunNotifier notifier) {
+		final File workQueueDirectory = getWorkQueueDirectory(suiteClass);
+		if (suiteClass.getAnnotation(ParallelExecution.class) == null && workQueueDirectory == null) {
+			return super.childrenInvoker(notifier);
+		}
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				flushBatch(notifier);
+				if (workQueueDirectory == null) {
+					runChildren(getFilteredChildren(), new ParallelChildScheduler.ChildRunner() {
+						public void run(Runner child) {
+							runChild(child, notifier);
+						}
+					});
+				} else {
+					runChildrenFromQueue(workQueueDirectory, notifier);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Keeps the scheduler, since the children are not always run through
+	 * {@link ParentRunner#childrenInvoker(RunNotifier)}.
+	 */
+	@Override
+	public void setScheduler(RunnerScheduler scheduler) {
+		this.scheduler = scheduler;
+		super.setScheduler(scheduler);
+	}
+
+	private void runChildren(List<Runner> children, final ParallelChildScheduler.ChildRunner childRunner) throws Throwable {
+		ParallelExecution parallelExecution = suiteClass.getAnnotation(ParallelExecution.class);
+		RunnerScheduler currentScheduler = scheduler;
+		if (parallelExecution != null && currentScheduler != null) {
+			throw new IllegalStateException("The test classes of " + suiteClass.getName()
+					+ " cannot be run both with ParallelExecution and by a scheduler set with setScheduler,"
+					+ " e.g. by ParallelComputer");
+		}
+		if (parallelExecution == null && currentScheduler != null) {
+			for (final Runner each : children) {
+				currentScheduler.schedule(new Runnable() {
+					public void run() {
+						childRunner.run(each);
+					}
+				});
+			}
+			currentScheduler.finished();
+			return;
+		}
+		if (parallelExecution == null) {
+			for (Runner each : children) {
+				childRunner.run(each);
+			}
+			return;
+		}
+		if (!parallelExecution.adaptive()) {
+			new ParallelChildScheduler(parallelExecution.virtualThreads(), parallelExecution.maxConcurrency()).runAll(
+					children, childRunner);
+			return;
+		}
+		AdaptiveConcurrency adaptive = new AdaptiveConcurrency(parallelExecution.maxConcurrency());
+		try {
+			new ParallelChildScheduler(parallelExecution.virtualThreads(), parallelExecution.maxConcurrency(), adaptive)
+					.runAll(children, childRunner);
+		} finally {
+			ProfilingListener currentProfiler = profiler;
+			if (currentProfiler != null) {
+				currentProfiler.recordConcurrency(adaptive.getDecisions());
+			}
+			writeConcurrencyReport(adaptive);
+		}
+	}
+
+	private static void writeConcurrencyReport(AdaptiveConcurrency adaptive) {
+		String concurrencyReport = System.getProperty(CONCURRENCY_REPORT_PROPERTY);
+		if (concurrencyReport == null || concurrencyReport.length() == 0) {
+			return;
+		}
+		try {
+			adaptive.writeDecisions(new File(concurrencyReport));
+		} catch (IOException e) {
+			// A missing report must not fail the run
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the children this JVM manages to claim, in their order, then the
+	 * children claimed by JVMs that died meanwhile, until all are done.
+	 */
+	private void runChildrenFromQueue(File directory, final RunNotifier notifier) throws Throwable {
+		final Map<String, Runner> children = new LinkedHashMap<String, Runner>();
+		for (Runner each : getFilteredChildren()) {
+			children.put(describeChild(each).getDisplayName(), each);
+		}
+		final WorkQueue queue = WorkQueue.join(directory, new ArrayList<String>(children.keySet()));
+		try {
+			// Without a run id, finished children are left over from an earlier run
+			if (getWorkQueueRun() == null && !children.isEmpty() && queue.isFinished(children.keySet())) {
+				throw new IllegalStateException("All test classes in work queue " + directory
+						+ " are done already; empty the directory or set " + WORK_QUEUE_RUN_PROPERTY);
+			}
+			runChildren(new ArrayList<Runner>(children.values()), new ParallelChildScheduler.ChildRunner() {
+				public void run(Runner child) {
+					String name = describeChild(child).getDisplayName();
+					try {
+						if (queue.claim(name)) {
+							runClaimedChild(queue, name, child, notifier);
+						}
+					} catch (IOException e) {
+						throw new IllegalStateException("Cannot use work queue", e);
+					}
+				}
+			});
+			while (!queue.isFinished(children.keySet())) {
+				String name = queue.claimNext(children.keySet());
+				if (name == null) {
+					Thread.sleep(WORK_QUEUE_POLL_MILLIS);
+				} else {
+					runClaimedChild(queue, name, children.get(name), notifier);
+				}
+			}
+		} finally {
+			queue.leave();
+		}
+	}
+
+	private void runClaimedChild(WorkQueue queue, String name, Runner child, RunNotifier notifier) throws IOException {
+		try {
+			runChild(child, notifier);
+		} finally {
+			queue.done(name);
+		}
+	}
+
+	/**
+	 * The children that are left after filtering, in their sorted order. The
+	 * suite's description is built from exactly these children.
+	 */
+	private List<Runner> getFilteredChildren() {
+		Map<Description, Runner> childrenByDescription = new HashMap<Description, Runner>();
+		for (Runner each : getChildren()) {
+			childrenByDescription.put(describeChild(each), each);
+		}
+		List<Runner> filteredChildren = new ArrayList<Runner>();
+		for (Description each : getDescription().getChildren()) {
+			Runner child = childrenByDescription.get(each);
+			if (child != null) {
+				filteredChildren.add(child);
+			}
+		}
+		return filteredChildren;
+	}
+
+	@Override
+	protected void runChild(Runner runner, RunNotifier notifier) {
+		Object event = FlightRecorderEvents.beginChildRun();
+		try {
+			runChildUnlessSkipped(runner, notifier);
+		} finally {
+			flushBatch(notifier);
+			if (event != null) {
+				FlightRecorderEvents.endChildRun(event, suiteClass.getName(), describeChild(runner).getDisplayName(),
+						runner.testCount());
+			}
+		}
+	}
+
+	private void runChildUnlessSkipped(Runner runner, RunNotifier notifier) {
+		FailureCounter counter = failureCounter;
+		if (counter != null && counter.isLimitReached()) {
+			notifier.fireTestIgnored(describeChild(runner));
+			return;
+		}
+		SuiteFixtures fixtures = startedFixtures;
+		if (fixtures != null) {
+			Throwable failure = awaitRequiredFixtures(fixtures, describeChild(runner));
+			if (failure != null) {
+				notifier.fireTestFailure(new Failure(describeChild(runner), failure));
+				return;
+			}
+		}
+		StaticInitializer initializer = staticInitializer;
+		if (initializer != null) {
+			Throwable failure = awaitStaticInitializer(initializer, runner);
+			if (failure != null) {
+				notifier.fireTestFailure(new Failure(describeChild(runner), failure));
+				return;
+			}
+		}
+		super.runChild(runner, notifier);
+	}
+
+	/**
+	 * Passes the events that the current thread has buffered on, so that a
+	 * test class's events are not held back once it has finished.
+	 */
+	private void flushBatch(RunNotifier notifier) {
+		if (notifier instanceof BatchingRunNotifier) {
+			((BatchingRunNotifier) notifier).flush();
+		}
+	}
+
+	private Throwable awaitStaticInitializer(StaticInitializer initializer, Runner runner) {
+		Class<?> testClass = getTestClass(runner);
+		if (testClass == null) {
+			return null;
+		}
+		try {
+			return initializer.awaitInitialized(testClass);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return e;
+		}
+	}
+
+	private Throwable awaitRequiredFixtures(SuiteFixtures fixtures, Description child) {
+		RequiresFixtures requiresFixtures = child.getAnnotation(RequiresFixtures.class);
+		try {
+			if (requiresFixtures == null) {
+				return fixtures.awaitAll();
+			}
+			return fixtures.await(Arrays.asList(requiresFixtures.value()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return e;
+		}
+	}
+
+	private SuiteFixtures createFixtures(Class<? extends Annotation> annotation) {
+		List<Method> methods = new ArrayList<Method>();
+		Map<Method, String[]> dependencies = new HashMap<Method, String[]>();
+		for (Method each : suiteClass.getMethods()) {
+			String[] dependsOn = getDependsOn(each, annotation);
+			if (dependsOn != null && isPublicStaticVoid(each)) {
+				methods.add(each);
+				dependencies.put(each, dependsOn);
+			}
+		}
+		return new SuiteFixtures(methods, dependencies);
+	}
+
+	private String[] getDependsOn(Method method, Class<? extends Annotation> annotation) {
+		if (annotation == BeforeSuite.class) {
+			BeforeSuite beforeSuite = method.getAnnotation(BeforeSuite.class);
+			return beforeSuite == null ? null : beforeSuite.dependsOn();
+		}
+		AfterSuite afterSuite = method.getAnnotation(AfterSuite.class);
+		return afterSuite == null ? null : afterSuite.dependsOn();
 	}
 
 	private boolean isPublicStaticVoid(Method method) {
 		return method.getReturnType() == void.class && method.getParameterTypes().length == 0
 				&& (method.getModifiers() & Modifier.STATIC) != 0;
 	}
+
+	@RunListener.ThreadSafe
+	private static final class FailureCounter extends RunListener {
+		private final int maxFailures;
+		private final AtomicInteger failures = new AtomicInteger();
+
+		FailureCounter(int maxFailures) {
+			this.maxFailures = maxFailures;
+		}
+
+		@Override
+		public void testFailure(Failure failure) {
+			failures.incrementAndGet();
+		}
+
+		boolean isLimitReached() {
+			return failures.get() >= maxFailures;
+		}
+	}
 }
@@ -21,18 +21,20 @@ import java.util.List;
  * you can give a set of regex expression to specify the class names to include.
  * 
  */
-public class ClasspathSuiteTester implements ClassTester
+public class ClasspathSuiteTester implements ClassTester, ClassFileTester
 {
 
 	private final boolean searchInJars;
 	private final SuiteType[] suiteTypes;
 	private List<JavaStyleClassnameMatcher> positiveFilters;
 	private List<JavaStyleClassnameMatcher> negationFilters;
+	private List<JavaStyleClassnameMatcher> requestedFilters;
     private List<JavaStyleClasspathMatcher> positiveClasspathFilters;
     private List<JavaStyleClasspathMatcher> negationClasspathFilters;
 
     private final Class<?>[] baseTypes;
 	private final Class<?>[] excludedBaseTypes;
+	private final String description;
 
 	/**
 	 * @param searchInJars
@@ -48,7 +50,19 @@ public class ClasspathSuiteTester implements ClassTester
 	 */
 	public ClasspathSuiteTester(boolean searchInJars, String[] filterPatterns, String[] classpathFilterPatterns, SuiteType[] suiteTypes, Class<?>[] baseTypes,
 			Class<?>[] excludedBaseTypes) {
+		this(searchInJars, filterPatterns, classpathFilterPatterns, suiteTypes, baseTypes, excludedBaseTypes, new String[0]);
+	}
+
+	/**
+	 * @param requestedPatterns
+	 *            The classes requested for the run; a class has to match one
+	 *            of them as well as the filter patterns. If empty, all
+	 *            classes are requested.
+	 */
+	public ClasspathSuiteTester(boolean searchInJars, String[] filterPatterns, String[] classpathFilterPatterns, SuiteType[] suiteTypes, Class<?>[] baseTypes,
+			Class<?>[] excludedBaseTypes, String[] requestedPatterns) {
 		this.searchInJars = searchInJars;
+		this.requestedFilters = findPositiveFilters(requestedPatterns);
 		this.positiveFilters = findPositiveFilters(filterPatterns);
 		this.negationFilters = findNegationFilters(filterPatterns);
         this.positiveClasspathFilters = findPositiveClasspathFilters(classpathFilterPatterns);
@@ -56,6 +70,23 @@ public class ClasspathSuiteTester implements ClassTester
 		this.suiteTypes = suiteTypes;
 		this.baseTypes = baseTypes;
 		this.excludedBaseTypes = excludedBaseTypes;
+		this.description = searchInJars + " " + Arrays.toString(filterPatterns) + " " + Arrays.toString(classpathFilterPatterns)
+				+ " " + Arrays.toString(suiteTypes) + " " + Arrays.toString(baseTypes) + " "
+				+ Arrays.toString(excludedBaseTypes) + " " + Arrays.toString(requestedPatterns);
+	}
+
+	/**
+	 * @return the configuration that decides which classes are accepted
+	 */
+	String describe() {
+		return description;
+	}
+
+	/**
+	 * @return whether only the requested classes are accepted
+	 */
+	boolean isNarrowed() {
+		return !requestedFilters.isEmpty();
 	}
 
 	public boolean acceptClass(Class<?> clazz) {
@@ -77,6 +108,47 @@ public class ClasspathSuiteTester implements ClassTester
 		return false;
 	}
 
+	/**
+	 * Rejects a candidate only if the index shows that
+	 * {@link #acceptClass(Class)} would reject it, too.
+	 */
+	public boolean acceptClassFile(ClassFileHeader header, TypeIndex index) {
+		if (isInSuiteTypes(SuiteType.TEST_CLASSES)) {
+			if (mayHaveCorrectBaseType(header, index)
+					&& !Boolean.FALSE.equals(index.hasPublicMethodAnnotatedWith(header, Test.class.getName()))) {
+				return true;
+			}
+		}
+		if (isInSuiteTypes(SuiteType.JUNIT38_TEST_CLASSES)) {
+			if (mayHaveCorrectBaseType(header, index) && !Boolean.FALSE.equals(index.isSubtypeOf(header, TestCase.class.getName()))) {
+				return true;
+			}
+		}
+		if (isInSuiteTypes(SuiteType.RUN_WITH_CLASSES)) {
+			return !Boolean.FALSE.equals(index.hasInheritedAnnotation(header, RunWith.class.getName()));
+		}
+		return false;
+	}
+
+	private boolean mayHaveCorrectBaseType(ClassFileHeader header, TypeIndex index) {
+		// Neither style of test class may be abstract, which also rules out
+		// interfaces and annotations
+		if (header.isAbstract()) {
+			return false;
+		}
+		for (Class<?> excludedBaseType : excludedBaseTypes) {
+			if (Boolean.TRUE.equals(index.isSubtypeOf(header, excludedBaseType.getName()))) {
+				return false;
+			}
+		}
+		for (Class<?> baseType : baseTypes) {
+			if (!Boolean.FALSE.equals(index.isSubtypeOf(header, baseType.getName()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private boolean acceptJUnit38Test(Class<?> clazz) {
 		if (isAbstractClass(clazz)) {
 			return false;
@@ -145,6 +217,9 @@ public class ClasspathSuiteTester implements ClassTester
 		if (!acceptInPositiveFilters(className)) {
 			return false;
 		}
+		if (!acceptInRequestedFilters(className)) {
+			return false;
+		}
 		return acceptInNegationFilters(className);
 	}
 
@@ -166,6 +241,18 @@ public class ClasspathSuiteTester implements ClassTester
 		return true;
 	}
 
+	private boolean acceptInRequestedFilters(String className) {
+		if (requestedFilters.isEmpty()) {
+			return true;
+		}
+		for (JavaStyleClassnameMatcher pattern : requestedFilters) {
+			if (pattern.matches(className)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private boolean acceptInPositiveFilters(String className) {
 		boolean isPositiveAccepted = positiveFilters.isEmpty();
 		for (JavaStyleClassnameMatcher pattern : positiveFilters) {
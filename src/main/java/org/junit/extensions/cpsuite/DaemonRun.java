@@ -0,0 +1,80 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import org.junit.internal.TextListener;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * Runs a suite for the {@link TestDaemon}. The daemon loads this class
+ * through the class loader of the tests, so it uses the same JUnit as they
+ * do, and calls {@link #run} reflectively.
+ */
+final class DaemonRun {
+
+	private DaemonRun() {
+	}
+
+	/**
+	 * Reports to <code>System.out</code> like <code>JUnitCore</code>.
+	 *
+	 * @param shardCount
+	 *            0 to run all test classes, otherwise the number of shards of
+	 *            which only the one with <code>shardIndex</code> runs
+	 * @return whether all tests passed
+	 */
+	static boolean run(String suiteClassName, int shardIndex, int shardCount) throws ClassNotFoundException {
+		DiscoveryCache.enable();
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		Class<?> suiteClass = Class.forName(suiteClassName, false, classLoader);
+		Request request = Request.aClass(suiteClass);
+		if (shardCount > 0) {
+			request = request.filterWith(new ShardFilter(shardIndex, shardCount));
+		}
+		JUnitCore core = new JUnitCore();
+		core.addListener(new TextListener(System.out));
+		Result result = core.run(request);
+		return result.wasSuccessful();
+	}
+
+	/**
+	 * Spreads the test classes over the shards by the hash of their names,
+	 * which is the same in every JVM.
+	 */
+	private static final class ShardFilter extends Filter {
+		private final int index;
+		private final int count;
+
+		ShardFilter(int index, int count) {
+			this.index = index;
+			this.count = count;
+		}
+
+		@Override
+		public boolean shouldRun(Description description) {
+			if (description.isTest()) {
+				String className = description.getClassName();
+				return className == null || (className.hashCode() & Integer.MAX_VALUE) % count == index;
+			}
+			// The methods of a class split into chunks keep the class name
+			for (Description each : description.getChildren()) {
+				if (shouldRun(each)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public String describe() {
+			return "shard " + (index + 1) + " of " + count;
+		}
+	}
+}
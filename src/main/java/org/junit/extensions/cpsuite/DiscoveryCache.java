@@ -0,0 +1,104 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the test classes found for a suite class, so that running the suite
+ * again in the same JVM doesn't search the class path again. Only the
+ * {@link TestDaemon} switches the cache on: it loads changed classes through
+ * a new class loader, so a suite class that is still the same
+ * <code>Class</code> still has the same test classes. Everything else may
+ * change the class path under a running JVM.
+ * <p>
+ * A cached result only applies while the "cpsuite.*" system properties that
+ * influence the search have the same values. Neither the suite classes nor
+ * the test classes are kept from being unloaded.
+ */
+final class DiscoveryCache {
+
+	private static final String PROPERTY_PREFIX = "cpsuite.";
+
+	private static volatile boolean enabled;
+
+	private static final Map<Class<?>, Entry> entries = new WeakHashMap<Class<?>, Entry>();
+
+	private DiscoveryCache() {
+	}
+
+	static void enable() {
+		enabled = true;
+	}
+
+	/**
+	 * @return the classes the finder finds, from the cache if possible
+	 */
+	static List<Class<?>> find(Class<?> suiteClass, String classpathProperty, ClassesFinder finder) {
+		if (!enabled) {
+			return finder.find();
+		}
+		String key = key(classpathProperty);
+		synchronized (entries) {
+			Entry entry = entries.get(suiteClass);
+			List<Class<?>> cached = entry == null || !entry.key.equals(key) ? null : entry.getClasses();
+			if (cached != null) {
+				return cached;
+			}
+		}
+		List<Class<?>> classes = new ArrayList<Class<?>>(finder.find());
+		synchronized (entries) {
+			entries.put(suiteClass, new Entry(key, classes));
+		}
+		return classes;
+	}
+
+	/**
+	 * Requested tests only narrow the search, which is not cached.
+	 */
+	private static String key(String classpathProperty) {
+		Map<String, String> relevant = new TreeMap<String, String>();
+		for (String each : System.getProperties().stringPropertyNames()) {
+			if (each.startsWith(PROPERTY_PREFIX) && !each.equals(RequestedTests.TEST_PROPERTY)) {
+				relevant.put(each, System.getProperty(each));
+			}
+		}
+		relevant.put(classpathProperty, System.getProperty(classpathProperty));
+		return relevant.toString();
+	}
+
+	private static final class Entry {
+		final String key;
+		final List<WeakReference<Class<?>>> classes = new ArrayList<WeakReference<Class<?>>>();
+
+		Entry(String key, List<Class<?>> classes) {
+			this.key = key;
+			for (Class<?> each : classes) {
+				this.classes.add(new WeakReference<Class<?>>(each));
+			}
+		}
+
+		/**
+		 * @return <code>null</code> if one of the classes has been unloaded
+		 */
+		List<Class<?>> getClasses() {
+			List<Class<?>> result = new ArrayList<Class<?>>(classes.size());
+			for (WeakReference<Class<?>> each : classes) {
+				Class<?> clazz = each.get();
+				if (clazz == null) {
+					return null;
+				}
+				result.add(clazz);
+			}
+			return result;
+		}
+	}
+}
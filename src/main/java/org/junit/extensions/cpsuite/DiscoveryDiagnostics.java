@@ -0,0 +1,172 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Records what happened to the candidates of a search: why candidates were
+ * rejected, which of them failed to load and how long loading took. The
+ * report lists the number of candidates per outcome, the unreadable roots, the
+ * failing classes and the classes slowest to load and check, slowest first.
+ */
+final class DiscoveryDiagnostics {
+
+	static final String REPORT_PROPERTY = "cpsuite.discoveryReport";
+
+	static final String ACCEPTED = "accepted";
+	static final String NOT_ACCEPTED = "not accepted";
+	static final String CLASS_FILE_REJECTED = "rejected by class file";
+	static final String NAME_MISMATCH = "class file does not match its name";
+	static final String LOCAL_OR_ANONYMOUS = "local or anonymous class";
+
+	private static final int MAX_SLOWEST = 100;
+	private static final int MAX_FAILURES = 1000;
+
+	private final File reportFile;
+	private final Map<String, Integer> outcomes = new TreeMap<String, Integer>();
+	private final List<String[]> unreadableRoots = new ArrayList<String[]>();
+	private final List<Entry> failures = new ArrayList<Entry>();
+	private final PriorityQueue<Entry> slowest = new PriorityQueue<Entry>(MAX_SLOWEST + 1, new Comparator<Entry>() {
+		public int compare(Entry o1, Entry o2) {
+			return o1.nanos < o2.nanos ? -1 : (o1.nanos == o2.nanos ? 0 : 1);
+		}
+	});
+	private File currentRoot;
+
+	DiscoveryDiagnostics(File reportFile) {
+		this.reportFile = reportFile;
+	}
+
+	/**
+	 * @return <code>null</code> if no report is requested
+	 */
+	static DiscoveryDiagnostics fromSystemProperties() {
+		String report = System.getProperty(REPORT_PROPERTY, "").trim();
+		return report.length() == 0 ? null : new DiscoveryDiagnostics(new File(report));
+	}
+
+	void enterRoot(File root) {
+		currentRoot = root;
+	}
+
+	void unreadableRoot(File root, IOException e) {
+		unreadableRoots.add(new String[] { root.getAbsolutePath(), String.valueOf(e) });
+	}
+
+	void rejected(String reason) {
+		count(reason);
+	}
+
+	void loaded(String className, long nanos, boolean accepted) {
+		count(accepted ? ACCEPTED : NOT_ACCEPTED);
+		recordTime(new Entry(className, currentRoot, nanos, null));
+	}
+
+	void failed(String className, long nanos, Throwable error) {
+		count(error.getClass().getName());
+		Entry entry = new Entry(className, currentRoot, nanos, String.valueOf(error));
+		if (failures.size() < MAX_FAILURES) {
+			failures.add(entry);
+		}
+		recordTime(entry);
+	}
+
+	private void count(String outcome) {
+		Integer count = outcomes.get(outcome);
+		outcomes.put(outcome, count == null ? 1 : count + 1);
+	}
+
+	private void recordTime(Entry entry) {
+		slowest.add(entry);
+		if (slowest.size() > MAX_SLOWEST) {
+			slowest.remove();
+		}
+	}
+
+	void writeReport() throws IOException {
+		File parent = reportFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8"));
+		try {
+			writeJson(out);
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Cannot write discovery report " + reportFile);
+		}
+	}
+
+	private void writeJson(PrintWriter out) {
+		out.println("{");
+		out.println("  \"outcomes\": {");
+		int index = 0;
+		for (Map.Entry<String, Integer> each : outcomes.entrySet()) {
+			out.print("    " + ProfilingListener.jsonQuote(each.getKey()) + ": " + each.getValue());
+			out.println(++index < outcomes.size() ? "," : "");
+		}
+		out.println("  },");
+		out.println("  \"unreadableRoots\": [");
+		for (int i = 0; i < unreadableRoots.size(); i++) {
+			String[] each = unreadableRoots.get(i);
+			out.print("    {\"root\": " + ProfilingListener.jsonQuote(each[0]) + ", \"error\": "
+					+ ProfilingListener.jsonQuote(each[1]) + "}");
+			out.println(i < unreadableRoots.size() - 1 ? "," : "");
+		}
+		out.println("  ],");
+		writeEntries(out, "failures", failures);
+		out.println(",");
+		List<Entry> slowestFirst = new ArrayList<Entry>(slowest);
+		Collections.sort(slowestFirst, Collections.reverseOrder(slowest.comparator()));
+		writeEntries(out, "slowest", slowestFirst);
+		out.println();
+		out.println("}");
+	}
+
+	private void writeEntries(PrintWriter out, String name, List<Entry> entries) {
+		out.println("  \"" + name + "\": [");
+		for (int i = 0; i < entries.size(); i++) {
+			Entry each = entries.get(i);
+			out.print("    {\"name\": " + ProfilingListener.jsonQuote(each.className) + ", \"root\": "
+					+ (each.root == null ? "null" : ProfilingListener.jsonQuote(each.root.getAbsolutePath()))
+					+ ", \"millis\": " + ProfilingListener.millis(each.nanos));
+			if (each.error != null) {
+				out.print(", \"error\": " + ProfilingListener.jsonQuote(each.error));
+			}
+			out.print("}");
+			out.println(i < entries.size() - 1 ? "," : "");
+		}
+		out.print("  ]");
+	}
+
+	private static final class Entry {
+		final String className;
+		final File root;
+		final long nanos;
+		final String error;
+
+		Entry(String className, File root, long nanos, String error) {
+			this.className = className;
+			this.root = root;
+			this.nanos = nanos;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * The tests that failed in the last run of a suite, as written to its
+ * failures file. The file has one line per failed test method,
+ * <code>className#methodName</code>, and one line holding just the class name
+ * for a class that failed as a whole, e.g. in a <code>BeforeClass</code>
+ * method. A line <code>*</code> stands for a failure of the suite itself.
+ * <p>
+ * In rerun mode the suite takes its test classes from the file instead of
+ * searching the class path, and only runs the tests listed there. A class
+ * line stands for all tests below the class, including the tests of the
+ * classes a nested suite holds.
+ */
+final class FailedTests implements ClassesFinder {
+
+	static final String RERUN_PROPERTY = "cpsuite.rerunFailures";
+
+	private static final String WHOLE_SUITE = "*";
+	private static final char METHOD_SEPARATOR = '#';
+
+	private final File file;
+	private final Set<String> entries;
+	private final ClassLoader classLoader;
+
+	private FailedTests(File file, Set<String> entries, ClassLoader classLoader) {
+		this.file = file;
+		this.entries = entries;
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * @return <code>null</code> unless rerun mode is switched on and the
+	 *         failures of a previous run of the suite are known; if the suite
+	 *         itself failed the whole suite has to be run again
+	 */
+	static FailedTests forRerun(Class<?> suiteClass) {
+		if (!Boolean.getBoolean(RERUN_PROPERTY)) {
+			return null;
+		}
+		File file = ClasspathSuite.getFailuresFile(suiteClass);
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		Set<String> entries = new LinkedHashSet<String>();
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.trim().length() > 0) {
+						entries.add(line.trim());
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// Better to run everything than nothing
+			e.printStackTrace();
+			return null;
+		}
+		if (entries.contains(WHOLE_SUITE)) {
+			return null;
+		}
+		// The failed classes are loaded like the suite's other test classes
+		ClassLoader classLoader = suiteClass.getClassLoader();
+		return new FailedTests(file, entries, classLoader != null ? classLoader : FailedTests.class.getClassLoader());
+	}
+
+	/**
+	 * Looks up the failed classes by name through the suite class's loader;
+	 * classes that no longer exist or cannot be loaded are left out with a
+	 * message.
+	 */
+	public List<Class<?>> find() {
+		Set<String> classNames = new LinkedHashSet<String>();
+		for (String each : entries) {
+			classNames.add(classNameOf(each));
+		}
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		for (String each : classNames) {
+			try {
+				classes.add(Class.forName(each, false, classLoader));
+			} catch (ClassNotFoundException e) {
+				System.err.println("Not rerunning failed test class " + each + ", it cannot be found");
+			} catch (LinkageError e) {
+				System.err.println("Not rerunning failed test class " + each + ", it cannot be loaded: " + e);
+			}
+		}
+		return classes;
+	}
+
+	/**
+	 * @return whether nothing failed in the last run
+	 */
+	boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * @return the error to report when none of the failed tests is part of
+	 *         the suite any more
+	 */
+	Exception noneFound() {
+		return new IllegalStateException("None of the failed tests listed in " + file
+				+ " is part of the suite any more: " + entries);
+	}
+
+	private static String classNameOf(String entry) {
+		int separator = entry.indexOf(METHOD_SEPARATOR);
+		return separator < 0 ? entry : entry.substring(0, separator);
+	}
+
+	/**
+	 * @return a filter that lets through the failed test methods and all
+	 *         tests below classes that failed as a whole
+	 */
+	Filter filter() {
+		return new Filter() {
+			// The descriptions below classes that failed as a whole; runners
+			// ask for a description before they filter its children
+			private final Set<Description> wholeClasses = Collections.newSetFromMap(new ConcurrentHashMap<Description, Boolean>());
+
+			@Override
+			public boolean shouldRun(Description description) {
+				if (wholeClasses.contains(description)) {
+					return true;
+				}
+				if (description.getClassName() != null && entries.contains(MethodChunkRunner.testClassName(description))) {
+					addDescendants(description);
+					return true;
+				}
+				if (description.isTest()) {
+					return entries.contains(description.getClassName() + METHOD_SEPARATOR + description.getMethodName());
+				}
+				for (Description each : description.getChildren()) {
+					if (shouldRun(each)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			private void addDescendants(Description description) {
+				for (Description each : description.getChildren()) {
+					wholeClasses.add(each);
+					addDescendants(each);
+				}
+			}
+
+			@Override
+			public String describe() {
+				return "failed tests";
+			}
+		};
+	}
+
+	/**
+	 * Collects the failures of a run and writes them to the failures file.
+	 */
+	@RunListener.ThreadSafe
+	static final class Recorder extends RunListener {
+		private final Description root;
+		private final Set<String> entries = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		Recorder(Description root) {
+			this.root = root;
+		}
+
+		@Override
+		public void testFailure(Failure failure) {
+			Description description = failure.getDescription();
+			if (description.equals(root)) {
+				entries.add(WHOLE_SUITE);
+			} else if (description.getMethodName() != null) {
+				entries.add(description.getClassName() + METHOD_SEPARATOR + description.getMethodName());
+			} else {
+				entries.add(MethodChunkRunner.testClassName(description));
+			}
+		}
+
+		void write(File file) throws IOException {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("Cannot create directory " + parent);
+			}
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				for (String each : new TreeSet<String>(entries)) {
+					out.println(each);
+				}
+			} finally {
+				out.close();
+			}
+			if (out.checkError()) {
+				throw new IOException("Cannot write failures file " + file);
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Remembers across runs in which run each test class last failed and the
+ * modification time its class file had when it was last run. Every run that
+ * is recorded gets the next run number.
+ * <p>
+ * The file has one line per test class,
+ * <code>className\tlastFailedRun\tclassFileModified</code>, preceded by a line
+ * holding the number of recorded runs. A last failed run of 0 means the class
+ * has not failed yet.
+ * <p>
+ * A file that cannot be read is reported and kept: the next save renames it
+ * to <code>&lt;file&gt;.unreadable</code> before the new history takes its
+ * place. Saving writes a temporary file first and then moves it over the old
+ * one, so an interrupted save does not leave a truncated history behind.
+ */
+final class FailureHistory {
+
+	private static final String RUNS = "runs";
+	static final String UNREADABLE_SUFFIX = ".unreadable";
+
+	private final File file;
+	private int runs = 0;
+	private final Map<String, long[]> classes = new TreeMap<String, long[]>();
+	private boolean unreadable = false;
+
+	private FailureHistory(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return an empty history if the file does not exist or cannot be read,
+	 *         which is reported on <code>System.err</code>
+	 */
+	static FailureHistory load(File file) {
+		FailureHistory history = new FailureHistory(file);
+		if (file != null && file.isFile()) {
+			history.read();
+		}
+		return history;
+	}
+
+	private void read() {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				int lineNumber = 0;
+				while ((line = in.readLine()) != null) {
+					lineNumber++;
+					String[] fields = line.split("\t", 3);
+					if (fields.length == 2 && fields[0].equals(RUNS)) {
+						runs = Integer.parseInt(fields[1]);
+					} else if (fields.length == 3) {
+						classes.put(fields[0], new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[2]) });
+					} else {
+						throw new IOException("Malformed line " + lineNumber);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			ignoreUnreadableFile(e);
+		} catch (NumberFormatException e) {
+			ignoreUnreadableFile(e);
+		}
+	}
+
+	private void ignoreUnreadableFile(Exception e) {
+		System.err.println("Ignoring failure history " + file + ", it cannot be read: " + e.getMessage());
+		unreadable = true;
+		runs = 0;
+		classes.clear();
+	}
+
+	boolean isEmpty() {
+		return runs == 0;
+	}
+
+	/**
+	 * @return how many runs ago the class last failed, 0 for the last
+	 *         recorded run, or -1 if it has not failed yet
+	 */
+	int runsSinceFailure(String className) {
+		long[] entry = classes.get(className);
+		if (entry == null || entry[0] == 0) {
+			return -1;
+		}
+		return (int) (runs - entry[0]);
+	}
+
+	/**
+	 * @return whether the class file changed since the class was last run;
+	 *         classes that have never been run count as changed
+	 */
+	boolean hasChanged(String className, ClassLoader loader) {
+		long[] entry = classes.get(className);
+		return entry == null || entry[1] != classFileModified(className, loader);
+	}
+
+	/**
+	 * Records a run of the given classes as the next run.
+	 */
+	void record(Set<String> ranClasses, Set<String> failedClasses, ClassLoader loader) {
+		runs++;
+		for (String each : ranClasses) {
+			long[] entry = classes.get(each);
+			long lastFailedRun = entry == null ? 0 : entry[0];
+			if (failedClasses.contains(each)) {
+				lastFailedRun = runs;
+			}
+			classes.put(each, new long[] { lastFailedRun, classFileModified(each, loader) });
+		}
+	}
+
+	void save() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		File written = new File(file.getPath() + ".tmp");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(written), "UTF-8"));
+		try {
+			out.println(RUNS + "\t" + runs);
+			for (Map.Entry<String, long[]> each : classes.entrySet()) {
+				out.println(each.getKey() + "\t" + each.getValue()[0] + "\t" + each.getValue()[1]);
+			}
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			written.delete();
+			throw new IOException("Cannot write failure history " + written);
+		}
+		if (unreadable) {
+			File kept = new File(file.getPath() + UNREADABLE_SUFFIX);
+			Files.move(file.toPath(), kept.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			System.err.println("Kept the unreadable failure history as " + kept);
+			unreadable = false;
+		}
+		Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the modification time of the class file, or of the jar holding
+	 *         it, 0 if it is unknown
+	 */
+	static long classFileModified(String className, ClassLoader loader) {
+		URL url = loader == null ? ClassLoader.getSystemResource(classFileName(className)) : loader
+				.getResource(classFileName(className));
+		if (url == null) {
+			return 0;
+		}
+		try {
+			if ("file".equals(url.getProtocol())) {
+				return new File(url.toURI()).lastModified();
+			}
+			URLConnection connection = url.openConnection();
+			if (connection instanceof JarURLConnection) {
+				// Opening the jar for every class would cost more than the run it saves
+				URL jarFile = ((JarURLConnection) connection).getJarFileURL();
+				if ("file".equals(jarFile.getProtocol())) {
+					return new File(jarFile.toURI()).lastModified();
+				}
+			}
+			return connection.getLastModified();
+		} catch (URISyntaxException e) {
+			return 0;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static String classFileName(String className) {
+		return className.replace('.', '/') + ".class";
+	}
+
+	/**
+	 * Collects the test classes that were run and those that failed.
+	 */
+	@RunListener.ThreadSafe
+	static final class Recorder extends RunListener {
+		private final Description root;
+		private final Set<String> ranClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final Set<String> failedClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		Recorder(Description root) {
+			this.root = root;
+		}
+
+		@Override
+		public void testSuiteStarted(Description description) {
+			if (!description.equals(root)) {
+				ranClasses.add(MethodChunkRunner.testClassName(description));
+			}
+		}
+
+		@Override
+		public void testStarted(Description description) {
+			ranClasses.add(MethodChunkRunner.testClassName(description));
+		}
+
+		@Override
+		public void testFailure(Failure failure) {
+			if (!failure.getDescription().equals(root)) {
+				// Classes can fail without being started, e.g. when a required fixture failed
+				String className = MethodChunkRunner.testClassName(failure.getDescription());
+				ranClasses.add(className);
+				failedClasses.add(className);
+			}
+		}
+
+		void recordTo(FailureHistory history, ClassLoader loader) {
+			history.record(ranClasses, failedClasses, loader);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Everything a {@link ClassesFinderFactory} needs to know to create the finder
+ * of a suite: the settings taken from the suite's annotations and the options
+ * given in its {@link ClasspathSuite.FinderFactory} annotation. Factories that
+ * need more can read their own annotations from the suite class.
+ */
+public final class FinderConfig {
+
+	private final Class<?> suiteClass;
+	private final boolean searchInJars;
+	private final String[] classnameFilters;
+	private final String[] classpathFilters;
+	private final SuiteType[] suiteTypes;
+	private final Class<?>[] baseTypes;
+	private final Class<?>[] excludedBaseTypes;
+	private final String classpathProperty;
+	private final Map<String, String> options;
+	private final String[] requestedClassnames;
+
+	public FinderConfig(Class<?> suiteClass, boolean searchInJars, String[] classnameFilters, String[] classpathFilters,
+			SuiteType[] suiteTypes, Class<?>[] baseTypes, Class<?>[] excludedBaseTypes, String classpathProperty,
+			Map<String, String> options) {
+		this(suiteClass, searchInJars, classnameFilters, classpathFilters, suiteTypes, baseTypes, excludedBaseTypes,
+				classpathProperty, options, new String[0]);
+	}
+
+	private FinderConfig(Class<?> suiteClass, boolean searchInJars, String[] classnameFilters, String[] classpathFilters,
+			SuiteType[] suiteTypes, Class<?>[] baseTypes, Class<?>[] excludedBaseTypes, String classpathProperty,
+			Map<String, String> options, String[] requestedClassnames) {
+		this.suiteClass = suiteClass;
+		this.searchInJars = searchInJars;
+		this.classnameFilters = classnameFilters;
+		this.classpathFilters = classpathFilters;
+		this.suiteTypes = suiteTypes;
+		this.baseTypes = baseTypes;
+		this.excludedBaseTypes = excludedBaseTypes;
+		this.classpathProperty = classpathProperty;
+		this.options = Collections.unmodifiableMap(options);
+		this.requestedClassnames = requestedClassnames;
+	}
+
+	/**
+	 * @return the same configuration, restricted to the classes requested for
+	 *         the run
+	 */
+	public FinderConfig withRequestedClassnames(String[] requestedClassnames) {
+		return new FinderConfig(suiteClass, searchInJars, classnameFilters, classpathFilters, suiteTypes, baseTypes,
+				excludedBaseTypes, classpathProperty, options, requestedClassnames);
+	}
+
+	public Class<?> getSuiteClass() {
+		return suiteClass;
+	}
+
+	public boolean isSearchInJars() {
+		return searchInJars;
+	}
+
+	public String[] getClassnameFilters() {
+		return classnameFilters;
+	}
+
+	public String[] getClasspathFilters() {
+		return classpathFilters;
+	}
+
+	public SuiteType[] getSuiteTypes() {
+		return suiteTypes;
+	}
+
+	public Class<?>[] getBaseTypes() {
+		return baseTypes;
+	}
+
+	public Class<?>[] getExcludedBaseTypes() {
+		return excludedBaseTypes;
+	}
+
+	public String getClasspathProperty() {
+		return classpathProperty;
+	}
+
+	/**
+	 * Only classes that match one of these patterns, in the syntax of the
+	 * class name filters, need to be found, in addition to passing the class
+	 * name filters. The patterns are derived from the filter or system
+	 * property that selects the tests of a run; if there are none, all
+	 * classes are requested.
+	 */
+	public String[] getRequestedClassnames() {
+		return requestedClassnames;
+	}
+
+	public Map<String, String> getOptions() {
+		return options;
+	}
+
+	/**
+	 * @return the value of the option, <code>defaultValue</code> if it is not
+	 *         given
+	 */
+	public String getOption(String name, String defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+}
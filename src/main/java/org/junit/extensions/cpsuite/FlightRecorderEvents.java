@@ -0,0 +1,73 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.File;
+
+/**
+ * Emits JDK Flight Recorder events for discovery and the running of a suite's
+ * children. On JVMs without Flight Recorder nothing is emitted; the event
+ * types in {@link JfrEvents} are only ever loaded on JVMs that have it. When
+ * no recording is running, the methods return right away.
+ * <p>
+ * Duration events are begun with a <code>begin</code> method whose result is
+ * passed to the matching <code>end</code> method; it is <code>null</code>
+ * when the event is not recorded.
+ */
+final class FlightRecorderEvents {
+
+	private static final boolean AVAILABLE = isAvailable();
+
+	private FlightRecorderEvents() {
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	static Object beginRootScan() {
+		return AVAILABLE ? JfrEvents.beginRootScan() : null;
+	}
+
+	static void endRootScan(Object event, File root, int entries, long bytes) {
+		if (event != null) {
+			JfrEvents.endRootScan(event, root.getAbsolutePath(), entries, bytes);
+		}
+	}
+
+	static Object beginClassLoad() {
+		return AVAILABLE ? JfrEvents.beginClassLoad() : null;
+	}
+
+	static void endClassLoad(Object event, String className, String failure) {
+		if (event != null) {
+			JfrEvents.endClassLoad(event, className, failure);
+		}
+	}
+
+	static void candidateChecked(String className, boolean accepted, String reason) {
+		if (AVAILABLE) {
+			JfrEvents.candidateChecked(className, accepted, reason);
+		}
+	}
+
+	static Object beginChildRun() {
+		return AVAILABLE ? JfrEvents.beginChildRun() : null;
+	}
+
+	static void endChildRun(Object event, String suiteName, String childName, int testCount) {
+		if (event != null) {
+			JfrEvents.endChildRun(event, suiteName, childName, testCount);
+		}
+	}
+}
@@ -5,40 +5,173 @@
  */
 package org.junit.extensions.cpsuite;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
+import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 /**
  * This class provides an iterator over all file names in a jar file.
  * Directories are not considered to be files.
+ *
+ * In multi-release jars the entries below <code>META-INF/versions/N/</code>
+ * are given by their base name if N applies to the running JVM and are
+ * skipped otherwise.
+ *
+ * The jar file is closed as soon as the iteration is exhausted or the
+ * iterator is closed, unless it has been shared.
  */
-public class JarFilenameIterator implements Iterator<String>, Iterable<String> {
+public class JarFilenameIterator implements Iterator<String>, Iterable<String>, Closeable {
+
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+	private static final int RUNTIME_VERSION = runtimeVersion();
+
+	private final File jarFile;
+
+	private final JarFile jar;
 
 	private Enumeration<JarEntry> entries;
 
-	private JarEntry next;
+	private String next;
+
+	private String nextEntryName;
+
+	private String entryName;
+
+	private boolean multiRelease;
+
+	private boolean shared;
+
+	private List<File> classPathReferences = Collections.emptyList();
 
 	public JarFilenameIterator(File jarFile) throws IOException {
-		JarFile jar = new JarFile(jarFile);
+		this.jarFile = jarFile;
+		this.jar = new JarFile(jarFile);
+		try {
+			readManifest(jar.getManifest());
+		} catch (IOException e) {
+			jar.close();
+			throw e;
+		}
 		entries = jar.entries();
 		retrieveNextElement();
 	}
 
+	private void readManifest(Manifest manifest) {
+		if (manifest == null) {
+			return;
+		}
+		Attributes attributes = manifest.getMainAttributes();
+		multiRelease = "true".equalsIgnoreCase(attributes.getValue("Multi-Release"));
+		String classPath = attributes.getValue(Attributes.Name.CLASS_PATH);
+		if (classPath != null) {
+			classPathReferences = resolveClassPath(classPath);
+		}
+	}
+
+	private List<File> resolveClassPath(String classPath) {
+		List<File> references = new ArrayList<File>();
+		StringTokenizer tokens = new StringTokenizer(classPath);
+		while (tokens.hasMoreTokens()) {
+			try {
+				URL reference = new URL(jarFile.getAbsoluteFile().toURI().toURL(), tokens.nextToken());
+				if ("file".equals(reference.getProtocol())) {
+					references.add(new File(reference.toURI()));
+				}
+			} catch (IOException e) {
+				// Ignore malformed references like the class loader does
+			} catch (URISyntaxException e) {
+				// Ignore malformed references like the class loader does
+			} catch (IllegalArgumentException e) {
+				// Ignore malformed references like the class loader does
+			}
+		}
+		return references;
+	}
+
 	private void retrieveNextElement() {
 		next = null;
 		while (entries.hasMoreElements()) {
-			next = entries.nextElement();
-			if (!next.isDirectory()) {
-				break;
+			JarEntry entry = entries.nextElement();
+			if (entry.isDirectory()) {
+				continue;
 			}
+			next = applicableName(entry.getName());
+			if (next != null) {
+				nextEntryName = multiRelease ? effectiveEntryName(next) : next;
+				return;
+			}
+		}
+		if (!shared) {
+			close();
 		}
 	}
 
+	private String applicableName(String name) {
+		if (!multiRelease || !name.startsWith(VERSIONS_PREFIX)) {
+			return name;
+		}
+		int versionEnd = name.indexOf('/', VERSIONS_PREFIX.length());
+		if (versionEnd < 0) {
+			return null;
+		}
+		try {
+			int version = Integer.parseInt(name.substring(VERSIONS_PREFIX.length(), versionEnd));
+			if (version > RUNTIME_VERSION) {
+				return null;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return name.substring(versionEnd + 1);
+	}
+
+	/**
+	 * @return the entry the class loader reads for the name: the one for the
+	 *         highest version up to the running JVM's, or the base entry
+	 */
+	private String effectiveEntryName(String name) {
+		for (int version = RUNTIME_VERSION; version >= 9; version--) {
+			String versioned = VERSIONS_PREFIX + version + "/" + name;
+			if (jar.getEntry(versioned) != null) {
+				return versioned;
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * @return the jars and directories referenced by the
+	 *         <code>Class-Path</code> attribute of the manifest, resolved
+	 *         against the location of this jar
+	 */
+	public List<File> getClassPathReferences() {
+		return classPathReferences;
+	}
+
+	/**
+	 * Keeps the jar open until {@link #close()} is called, also after the
+	 * iteration is exhausted, so that its entries can still be read.
+	 *
+	 * @return the open jar
+	 */
+	JarFile share() {
+		shared = true;
+		return jar;
+	}
+
 	public boolean hasNext() {
 		return next != null;
 	}
@@ -47,11 +180,21 @@ public class JarFilenameIterator implements Iterator<String>, Iterable<String> {
 		if (next == null) {
 			throw new NoSuchElementException();
 		}
-		String value = next.getName();
+		String value = next;
+		entryName = nextEntryName;
 		retrieveNextElement();
 		return value;
 	}
 
+	/**
+	 * @return the name of the jar entry the class loader reads for the name
+	 *         last returned by {@link #next()}; in multi-release jars it may
+	 *         be below <code>META-INF/versions/N/</code>
+	 */
+	public String getEntryName() {
+		return entryName;
+	}
+
 	public void remove() {
 		throw new RuntimeException("Not implemented");
 	}
@@ -60,4 +203,25 @@ public class JarFilenameIterator implements Iterator<String>, Iterable<String> {
 		return this;
 	}
 
+	public void close() {
+		next = null;
+		try {
+			jar.close();
+		} catch (IOException e) {
+			// Nothing left to do
+		}
+	}
+
+	private static int runtimeVersion() {
+		String specification = System.getProperty("java.specification.version", "1.7");
+		if (specification.startsWith("1.")) {
+			specification = specification.substring(2);
+		}
+		try {
+			return Integer.parseInt(specification);
+		} catch (NumberFormatException e) {
+			return 7;
+		}
+	}
+
 }
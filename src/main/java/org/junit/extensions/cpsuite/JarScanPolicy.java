@@ -0,0 +1,231 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Decides whether a jar on the class path is worth scanning for test classes
+ * before its entries are enumerated.
+ * <ul>
+ * <li>Jars whose file name matches one of the include patterns are always
+ * scanned.</li>
+ * <li>If include patterns are given but markers are not required, all other
+ * jars are skipped without being touched.</li>
+ * <li>If markers are required, a jar is only scanned when a marker file named
+ * like the jar plus <code>.cpsuite</code> lies next to it, e.g.
+ * <code>app-tests.jar.cpsuite</code>. Looking for it costs a single stat,
+ * whereas a marker inside the jar would mean opening every jar.</li>
+ * <li>Jars that held no accepted class in a previous run are skipped as long
+ * as their size and modification time are unchanged, which costs a single
+ * stat. Entries are kept per configuration of the testers, so suites with
+ * different filters can share a cache file. Without a configuration, i.e.
+ * for testers that cannot describe what they accept, nothing is cached.</li>
+ * <li>Jars stored inside a scanned jar, e.g. the <code>lib/*.jar</code>
+ * entries of a fat jar, are only scanned if nested jars are switched on.</li>
+ * </ul>
+ */
+final class JarScanPolicy {
+
+	static final String INCLUDE_PROPERTY = "cpsuite.jars.include";
+	static final String REQUIRE_MARKER_PROPERTY = "cpsuite.jars.requireMarker";
+	static final String CACHE_PROPERTY = "cpsuite.jars.cache";
+	static final String NESTED_PROPERTY = "cpsuite.jars.nested";
+
+	static final String MARKER_SUFFIX = ".cpsuite";
+
+	private final List<JavaStyleClasspathMatcher> includes;
+	private final boolean requireMarker;
+	private final File cacheFile;
+	private final String configuration;
+	private final boolean scanNestedJars;
+
+	// Keyed by configuration and path, to keep the entries of other configurations
+	private final Map<String, String> emptyJars = new TreeMap<String, String>();
+	private boolean cacheChanged = false;
+
+	JarScanPolicy(String[] includePatterns, boolean requireMarker, File cacheFile, String configuration) {
+		this(includePatterns, requireMarker, cacheFile, configuration, false);
+	}
+
+	/**
+	 * @param configuration
+	 *            what the testers accept; <code>null</code> if that is
+	 *            unknown, which switches the cache off
+	 */
+	JarScanPolicy(String[] includePatterns, boolean requireMarker, File cacheFile, String configuration,
+			boolean scanNestedJars) {
+		this.includes = new ArrayList<JavaStyleClasspathMatcher>();
+		for (String each : includePatterns) {
+			includes.add(new JavaStyleClasspathMatcher(each));
+		}
+		this.requireMarker = requireMarker;
+		this.cacheFile = configuration == null ? null : cacheFile;
+		this.configuration = configuration == null ? null : digest(configuration);
+		this.scanNestedJars = scanNestedJars;
+		loadCache();
+	}
+
+	static JarScanPolicy fromSystemProperties(String configuration) {
+		String include = System.getProperty(INCLUDE_PROPERTY, "").trim();
+		String[] includePatterns = include.length() == 0 ? new String[0] : include.split("\\s*,\\s*");
+		boolean requireMarker = Boolean.getBoolean(REQUIRE_MARKER_PROPERTY);
+		String cache = System.getProperty(CACHE_PROPERTY, "").trim();
+		return new JarScanPolicy(includePatterns, requireMarker, cache.length() == 0 ? null : new File(cache),
+				configuration, Boolean.getBoolean(NESTED_PROPERTY));
+	}
+
+	boolean scanNestedJars() {
+		return scanNestedJars;
+	}
+
+	boolean shouldScan(File jar) {
+		if (isIncluded(jar)) {
+			return true;
+		}
+		if (!includes.isEmpty() && !requireMarker) {
+			return false;
+		}
+		if (isKnownEmpty(jar)) {
+			return false;
+		}
+		return !requireMarker || hasMarker(jar);
+	}
+
+	/**
+	 * Reports the outcome of scanning a jar to keep the negative cache up to
+	 * date.
+	 * 
+	 * @param complete
+	 *            whether every candidate of the jar could be loaded; a jar
+	 *            whose classes failed to load is not known to be empty
+	 */
+	void scanned(File jar, boolean foundClasses, boolean complete) {
+		if (cacheFile == null) {
+			return;
+		}
+		String key = key(jar);
+		if (foundClasses || !complete) {
+			cacheChanged |= emptyJars.remove(key) != null;
+			return;
+		}
+		String stamp = stamp(jar);
+		if (stamp != null && !stamp.equals(emptyJars.put(key, stamp))) {
+			cacheChanged = true;
+		}
+	}
+
+	private boolean isIncluded(File jar) {
+		for (JavaStyleClasspathMatcher each : includes) {
+			if (each.matches(jar.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isKnownEmpty(File jar) {
+		if (emptyJars.isEmpty()) {
+			return false;
+		}
+		String cached = emptyJars.get(key(jar));
+		return cached != null && cached.equals(stamp(jar));
+	}
+
+	private boolean hasMarker(File jar) {
+		return new File(jar.getPath() + MARKER_SUFFIX).isFile();
+	}
+
+	private String key(File jar) {
+		return configuration + "\t" + jar.getAbsolutePath();
+	}
+
+	private static String digest(String configuration) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(configuration.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 8; i++) {
+				hex.append(String.format("%02x", digest[i] & 0xff));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private String stamp(File jar) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(jar.toPath(), BasicFileAttributes.class);
+			return attributes.size() + "\t" + attributes.lastModifiedTime().toMillis();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void loadCache() {
+		if (cacheFile == null || !cacheFile.isFile()) {
+			return;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					// Lines without a configuration are dropped
+					String[] fields = line.split("\t", 4);
+					if (fields.length == 4) {
+						emptyJars.put(fields[2] + "\t" + fields[3], fields[0] + "\t" + fields[1]);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// An unreadable cache is an empty cache
+			emptyJars.clear();
+		}
+	}
+
+	void saveCache() throws IOException {
+		if (cacheFile == null || !cacheChanged) {
+			return;
+		}
+		File parent = cacheFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(cacheFile), "UTF-8"));
+		try {
+			for (Map.Entry<String, String> each : emptyJars.entrySet()) {
+				out.println(each.getValue() + "\t" + each.getKey());
+			}
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Cannot write jar cache " + cacheFile);
+		}
+		cacheChanged = false;
+	}
+}
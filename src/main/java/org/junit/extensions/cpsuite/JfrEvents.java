@@ -0,0 +1,156 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Flight Recorder event types. Only {@link FlightRecorderEvents} refers
+ * to this class, and only after checking that the JVM has Flight Recorder.
+ * Events are passed around as <code>Object</code> so that no other class
+ * needs the event types to be loaded.
+ */
+final class JfrEvents {
+
+	private static final String CATEGORY = "ClasspathSuite";
+
+	private JfrEvents() {
+	}
+
+	static Object beginRootScan() {
+		RootScanned event = new RootScanned();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void endRootScan(Object begun, String root, int entries, long bytes) {
+		RootScanned event = (RootScanned) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			event.root = root;
+			event.entries = entries;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	static Object beginClassLoad() {
+		CandidateLoaded event = new CandidateLoaded();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void endClassLoad(Object begun, String className, String failure) {
+		CandidateLoaded event = (CandidateLoaded) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			event.className = className;
+			event.failure = failure;
+			event.commit();
+		}
+	}
+
+	static void candidateChecked(String className, boolean accepted, String reason) {
+		CandidateChecked event = new CandidateChecked();
+		if (event.shouldCommit()) {
+			event.className = className;
+			event.accepted = accepted;
+			event.reason = reason;
+			event.commit();
+		}
+	}
+
+	static Object beginChildRun() {
+		ChildRun event = new ChildRun();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void endChildRun(Object begun, String suiteName, String childName, int testCount) {
+		ChildRun event = (ChildRun) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			event.suite = suiteName;
+			event.child = childName;
+			event.testCount = testCount;
+			event.commit();
+		}
+	}
+
+	@Name("org.junit.extensions.cpsuite.RootScanned")
+	@Label("Root Scanned")
+	@Category(CATEGORY)
+	@Description("A class path or module path root searched for test classes")
+	static final class RootScanned extends Event {
+		@Label("Root")
+		String root;
+
+		@Label("Entries")
+		int entries;
+
+		@Label("Size")
+		@Description("The size of the jar file, or of the class files of a directory")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("org.junit.extensions.cpsuite.CandidateLoaded")
+	@Label("Candidate Loaded")
+	@Category(CATEGORY)
+	@Description("A candidate class loaded and checked by the testers")
+	static final class CandidateLoaded extends Event {
+		@Label("Class Name")
+		String className;
+
+		@Label("Failure")
+		@Description("The error that kept the class from loading, if any")
+		String failure;
+	}
+
+	@Name("org.junit.extensions.cpsuite.CandidateChecked")
+	@Label("Candidate Checked")
+	@Category(CATEGORY)
+	@Description("A candidate class accepted as a test class or rejected")
+	static final class CandidateChecked extends Event {
+		@Label("Class Name")
+		String className;
+
+		@Label("Accepted")
+		boolean accepted;
+
+		@Label("Reason")
+		String reason;
+	}
+
+	@Name("org.junit.extensions.cpsuite.ChildRun")
+	@Label("Child Run")
+	@Category(CATEGORY)
+	@Description("A child of a suite, usually a test class, from start to finish")
+	static final class ChildRun extends Event {
+		@Label("Suite")
+		String suite;
+
+		@Label("Child")
+		String child;
+
+		@Label("Test Count")
+		int testCount;
+	}
+}
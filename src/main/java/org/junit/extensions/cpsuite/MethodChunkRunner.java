@@ -0,0 +1,253 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.Filterable;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.manipulation.Sortable;
+import org.junit.runner.manipulation.Sorter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.TestClass;
+
+/**
+ * Runs a chunk of the test methods of one test class. Every chunk has a runner
+ * of its own, narrowed down to its methods by a {@link Filter}, so the chunks
+ * of a class can run on different threads. Class level events are reported
+ * under the name of the chunk, e.g. <code>a.b.CTest [2/4]</code>.
+ */
+final class MethodChunkRunner extends Runner implements Filterable, Sortable {
+
+	private final Runner delegate;
+	private final Description classDescription;
+	private final String name;
+
+	private MethodChunkRunner(Runner delegate, Description classDescription, String name) {
+		this.delegate = delegate;
+		this.classDescription = classDescription;
+		this.name = name;
+	}
+
+	Runner getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Splits the class run by the given runner into chunks of at most
+	 * <code>methodsPerChunk</code> test methods. Classes with class level
+	 * fixtures are only split if they are annotated with
+	 * {@link ClasspathSuite.Splittable}, since their fixtures run once per
+	 * chunk.
+	 *
+	 * @return the runner itself if the class is not split
+	 */
+	static List<Runner> split(Runner runner, RunnerBuilder builder, int methodsPerChunk) {
+		List<Runner> chunks = new ArrayList<Runner>();
+		Description description = runner.getDescription();
+		Class<?> testClass = description.getTestClass();
+		List<Description> methods = description.getChildren();
+		if (testClass == null || !(runner instanceof Filterable) || methods.size() <= methodsPerChunk
+				|| !consistsOfTestMethods(methods) || !mayBeSplit(testClass)) {
+			chunks.add(runner);
+			return chunks;
+		}
+		int count = (methods.size() + methodsPerChunk - 1) / methodsPerChunk;
+		for (int i = 0; i < count; i++) {
+			List<Description> chunk = methods.subList(i * methodsPerChunk, Math.min(methods.size(), (i + 1) * methodsPerChunk));
+			Runner chunkRunner = i == 0 ? runner : builder.safeRunnerForClass(testClass);
+			try {
+				((Filterable) chunkRunner).filter(new MethodsFilter(chunk));
+			} catch (NoTestsRemainException e) {
+				// Cannot happen, the chunk was taken from the class's own methods
+				continue;
+			}
+			chunks.add(new MethodChunkRunner(chunkRunner, description, description.getDisplayName() + " [" + (i + 1) + "/"
+					+ count + "]"));
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return the name of the test class a description belongs to, also for
+	 *         the descriptions of chunks
+	 */
+	static String testClassName(Description description) {
+		String className = description.getClassName();
+		int chunk = description.getMethodName() == null ? className.lastIndexOf(" [") : -1;
+		return chunk < 0 ? className : className.substring(0, chunk);
+	}
+
+	private static boolean consistsOfTestMethods(List<Description> children) {
+		for (Description each : children) {
+			if (!each.isTest()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean mayBeSplit(Class<?> testClass) {
+		if (testClass.isAnnotationPresent(ClasspathSuite.Splittable.class)) {
+			return true;
+		}
+		TestClass model = new TestClass(testClass);
+		return model.getAnnotatedMethods(BeforeClass.class).isEmpty() && model.getAnnotatedMethods(AfterClass.class).isEmpty()
+				&& model.getAnnotatedMethods(ClassRule.class).isEmpty() && model.getAnnotatedFields(ClassRule.class).isEmpty();
+	}
+
+	@Override
+	public Description getDescription() {
+		Annotation[] annotations = classDescription.getAnnotations().toArray(new Annotation[0]);
+		Description description = Description.createSuiteDescription(name, annotations);
+		for (Description each : delegate.getDescription().getChildren()) {
+			description.addChild(each);
+		}
+		return description;
+	}
+
+	@Override
+	public void run(RunNotifier notifier) {
+		delegate.run(new ChunkNotifier(notifier, classDescription, getDescription()));
+	}
+
+	public void filter(Filter filter) throws NoTestsRemainException {
+		((Filterable) delegate).filter(filter);
+	}
+
+	public void sort(Sorter sorter) {
+		if (delegate instanceof Sortable) {
+			((Sortable) delegate).sort(sorter);
+		}
+	}
+
+	private static final class MethodsFilter extends Filter {
+		private final Set<Description> methods;
+
+		MethodsFilter(List<Description> methods) {
+			this.methods = new HashSet<Description>(methods);
+		}
+
+		@Override
+		public boolean shouldRun(Description description) {
+			if (description.isTest()) {
+				return methods.contains(description);
+			}
+			for (Description each : description.getChildren()) {
+				if (shouldRun(each)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public String describe() {
+			return methods.size() + " methods";
+		}
+	}
+
+	/**
+	 * Passes all events and listener changes on and replaces the class's
+	 * description with the chunk's, so listeners can tell the chunks of a
+	 * class apart.
+	 */
+	private static final class ChunkNotifier extends RunNotifier {
+		private final RunNotifier notifier;
+		private final Description classDescription;
+		private final Description chunkDescription;
+
+		ChunkNotifier(RunNotifier notifier, Description classDescription, Description chunkDescription) {
+			this.notifier = notifier;
+			this.classDescription = classDescription;
+			this.chunkDescription = chunkDescription;
+		}
+
+		private Description translate(Description description) {
+			return description.equals(classDescription) ? chunkDescription : description;
+		}
+
+		@Override
+		public void addListener(RunListener listener) {
+			notifier.addListener(listener);
+		}
+
+		@Override
+		public void addFirstListener(RunListener listener) {
+			notifier.addFirstListener(listener);
+		}
+
+		@Override
+		public void removeListener(RunListener listener) {
+			notifier.removeListener(listener);
+		}
+
+		@Override
+		public void fireTestRunStarted(Description description) {
+			notifier.fireTestRunStarted(description);
+		}
+
+		@Override
+		public void fireTestRunFinished(Result result) {
+			notifier.fireTestRunFinished(result);
+		}
+
+		@Override
+		public void fireTestSuiteStarted(Description description) {
+			notifier.fireTestSuiteStarted(translate(description));
+		}
+
+		@Override
+		public void fireTestSuiteFinished(Description description) {
+			notifier.fireTestSuiteFinished(translate(description));
+		}
+
+		@Override
+		public void fireTestStarted(Description description) throws StoppedByUserException {
+			notifier.fireTestStarted(translate(description));
+		}
+
+		@Override
+		public void fireTestFailure(Failure failure) {
+			notifier.fireTestFailure(new Failure(translate(failure.getDescription()), failure.getException()));
+		}
+
+		@Override
+		public void fireTestAssumptionFailed(Failure failure) {
+			notifier.fireTestAssumptionFailed(new Failure(translate(failure.getDescription()), failure.getException()));
+		}
+
+		@Override
+		public void fireTestIgnored(Description description) {
+			notifier.fireTestIgnored(translate(description));
+		}
+
+		@Override
+		public void fireTestFinished(Description description) {
+			notifier.fireTestFinished(translate(description));
+		}
+
+		@Override
+		public void pleaseStop() {
+			notifier.pleaseStop();
+		}
+	}
+}
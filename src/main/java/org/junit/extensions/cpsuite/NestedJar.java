@@ -0,0 +1,238 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A jar stored as an entry of another jar, e.g. <code>lib/tests.jar</code>
+ * in a fat jar. The nested jar is read into memory as it is - stored or
+ * deflated, it is never extracted to disk - and its central directory is read
+ * once. Entries are inflated each time they are read.
+ * <p>
+ * Jars that need ZIP64 extensions are not supported; nested jars that big
+ * would not fit into an array anyway.
+ */
+final class NestedJar {
+
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	private static final int END_LENGTH = 22;
+	private static final int CENTRAL_LENGTH = 46;
+	private static final int LOCAL_LENGTH = 30;
+	private static final int MAX_COMMENT_LENGTH = 0xffff;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final int ENCRYPTED_FLAG = 1;
+	private static final int UTF8_FLAG = 1 << 11;
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// The default encoding of zip entry names
+	private static final Charset CP437 = charsetOrUtf8("IBM437");
+
+	private final File outerJar;
+	private final String entryName;
+	private final byte[] data;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	NestedJar(File outerJar, String entryName, byte[] data) throws IOException {
+		this.outerJar = outerJar;
+		this.entryName = entryName;
+		this.data = data;
+		readCentralDirectory();
+	}
+
+	static NestedJar read(File outerJar, JarFile jar, ZipEntry entry) throws IOException {
+		InputStream in = jar.getInputStream(entry);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return new NestedJar(outerJar, entry.getName(), bytes.toByteArray());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the outer jar and the entry, e.g.
+	 *         <code>/work/app.jar!/lib/tests.jar</code>
+	 */
+	String getLocation() {
+		return outerJar.getAbsolutePath() + "!/" + entryName;
+	}
+
+	URL getOuterJarUrl() throws MalformedURLException {
+		return outerJar.getAbsoluteFile().toURI().toURL();
+	}
+
+	/**
+	 * @return the names of all files in the jar; versioned entries of
+	 *         multi-release jars are left out
+	 */
+	List<String> getFileNames() {
+		List<String> names = new ArrayList<String>(entries.size());
+		for (String each : entries.keySet()) {
+			if (!each.endsWith("/") && !each.startsWith(VERSIONS_PREFIX)) {
+				names.add(each);
+			}
+		}
+		return Collections.unmodifiableList(names);
+	}
+
+	boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * @return the content of the entry, <code>null</code> if there is no such
+	 *         entry
+	 */
+	byte[] read(String name) throws IOException {
+		Entry entry = entries.get(name);
+		if (entry == null) {
+			return null;
+		}
+		int offset = entry.localHeaderOffset;
+		if (offset + LOCAL_LENGTH > data.length || readInt(offset) != LOCAL_SIGNATURE) {
+			throw new IOException("Bad local header of " + name + " in " + getLocation());
+		}
+		int start = offset + LOCAL_LENGTH + readShort(offset + 26) + readShort(offset + 28);
+		if (start + entry.compressedSize > data.length) {
+			throw new IOException("Truncated entry " + name + " in " + getLocation());
+		}
+		if (entry.method == STORED) {
+			byte[] content = new byte[entry.compressedSize];
+			System.arraycopy(data, start, content, 0, content.length);
+			return content;
+		}
+		return inflate(name, start, entry);
+	}
+
+	private byte[] inflate(String name, int start, Entry entry) throws IOException {
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data, start, entry.compressedSize);
+			byte[] content = new byte[entry.size];
+			int length = 0;
+			while (length < content.length && !inflater.finished()) {
+				int inflated = inflater.inflate(content, length, content.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += inflated;
+			}
+			if (length != content.length) {
+				throw new IOException("Truncated entry " + name + " in " + getLocation());
+			}
+			return content;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt entry " + name + " in " + getLocation(), e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private void readCentralDirectory() throws IOException {
+		int end = findEnd();
+		int count = readShort(end + 10);
+		long size = readInt(end + 12) & 0xffffffffL;
+		long offset = readInt(end + 16) & 0xffffffffL;
+		if (count == 0xffff || size == 0xffffffffL || offset == 0xffffffffL) {
+			throw new IOException("ZIP64 nested jar " + getLocation() + " is not supported");
+		}
+		int position = (int) offset;
+		for (int i = 0; i < count; i++) {
+			if (position + CENTRAL_LENGTH > data.length || readInt(position) != CENTRAL_SIGNATURE) {
+				throw new IOException("Bad central directory in " + getLocation());
+			}
+			int flags = readShort(position + 8);
+			int method = readShort(position + 10);
+			long compressedSize = readInt(position + 20) & 0xffffffffL;
+			long entrySize = readInt(position + 24) & 0xffffffffL;
+			int nameLength = readShort(position + 28);
+			int extraLength = readShort(position + 30);
+			int commentLength = readShort(position + 32);
+			long localHeaderOffset = readInt(position + 42) & 0xffffffffL;
+			if (position + CENTRAL_LENGTH + nameLength > data.length) {
+				throw new IOException("Bad central directory in " + getLocation());
+			}
+			String name = new String(data, position + CENTRAL_LENGTH, nameLength, (flags & UTF8_FLAG) != 0 ? UTF8
+					: CP437);
+			boolean readable = (flags & ENCRYPTED_FLAG) == 0 && (method == STORED || method == DEFLATED)
+					&& compressedSize < Integer.MAX_VALUE && entrySize < Integer.MAX_VALUE
+					&& localHeaderOffset < data.length;
+			if (readable && !entries.containsKey(name)) {
+				entries.put(name, new Entry(method, (int) compressedSize, (int) entrySize, (int) localHeaderOffset));
+			}
+			position += CENTRAL_LENGTH + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * The end of central directory record is the last thing in the file,
+	 * followed only by the archive comment.
+	 */
+	private int findEnd() throws IOException {
+		int lowest = Math.max(0, data.length - END_LENGTH - MAX_COMMENT_LENGTH);
+		for (int position = data.length - END_LENGTH; position >= lowest; position--) {
+			if (readInt(position) == END_SIGNATURE) {
+				return position;
+			}
+		}
+		throw new IOException("Not a jar: " + getLocation());
+	}
+
+	private int readShort(int position) {
+		return (data[position] & 0xff) | (data[position + 1] & 0xff) << 8;
+	}
+
+	private int readInt(int position) {
+		return readShort(position) | readShort(position + 2) << 16;
+	}
+
+	private static Charset charsetOrUtf8(String name) {
+		try {
+			return Charset.forName(name);
+		} catch (IllegalArgumentException e) {
+			return UTF8;
+		}
+	}
+
+	private static final class Entry {
+		final int method;
+		final int compressedSize;
+		final int size;
+		final int localHeaderOffset;
+
+		Entry(int method, int compressedSize, int size, int localHeaderOffset) {
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+}
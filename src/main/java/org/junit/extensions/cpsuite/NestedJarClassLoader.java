@@ -0,0 +1,149 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Loads classes and resources from nested jars held in memory. The parent is
+ * asked first, so a class that is also on the class path is loaded from
+ * there, like the first copy on the class path wins. The protection domain
+ * of a class names the outer jar as its code source.
+ */
+final class NestedJarClassLoader extends ClassLoader {
+
+	private static final String PROTOCOL = "cpsuite-nested";
+
+	static {
+		registerAsParallelCapable();
+	}
+
+	private final List<NestedJar> jars = new CopyOnWriteArrayList<NestedJar>();
+
+	NestedJarClassLoader(ClassLoader parent) {
+		super(parent);
+	}
+
+	/**
+	 * Does nothing if a jar from the same location has been added before.
+	 */
+	synchronized void add(NestedJar jar) {
+		for (NestedJar each : jars) {
+			if (each.getLocation().equals(jar.getLocation())) {
+				return;
+			}
+		}
+		jars.add(jar);
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		String fileName = name.replace('.', '/') + ".class";
+		for (NestedJar each : jars) {
+			byte[] content;
+			try {
+				content = each.read(fileName);
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+			if (content != null) {
+				definePackageOf(name);
+				return defineClass(name, content, 0, content.length, protectionDomainOf(each));
+			}
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	@SuppressWarnings("deprecation")
+	private void definePackageOf(String className) {
+		int end = className.lastIndexOf('.');
+		if (end < 0) {
+			return;
+		}
+		String packageName = className.substring(0, end);
+		if (getPackage(packageName) != null) {
+			return;
+		}
+		try {
+			definePackage(packageName, null, null, null, null, null, null, null);
+		} catch (IllegalArgumentException e) {
+			// Defined by another thread meanwhile
+		}
+	}
+
+	private ProtectionDomain protectionDomainOf(NestedJar jar) {
+		try {
+			return new ProtectionDomain(new CodeSource(jar.getOuterJarUrl(), (Certificate[]) null), null, this, null);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		for (NestedJar each : jars) {
+			if (each.contains(name)) {
+				return resourceUrl(each, name);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) {
+		List<URL> urls = new ArrayList<URL>();
+		for (NestedJar each : jars) {
+			if (each.contains(name)) {
+				URL url = resourceUrl(each, name);
+				if (url != null) {
+					urls.add(url);
+				}
+			}
+		}
+		return Collections.enumeration(urls);
+	}
+
+	private URL resourceUrl(final NestedJar jar, final String name) {
+		try {
+			return new URL(PROTOCOL, null, -1, jar.getLocation() + "!/" + name, new URLStreamHandler() {
+				@Override
+				protected URLConnection openConnection(URL url) {
+					return new URLConnection(url) {
+						@Override
+						public void connect() {
+							connected = true;
+						}
+
+						@Override
+						public InputStream getInputStream() throws IOException {
+							byte[] content = jar.read(name);
+							if (content == null) {
+								throw new IOException("No entry " + name + " in " + jar.getLocation());
+							}
+							return new ByteArrayInputStream(content);
+						}
+					};
+				}
+			});
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+}
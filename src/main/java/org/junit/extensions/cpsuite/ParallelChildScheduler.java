@@ -0,0 +1,144 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.runner.Runner;
+
+/**
+ * Runs the children of a suite concurrently, each on its own thread. Virtual
+ * threads are used when the JVM provides them, a pool of platform threads
+ * otherwise. A semaphore caps the number of children that run at the same
+ * time - or an {@link AdaptiveConcurrency} that adjusts the cap as the
+ * children run - and a {@link ResourceSchedule} keeps children with
+ * conflicting resources apart.
+ */
+final class ParallelChildScheduler {
+
+	interface ChildRunner {
+		void run(Runner child);
+	}
+
+	private final boolean virtualThreads;
+	private final int maxConcurrency;
+	private final AdaptiveConcurrency adaptive;
+
+	/**
+	 * @param maxConcurrency
+	 *            the maximum number of children to run at the same time; 0
+	 *            means no limit on virtual threads and one child per
+	 *            processor on platform threads
+	 */
+	ParallelChildScheduler(boolean virtualThreads, int maxConcurrency) {
+		this(virtualThreads, maxConcurrency, null);
+	}
+
+	/**
+	 * @param adaptive
+	 *            decides the number of children to run at the same time
+	 *            instead of <code>maxConcurrency</code>, may be
+	 *            <code>null</code>
+	 */
+	ParallelChildScheduler(boolean virtualThreads, int maxConcurrency, AdaptiveConcurrency adaptive) {
+		this.virtualThreads = virtualThreads;
+		this.maxConcurrency = adaptive != null ? adaptive.getMaximum() : maxConcurrency;
+		this.adaptive = adaptive;
+	}
+
+	void runAll(List<Runner> children, final ChildRunner childRunner) throws Throwable {
+		ExecutorService executor = virtualThreads ? newVirtualThreadExecutor() : null;
+		int permits = maxConcurrency;
+		if (executor == null) {
+			int threads = maxConcurrency > 0 ? maxConcurrency : Runtime.getRuntime().availableProcessors();
+			executor = Executors.newFixedThreadPool(threads, new ChildThreadFactory());
+			permits = threads;
+		}
+		final Semaphore running = permits > 0 && adaptive == null ? new Semaphore(permits) : null;
+		final ResourceSchedule schedule = new ResourceSchedule(children);
+		List<Future<?>> results = new ArrayList<Future<?>>(children.size());
+		try {
+			while (schedule.hasPending()) {
+				if (running != null) {
+					running.acquire();
+				} else if (adaptive != null) {
+					adaptive.acquire();
+				}
+				final Runner next = schedule.takeNext();
+				results.add(executor.submit(new Runnable() {
+					public void run() {
+						try {
+							childRunner.run(next);
+						} finally {
+							schedule.finished(next);
+							if (running != null) {
+								running.release();
+							} else if (adaptive != null) {
+								adaptive.release();
+							}
+						}
+					}
+				}));
+			}
+			awaitAll(results);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void awaitAll(List<Future<?>> results) throws Throwable {
+		Throwable first = null;
+		for (Future<?> each : results) {
+			try {
+				each.get();
+			} catch (ExecutionException e) {
+				if (first == null) {
+					first = e.getCause();
+				}
+			}
+		}
+		if (first != null) {
+			throw first;
+		}
+	}
+
+	/**
+	 * @return <code>null</code> if the JVM has no virtual threads
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// Virtual threads are a preview feature that is not enabled
+			return null;
+		}
+	}
+
+	private static final class ChildThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "cpsuite-child-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
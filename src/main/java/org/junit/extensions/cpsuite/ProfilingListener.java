@@ -0,0 +1,330 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Records wall time, thread CPU time and allocated bytes for every test class
+ * and test method of a run and writes them as a report, slowest first. CPU
+ * time and allocation are measured on the thread that fires the events, so
+ * they are -1 when the JVM cannot provide them. The decisions of an
+ * {@link AdaptiveConcurrency} are added to the report in the order they were
+ * made.
+ */
+@RunListener.ThreadSafe
+final class ProfilingListener extends RunListener {
+
+	static final String KIND_CLASS = "class";
+	static final String KIND_METHOD = "method";
+	static final String KIND_CONCURRENCY = "concurrency";
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final boolean cpuTimeSupported;
+	private final boolean allocationSupported;
+
+	private final Description root;
+	private final ConcurrentMap<Description, Sample> started = new ConcurrentHashMap<Description, Sample>();
+	private final Queue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+	private final Queue<AdaptiveConcurrency.Decision> decisions = new ConcurrentLinkedQueue<AdaptiveConcurrency.Decision>();
+
+	ProfilingListener(Description root) {
+		this.root = root;
+		this.cpuTimeSupported = enableCpuTime();
+		this.allocationSupported = enableAllocation();
+	}
+
+	private boolean enableCpuTime() {
+		try {
+			if (!threads.isCurrentThreadCpuTimeSupported()) {
+				return false;
+			}
+			if (!threads.isThreadCpuTimeEnabled()) {
+				threads.setThreadCpuTimeEnabled(true);
+			}
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	private boolean enableAllocation() {
+		try {
+			if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+				return false;
+			}
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+			if (!sunThreads.isThreadAllocatedMemorySupported()) {
+				return false;
+			}
+			if (!sunThreads.isThreadAllocatedMemoryEnabled()) {
+				sunThreads.setThreadAllocatedMemoryEnabled(true);
+			}
+			return true;
+		} catch (LinkageError e) {
+			return false;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void testSuiteStarted(Description description) {
+		if (!description.equals(root)) {
+			start(description);
+		}
+	}
+
+	@Override
+	public void testSuiteFinished(Description description) {
+		if (!description.equals(root)) {
+			finish(description, KIND_CLASS);
+		}
+	}
+
+	@Override
+	public void testStarted(Description description) {
+		start(description);
+	}
+
+	@Override
+	public void testFinished(Description description) {
+		finish(description, KIND_METHOD);
+	}
+
+	private void start(Description description) {
+		started.put(description, sample());
+	}
+
+	private void finish(Description description, String kind) {
+		Sample start = started.remove(description);
+		if (start == null) {
+			return;
+		}
+		Sample end = sample();
+		long cpu = start.cpuNanos < 0 ? -1 : end.cpuNanos - start.cpuNanos;
+		long allocated = start.allocatedBytes < 0 ? -1 : end.allocatedBytes - start.allocatedBytes;
+		record(kind, nameOf(description), end.wallNanos - start.wallNanos, cpu, allocated);
+	}
+
+	void record(String kind, String name, long wallNanos, long cpuNanos, long allocatedBytes) {
+		entries.add(new Entry(kind, name, wallNanos, cpuNanos, allocatedBytes));
+	}
+
+	void recordConcurrency(List<AdaptiveConcurrency.Decision> concurrencyDecisions) {
+		decisions.addAll(concurrencyDecisions);
+	}
+
+	private Sample sample() {
+		long cpu = cpuTimeSupported ? threads.getCurrentThreadCpuTime() : -1;
+		long allocated = allocationSupported ? currentThreadAllocatedBytes() : -1;
+		return new Sample(System.nanoTime(), cpu, allocated);
+	}
+
+	private long currentThreadAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private String nameOf(Description description) {
+		if (description.getMethodName() != null && description.getClassName() != null) {
+			return description.getClassName() + "." + description.getMethodName();
+		}
+		return description.getDisplayName();
+	}
+
+	List<Entry> getEntries(String kind) {
+		List<Entry> result = new ArrayList<Entry>();
+		for (Entry each : entries) {
+			if (each.kind.equals(kind)) {
+				result.add(each);
+			}
+		}
+		Collections.sort(result, new Comparator<Entry>() {
+			public int compare(Entry o1, Entry o2) {
+				return o1.wallNanos < o2.wallNanos ? 1 : (o1.wallNanos == o2.wallNanos ? 0 : -1);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Writes the report as CSV if the file name ends with ".csv", as JSON
+	 * otherwise.
+	 */
+	void writeReport(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			if (file.getName().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+				writeCsv(out);
+			} else {
+				writeJson(out);
+			}
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Cannot write profile report " + file);
+		}
+	}
+
+	private void writeCsv(PrintWriter out) {
+		out.println("kind,name,wallMillis,cpuMillis,allocatedBytes");
+		for (String kind : kinds()) {
+			for (Entry each : getEntries(kind)) {
+				out.println(each.kind + "," + csvQuote(each.name) + "," + millis(each.wallNanos) + ","
+						+ millis(each.cpuNanos) + "," + each.allocatedBytes);
+			}
+		}
+		if (decisions.isEmpty()) {
+			return;
+		}
+		// A section of its own, after an empty line
+		out.println();
+		writeCsv(out, decisions);
+	}
+
+	static void writeCsv(PrintWriter out, Iterable<AdaptiveConcurrency.Decision> decisions) {
+		out.println("atMillis,from,to,throughput,gcShare,loadPerProcessor,reason");
+		for (AdaptiveConcurrency.Decision each : decisions) {
+			out.println(each.atMillis + "," + each.from + "," + each.to + "," + decimal(each.throughput) + ","
+					+ decimal(each.gcShare) + "," + decimal(each.loadPerProcessor) + "," + csvQuote(each.reason));
+		}
+	}
+
+	private void writeJson(PrintWriter out) {
+		out.println("{");
+		List<String> kinds = kinds();
+		for (int k = 0; k < kinds.size(); k++) {
+			out.println("  \"" + plural(kinds.get(k)) + "\": [");
+			List<Entry> kindEntries = getEntries(kinds.get(k));
+			for (int i = 0; i < kindEntries.size(); i++) {
+				Entry each = kindEntries.get(i);
+				out.print("    {\"name\": " + jsonQuote(each.name) + ", \"wallMillis\": " + millis(each.wallNanos)
+						+ ", \"cpuMillis\": " + millis(each.cpuNanos) + ", \"allocatedBytes\": " + each.allocatedBytes + "}");
+				out.println(i < kindEntries.size() - 1 ? "," : "");
+			}
+			out.println(k < kinds.size() - 1 || !decisions.isEmpty() ? "  ]," : "  ]");
+		}
+		if (!decisions.isEmpty()) {
+			writeJsonDecisions(out);
+		}
+		out.println("}");
+	}
+
+	private void writeJsonDecisions(PrintWriter out) {
+		out.println("  \"" + KIND_CONCURRENCY + "\": [");
+		for (Iterator<AdaptiveConcurrency.Decision> iterator = decisions.iterator(); iterator.hasNext();) {
+			AdaptiveConcurrency.Decision each = iterator.next();
+			out.print("    {\"atMillis\": " + each.atMillis + ", \"from\": " + each.from + ", \"to\": " + each.to
+					+ ", \"throughput\": " + decimal(each.throughput) + ", \"gcShare\": " + decimal(each.gcShare)
+					+ ", \"loadPerProcessor\": " + decimal(each.loadPerProcessor) + ", \"reason\": "
+					+ jsonQuote(each.reason) + "}");
+			out.println(iterator.hasNext() ? "," : "");
+		}
+		out.println("  ]");
+	}
+
+	private List<String> kinds() {
+		List<String> kinds = new ArrayList<String>();
+		kinds.add(KIND_CLASS);
+		kinds.add(KIND_METHOD);
+		for (Entry each : entries) {
+			if (!kinds.contains(each.kind)) {
+				kinds.add(each.kind);
+			}
+		}
+		return kinds;
+	}
+
+	private static String plural(String kind) {
+		return kind.endsWith("s") ? kind + "es" : kind + "s";
+	}
+
+	static String millis(long nanos) {
+		if (nanos < 0) {
+			return "-1";
+		}
+		return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+	}
+
+	private static String decimal(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static String csvQuote(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	static String jsonQuote(String value) {
+		StringBuilder result = new StringBuilder(value.length() + 2);
+		result.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				result.append('\\').append(c);
+			} else if (c < 0x20) {
+				result.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				result.append(c);
+			}
+		}
+		return result.append('"').toString();
+	}
+
+	private static final class Sample {
+		final long wallNanos;
+		final long cpuNanos;
+		final long allocatedBytes;
+
+		Sample(long wallNanos, long cpuNanos, long allocatedBytes) {
+			this.wallNanos = wallNanos;
+			this.cpuNanos = cpuNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+
+	static final class Entry {
+		final String kind;
+		final String name;
+		final long wallNanos;
+		final long cpuNanos;
+		final long allocatedBytes;
+
+		Entry(String kind, String name, long wallNanos, long cpuNanos, long allocatedBytes) {
+			this.kind = kind;
+			this.name = name;
+			this.wallNanos = wallNanos;
+			this.cpuNanos = cpuNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Orders test classes by the failure history of the suite: classes that
+ * failed in one of the last runs come first, most recent failures first,
+ * followed by classes whose class file changed since they were last run, or
+ * that are new. Within each group and for all other classes the order is
+ * alphabetical. Without a history the order is alphabetical.
+ *
+ * @see ClasspathSuite.ClassOrder
+ * @see ClasspathSuite.FailureHistoryFile
+ */
+public class RecentFailuresFirst implements Comparator<Class<?>> {
+
+	/**
+	 * Failures older than this number of runs are not considered recent.
+	 */
+	public static final int RECENT_RUNS = 10;
+
+	private static final int CHANGED = RECENT_RUNS;
+	private static final int UNCHANGED = RECENT_RUNS + 1;
+
+	private final FailureHistory history;
+	private final Map<Class<?>, Integer> ranks = new HashMap<Class<?>, Integer>();
+
+	public RecentFailuresFirst(Class<?> suiteClass) {
+		this.history = FailureHistory.load(ClasspathSuite.getFailureHistoryFile(suiteClass));
+	}
+
+	/**
+	 * Ranks the given classes up front, so that sorting them only compares
+	 * ranks; ranking a class can mean looking up its class file.
+	 */
+	void rankAll(Collection<Class<?>> testClasses) {
+		ranks.clear();
+		for (Class<?> each : testClasses) {
+			ranks.put(each, computeRank(each));
+		}
+	}
+
+	public int compare(Class<?> o1, Class<?> o2) {
+		int byRank = rank(o1) - rank(o2);
+		if (byRank != 0) {
+			return byRank;
+		}
+		return o1.getName().compareTo(o2.getName());
+	}
+
+	private int rank(Class<?> testClass) {
+		Integer rank = ranks.get(testClass);
+		if (rank == null) {
+			rank = computeRank(testClass);
+			ranks.put(testClass, rank);
+		}
+		return rank;
+	}
+
+	private int computeRank(Class<?> testClass) {
+		if (history.isEmpty()) {
+			return UNCHANGED;
+		}
+		int runsSinceFailure = history.runsSinceFailure(testClass.getName());
+		if (runsSinceFailure >= 0 && runsSinceFailure < RECENT_RUNS) {
+			return runsSinceFailure;
+		}
+		return history.hasChanged(testClass.getName(), testClass.getClassLoader()) ? CHANGED : UNCHANGED;
+	}
+}
@@ -5,83 +5,76 @@
  */
 package org.junit.extensions.cpsuite;
 
+import java.io.Closeable;
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * This class provides an iterator over all file names in a directory and its
  * subdirectories. The filenames are given relative to the root. Directories are
  * not considered to be files.
+ *
+ * Directories are streamed depth first, so only the directories on the path
+ * to the current file are open at any time. They are closed when the iteration
+ * is exhausted or the iterator is closed.
  */
-public class RecursiveFilenameIterator implements Iterator<String>, Iterable<String> {
+public class RecursiveFilenameIterator implements Iterator<String>, Iterable<String>, Closeable {
 
-	private List<RecursiveFilenameIterator> innerIterators;
+	private final Deque<Directory> openDirectories = new ArrayDeque<Directory>();
 
-	private int prefixLength;
+	private final int prefixLength;
 
-	private File root;
-
-	private boolean alreadyUsed = false;
-
-	private int index = 0;
+	private String next;
 
 	public RecursiveFilenameIterator(File root) {
-		this(root, root.getAbsolutePath().length() + 1);
+		String rootPath = root.getAbsolutePath();
+		this.prefixLength = rootPath.endsWith(File.separator) ? rootPath.length() : rootPath.length() + 1;
+		open(root.getAbsoluteFile().toPath());
+		retrieveNextElement();
 	}
 
-	private RecursiveFilenameIterator(File root, int prefixLength) {
-		this.root = root;
-		this.prefixLength = prefixLength;
-		if (!isRootFile()) {
-			innerIterators = getInnerIterators(root);
+	private void open(Path directory) {
+		try {
+			openDirectories.push(new Directory(Files.newDirectoryStream(directory)));
+		} catch (IOException e) {
+			// Unreadable directories are skipped
 		}
 	}
 
-	private boolean isRootFile() {
-		return this.root.isFile();
-	}
-
-	private List<RecursiveFilenameIterator> getInnerIterators(File root) {
-		List<RecursiveFilenameIterator> iterators = new ArrayList<RecursiveFilenameIterator>();
-		for (File each : root.listFiles()) {
-			iterators.add(new RecursiveFilenameIterator(each, prefixLength));
+	private void retrieveNextElement() {
+		next = null;
+		while (next == null && !openDirectories.isEmpty()) {
+			Directory current = openDirectories.peek();
+			Path entry = current.nextEntry();
+			if (entry == null) {
+				openDirectories.pop().close();
+			} else if (Files.isDirectory(entry)) {
+				open(entry);
+			} else {
+				next = entry.toString().substring(prefixLength);
+			}
 		}
-		return iterators;
 	}
 
 	public boolean hasNext() {
-		if (isRootFile()) {
-			return !alreadyUsed;
-		}
-		if (index >= innerIterators.size()) {
-			return false;
-		}
-		if (currentIterator().hasNext()) {
-			return true;
-		}
-		index++;
-		return hasNext();
-	}
-
-	private RecursiveFilenameIterator currentIterator() {
-		return innerIterators.get(index);
+		return next != null;
 	}
 
 	public String next() {
-		if (isRootFile()) {
-			if (alreadyUsed) {
-				throw new NoSuchElementException();
-			}
-			alreadyUsed = true;
-			return root.getAbsolutePath().substring(prefixLength);
-		}
-		if (hasNext()) {
-			return currentIterator().next();
+		if (next == null) {
+			throw new NoSuchElementException();
 		}
-		throw new NoSuchElementException();
+		String value = next;
+		retrieveNextElement();
+		return value;
 	}
 
 	public void remove() {
@@ -92,4 +85,37 @@ public class RecursiveFilenameIterator implements Iterator<String>, Iterable<Str
 		return this;
 	}
 
+	public void close() {
+		while (!openDirectories.isEmpty()) {
+			openDirectories.pop().close();
+		}
+		next = null;
+	}
+
+	private static final class Directory {
+		private final DirectoryStream<Path> stream;
+		private final Iterator<Path> entries;
+
+		Directory(DirectoryStream<Path> stream) {
+			this.stream = stream;
+			this.entries = stream.iterator();
+		}
+
+		Path nextEntry() {
+			try {
+				return entries.hasNext() ? entries.next() : null;
+			} catch (DirectoryIteratorException e) {
+				return null;
+			}
+		}
+
+		void close() {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// Nothing left to do
+			}
+		}
+	}
+
 }
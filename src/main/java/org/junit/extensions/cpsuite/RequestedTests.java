@@ -0,0 +1,135 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * The tests a run asks for, as far as they can be told before the class path
+ * is searched. Knowing them lets the suite search for the requested classes
+ * only instead of finding every test class and then filtering out nearly all
+ * of them.
+ * <p>
+ * The tests are either given in the system property "cpsuite.test" - a comma
+ * separated list of class name patterns in the syntax of
+ * {@link ClasspathSuite.ClassnameFilters}, each optionally followed by
+ * <code>#methodName</code> - or taken from a filter that selects a single
+ * method, which is what IDEs and <code>Request.method</code> use to run a
+ * single test.
+ */
+final class RequestedTests {
+
+	static final String TEST_PROPERTY = "cpsuite.test";
+
+	private static final String METHOD_FILTER_PREFIX = "Method ";
+	private static final char METHOD_SEPARATOR = '#';
+
+	private RequestedTests() {
+	}
+
+	/**
+	 * @return the filter for the tests requested in the system property,
+	 *         <code>null</code> if it is not set
+	 */
+	static Filter fromSystemProperties() {
+		String tests = System.getProperty(TEST_PROPERTY, "").trim();
+		if (tests.length() == 0) {
+			return null;
+		}
+		List<String> classnames = new ArrayList<String>();
+		List<String> methods = new ArrayList<String>();
+		for (String each : tests.split(",")) {
+			String test = each.trim();
+			if (test.length() == 0) {
+				continue;
+			}
+			int separator = test.indexOf(METHOD_SEPARATOR);
+			classnames.add(separator < 0 ? test : test.substring(0, separator));
+			methods.add(separator < 0 ? null : test.substring(separator + 1));
+		}
+		return classnames.isEmpty() ? null : new TestsFilter(tests, classnames, methods);
+	}
+
+	/**
+	 * @return class name patterns that match every class the filter may let
+	 *         through, <code>null</code> if that cannot be told from the
+	 *         filter
+	 */
+	static String[] getClassnames(Filter filter) {
+		if (filter instanceof TestsFilter) {
+			List<String> classnames = ((TestsFilter) filter).classnames;
+			return classnames.toArray(new String[classnames.size()]);
+		}
+		// As created by Filter.matchMethodDescription
+		String describe = filter.describe();
+		if (describe != null && describe.startsWith(METHOD_FILTER_PREFIX)) {
+			Description method = Description.createSuiteDescription(describe.substring(METHOD_FILTER_PREFIX.length()));
+			if (method.getMethodName() != null) {
+				return new String[] { method.getClassName() };
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Lets through the tests of the classes that match one of the patterns;
+	 * patterns with a method only let through that method.
+	 */
+	private static final class TestsFilter extends Filter {
+		private final String tests;
+		private final List<String> classnames;
+		private final List<String> methods;
+		private final List<JavaStyleClassnameMatcher> matchers = new ArrayList<JavaStyleClassnameMatcher>();
+
+		TestsFilter(String tests, List<String> classnames, List<String> methods) {
+			this.tests = tests;
+			this.classnames = classnames;
+			this.methods = methods;
+			for (String each : classnames) {
+				matchers.add(new JavaStyleClassnameMatcher(each));
+			}
+		}
+
+		@Override
+		public boolean shouldRun(Description description) {
+			if (description.isTest()) {
+				return isRequested(description.getClassName(), description.getMethodName());
+			}
+			for (Description each : description.getChildren()) {
+				if (shouldRun(each)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean isRequested(String className, String methodName) {
+			for (int i = 0; i < matchers.size(); i++) {
+				String method = methods.get(i);
+				if (matchers.get(i).matches(className) && (method == null || isMethod(method, methodName))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Parameterized tests append the parameters to the method name.
+		 */
+		private boolean isMethod(String method, String methodName) {
+			return methodName != null && (methodName.equals(method) || methodName.startsWith(method + "["));
+		}
+
+		@Override
+		public String describe() {
+			return "tests " + tests;
+		}
+	}
+}
@@ -0,0 +1,15 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+/**
+ * How a test class uses a resource it declares with
+ * {@link ClasspathSuite.ResourceLock}: classes that read a resource may run
+ * at the same time, a class that uses it exclusively runs alone.
+ */
+public enum ResourceAccess {
+	READ, EXCLUSIVE
+}
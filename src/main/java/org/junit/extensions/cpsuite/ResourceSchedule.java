@@ -0,0 +1,171 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+
+/**
+ * Decides which child of a suite may start next, given the resources the
+ * children declare with {@link ClasspathSuite.ResourceLock}. Children are
+ * started in their order unless one has to wait for a resource; then the
+ * next child that doesn't conflict with the running ones starts instead, so
+ * a waiting child never keeps unrelated children from running. To keep
+ * exclusive users from waiting forever, a waiting child's resources are
+ * kept from the children after it until it has started.
+ */
+final class ResourceSchedule {
+
+	private final LinkedList<Runner> pending;
+	private final Map<Runner, Map<String, ResourceAccess>> claims = new HashMap<Runner, Map<String, ResourceAccess>>();
+	private final Map<String, Integer> readers = new HashMap<String, Integer>();
+	private final Set<String> exclusive = new HashSet<String>();
+
+	ResourceSchedule(List<Runner> children) {
+		pending = new LinkedList<Runner>(children);
+		for (Runner each : children) {
+			Map<String, ResourceAccess> childClaims = getClaims(each.getDescription());
+			if (!childClaims.isEmpty()) {
+				claims.put(each, childClaims);
+			}
+		}
+	}
+
+	/**
+	 * @return the resources of a child; a resource that is declared twice
+	 *         counts with its strongest access
+	 */
+	static Map<String, ResourceAccess> getClaims(Description description) {
+		List<ClasspathSuite.ResourceLock> locks = new ArrayList<ClasspathSuite.ResourceLock>();
+		ClasspathSuite.ResourceLock lock = description.getAnnotation(ClasspathSuite.ResourceLock.class);
+		if (lock != null) {
+			locks.add(lock);
+		}
+		ClasspathSuite.ResourceLocks resourceLocks = description.getAnnotation(ClasspathSuite.ResourceLocks.class);
+		if (resourceLocks != null) {
+			Collections.addAll(locks, resourceLocks.value());
+		}
+		Map<String, ResourceAccess> result = new LinkedHashMap<String, ResourceAccess>();
+		for (ClasspathSuite.ResourceLock each : locks) {
+			if (result.get(each.value()) != ResourceAccess.EXCLUSIVE) {
+				result.put(each.value(), each.access());
+			}
+		}
+		return result;
+	}
+
+	synchronized boolean hasPending() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Waits until a pending child may start and marks its resources as
+	 * taken.
+	 */
+	synchronized Runner takeNext() throws InterruptedException {
+		while (true) {
+			Runner next = findStartable();
+			if (next != null) {
+				acquire(next);
+				return next;
+			}
+			wait();
+		}
+	}
+
+	synchronized void finished(Runner child) {
+		Map<String, ResourceAccess> childClaims = claims.get(child);
+		if (childClaims == null) {
+			return;
+		}
+		for (Map.Entry<String, ResourceAccess> each : childClaims.entrySet()) {
+			if (each.getValue() == ResourceAccess.EXCLUSIVE) {
+				exclusive.remove(each.getKey());
+			} else {
+				int count = readers.get(each.getKey()) - 1;
+				if (count == 0) {
+					readers.remove(each.getKey());
+				} else {
+					readers.put(each.getKey(), count);
+				}
+			}
+		}
+		notifyAll();
+	}
+
+	private Runner findStartable() {
+		// The resources wanted by waiting children before the current one
+		Map<String, ResourceAccess> reserved = null;
+		for (Iterator<Runner> iterator = pending.iterator(); iterator.hasNext();) {
+			Runner each = iterator.next();
+			Map<String, ResourceAccess> childClaims = claims.get(each);
+			if (childClaims == null || (isFree(childClaims) && !conflicts(childClaims, reserved))) {
+				iterator.remove();
+				return each;
+			}
+			if (reserved == null) {
+				reserved = new HashMap<String, ResourceAccess>();
+			}
+			for (Map.Entry<String, ResourceAccess> claim : childClaims.entrySet()) {
+				if (reserved.get(claim.getKey()) != ResourceAccess.EXCLUSIVE) {
+					reserved.put(claim.getKey(), claim.getValue());
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean isFree(Map<String, ResourceAccess> childClaims) {
+		for (Map.Entry<String, ResourceAccess> each : childClaims.entrySet()) {
+			if (exclusive.contains(each.getKey())) {
+				return false;
+			}
+			if (each.getValue() == ResourceAccess.EXCLUSIVE && readers.containsKey(each.getKey())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean conflicts(Map<String, ResourceAccess> childClaims, Map<String, ResourceAccess> reserved) {
+		if (reserved == null) {
+			return false;
+		}
+		for (Map.Entry<String, ResourceAccess> each : childClaims.entrySet()) {
+			ResourceAccess other = reserved.get(each.getKey());
+			if (other != null && (other == ResourceAccess.EXCLUSIVE || each.getValue() == ResourceAccess.EXCLUSIVE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void acquire(Runner child) {
+		Map<String, ResourceAccess> childClaims = claims.get(child);
+		if (childClaims == null) {
+			return;
+		}
+		for (Map.Entry<String, ResourceAccess> each : childClaims.entrySet()) {
+			if (each.getValue() == ResourceAccess.EXCLUSIVE) {
+				exclusive.add(each.getKey());
+			} else {
+				Integer count = readers.get(each.getKey());
+				readers.put(each.getKey(), count == null ? 1 : count + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runners.model.InitializationError;
+
+/**
+ * Discovers the test classes of a group of suites in one pass, when the first
+ * of them is created, and keeps the results of the others until they are
+ * created in turn.
+ */
+final class SharedDiscovery {
+
+	private static final Map<Class<?>, List<Class<?>>> discovered = new HashMap<Class<?>, List<Class<?>>>();
+
+	private SharedDiscovery() {
+	}
+
+	static synchronized List<Class<?>> find(FinderConfig config, Class<?>[] group) {
+		List<Class<?>> classes = discovered.remove(config.getSuiteClass());
+		if (classes != null) {
+			return classes;
+		}
+		Map<Class<?>, ClassTester> testers = new LinkedHashMap<Class<?>, ClassTester>();
+		testers.put(config.getSuiteClass(), ClasspathFinderFactory.createTester(config));
+		for (Class<?> each : group) {
+			if (!testers.containsKey(each) && !discovered.containsKey(each)) {
+				FinderConfig memberConfig = memberConfig(each);
+				// Suites searching another class path are discovered on their own
+				if (memberConfig != null && memberConfig.getClasspathProperty().equals(config.getClasspathProperty())) {
+					testers.put(each, ClasspathFinderFactory.createTester(memberConfig));
+				}
+			}
+		}
+		Map<Class<?>, List<Class<?>>> found = ClasspathClassesFinder.findAll(testers, config.getClasspathProperty(),
+				ClasspathFinderFactory.getClassLoader(config));
+		for (Map.Entry<Class<?>, List<Class<?>>> each : found.entrySet()) {
+			// Resolved now, so the results don't depend on the finder's state
+			discovered.put(each.getKey(), new ArrayList<Class<?>>(each.getValue()));
+		}
+		return discovered.remove(config.getSuiteClass());
+	}
+
+	/**
+	 * @return <code>null</code> if the suite does not use the default finder
+	 *         or cannot be configured, in which case it reports that itself
+	 */
+	private static FinderConfig memberConfig(Class<?> suiteClass) {
+		try {
+			if (ClasspathSuite.getFinderFactory(suiteClass).getClass() != ClasspathFinderFactory.class) {
+				return null;
+			}
+			return ClasspathSuite.createFinderConfig(suiteClass);
+		} catch (InitializationError e) {
+			return null;
+		}
+	}
+}
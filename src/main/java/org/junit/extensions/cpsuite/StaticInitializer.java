@@ -0,0 +1,173 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Initializes classes on background threads in the order they are going to
+ * be used, at most a given number of classes ahead of the last one that was
+ * asked for. A class that is asked for before a background thread got to it
+ * is initialized by the thread that asks for it.
+ * <p>
+ * The JVM only reports the error of a failing static initializer to the
+ * first thread that initializes the class; later uses of the class fail with
+ * a <code>NoClassDefFoundError</code> that doesn't say why. The error is
+ * therefore kept and handed to the thread that asks for the class.
+ */
+final class StaticInitializer {
+
+	private final List<Task> tasks = new ArrayList<Task>();
+	private final Map<Class<?>, Task> tasksByClass = new IdentityHashMap<Class<?>, Task>();
+	private final int threads;
+	private final int lookahead;
+
+	// The index of the next task for the background threads
+	private int next;
+
+	// The index after the last task that was asked for
+	private int position;
+
+	private boolean stopped;
+
+	/**
+	 * @param classes
+	 *            in the order they are going to be used; classes given more
+	 *            than once are initialized once
+	 */
+	StaticInitializer(List<Class<?>> classes, int threads, int lookahead) {
+		for (Class<?> each : classes) {
+			if (!tasksByClass.containsKey(each)) {
+				Task task = new Task(each, tasks.size());
+				tasks.add(task);
+				tasksByClass.put(each, task);
+			}
+		}
+		this.threads = Math.max(1, threads);
+		this.lookahead = Math.max(1, lookahead);
+	}
+
+	void start() {
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread("cpsuite-static-init-" + (i + 1)) {
+				@Override
+				public void run() {
+					Task task;
+					while ((task = takeNext()) != null) {
+						task.run();
+					}
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops the background threads once they have finished the classes they
+	 * are initializing.
+	 */
+	synchronized void shutdown() {
+		stopped = true;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the class has been initialized, initializing it on the
+	 * current thread if no background thread has started it yet, and lets the
+	 * background threads go further ahead.
+	 *
+	 * @return the error of the class's static initializer, <code>null</code>
+	 *         if it succeeded or the class is not known
+	 */
+	Throwable awaitInitialized(Class<?> clazz) throws InterruptedException {
+		Task task;
+		synchronized (this) {
+			task = tasksByClass.get(clazz);
+			if (task == null) {
+				return null;
+			}
+			position = Math.max(position, task.index + 1);
+			notifyAll();
+		}
+		if (task.claim()) {
+			task.run();
+		}
+		return task.await();
+	}
+
+	private synchronized Task takeNext() {
+		while (!stopped) {
+			while (next < tasks.size() && next < position + lookahead) {
+				Task task = tasks.get(next++);
+				if (task.claim()) {
+					return task;
+				}
+			}
+			if (next >= tasks.size()) {
+				return null;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static final class Task {
+		private final Class<?> clazz;
+		private final int index;
+		private boolean claimed;
+		private boolean done;
+		private Throwable failure;
+
+		Task(Class<?> clazz, int index) {
+			this.clazz = clazz;
+			this.index = index;
+		}
+
+		/**
+		 * @return whether the caller is the one to run the task
+		 */
+		synchronized boolean claim() {
+			if (claimed) {
+				return false;
+			}
+			claimed = true;
+			return true;
+		}
+
+		void run() {
+			Throwable error = null;
+			try {
+				Class.forName(clazz.getName(), true, clazz.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				// Cannot happen, the class has been loaded already
+				error = e;
+			} catch (LinkageError e) {
+				// ExceptionInInitializerError and the errors of linking
+				error = e;
+			}
+			synchronized (this) {
+				failure = error;
+				done = true;
+				notifyAll();
+			}
+		}
+
+		synchronized Throwable await() throws InterruptedException {
+			while (!done) {
+				wait();
+			}
+			return failure;
+		}
+	}
+}
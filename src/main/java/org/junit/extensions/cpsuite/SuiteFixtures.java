@@ -0,0 +1,241 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a set of static suite fixture methods, either one after the other on
+ * the calling thread or concurrently. A method only runs once all methods it
+ * depends on have completed; if one of them fails the method is not run and
+ * inherits the failure.
+ */
+final class SuiteFixtures {
+
+	private final Map<String, Fixture> fixtures = new LinkedHashMap<String, Fixture>();
+
+	/**
+	 * @param dependencies
+	 *            the names of the methods each method depends on
+	 * @throws IllegalArgumentException
+	 *             if a dependency is unknown or the dependencies are cyclic
+	 */
+	SuiteFixtures(List<Method> methods, Map<Method, String[]> dependencies) {
+		for (Method each : methods) {
+			if (fixtures.put(each.getName(), new Fixture(each)) != null) {
+				throw new IllegalArgumentException("Suite fixture method " + each.getName() + " is overloaded");
+			}
+		}
+		for (Method each : methods) {
+			Fixture fixture = fixtures.get(each.getName());
+			for (String dependency : dependencies.get(each)) {
+				Fixture required = fixtures.get(dependency);
+				if (required == null) {
+					throw new IllegalArgumentException("Suite fixture method " + each.getName() + " depends on unknown method "
+							+ dependency);
+				}
+				fixture.dependencies.add(required);
+			}
+		}
+		for (Fixture each : fixtures.values()) {
+			checkNotCyclic(each, new ArrayList<Fixture>());
+		}
+	}
+
+	private void checkNotCyclic(Fixture fixture, List<Fixture> path) {
+		if (path.contains(fixture)) {
+			throw new IllegalArgumentException("Suite fixture methods depend on each other cyclically: " + path);
+		}
+		path.add(fixture);
+		for (Fixture each : fixture.dependencies) {
+			checkNotCyclic(each, path);
+		}
+		path.remove(path.size() - 1);
+	}
+
+	/**
+	 * Runs the methods on the calling thread in the order they were given,
+	 * except that the methods a method depends on run before it.
+	 *
+	 * @param stopAtFailure
+	 *            whether the methods after a failed one are skipped and
+	 *            inherit its failure
+	 */
+	void runInOrder(boolean stopAtFailure) {
+		List<Fixture> ordered = new ArrayList<Fixture>();
+		for (Fixture each : fixtures.values()) {
+			addInDependencyOrder(each, ordered);
+		}
+		Fixture failed = null;
+		for (Fixture each : ordered) {
+			if (failed != null) {
+				each.skip(failed);
+				continue;
+			}
+			each.run();
+			if (stopAtFailure && each.failure != null) {
+				failed = each.origin;
+			}
+		}
+	}
+
+	private void addInDependencyOrder(Fixture fixture, List<Fixture> ordered) {
+		if (ordered.contains(fixture)) {
+			return;
+		}
+		for (Fixture each : fixture.dependencies) {
+			addInDependencyOrder(each, ordered);
+		}
+		ordered.add(fixture);
+	}
+
+	/**
+	 * Starts all methods in the background; every method gets its own
+	 * thread, so waiting for dependencies never starves the pool.
+	 */
+	void start() {
+		if (fixtures.isEmpty()) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(fixtures.size(), new FixtureThreadFactory());
+		for (Fixture each : fixtures.values()) {
+			executor.execute(each);
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Waits for the given methods and, implicitly, the methods they depend
+	 * on.
+	 *
+	 * @return the first failure of the given methods, <code>null</code> if all
+	 *         succeeded
+	 */
+	Throwable await(Collection<String> names) throws InterruptedException {
+		Throwable failure = null;
+		for (String each : names) {
+			Fixture fixture = fixtures.get(each);
+			if (fixture == null) {
+				return new IllegalArgumentException("There is no suite fixture method " + each);
+			}
+			fixture.done.await();
+			if (failure == null && fixture.failure != null) {
+				fixture.origin.reported.set(true);
+				failure = fixture.failure;
+			}
+		}
+		return failure;
+	}
+
+	Throwable awaitAll() throws InterruptedException {
+		return await(fixtures.keySet());
+	}
+
+	/**
+	 * Waits for all methods.
+	 *
+	 * @return the failures of methods that failed themselves and have not
+	 *         been handed out by {@link #await(Collection)} yet
+	 */
+	List<Throwable> awaitUnreportedFailures() throws InterruptedException {
+		List<Throwable> failures = new ArrayList<Throwable>();
+		for (Fixture each : fixtures.values()) {
+			each.done.await();
+			if (each.origin == each && !each.reported.getAndSet(true)) {
+				failures.add(each.failure);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * @return the wall time of every method that was run, in nanoseconds
+	 */
+	Map<String, Long> getDurations() {
+		Map<String, Long> durations = new LinkedHashMap<String, Long>();
+		for (Fixture each : fixtures.values()) {
+			if (each.nanos >= 0) {
+				durations.put(each.method.getName(), each.nanos);
+			}
+		}
+		return durations;
+	}
+
+	private static final class Fixture implements Runnable {
+		final Method method;
+		final List<Fixture> dependencies = new ArrayList<Fixture>();
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicBoolean reported = new AtomicBoolean(false);
+		volatile Throwable failure;
+		// The fixture whose failure this one carries
+		volatile Fixture origin;
+		volatile long nanos = -1;
+
+		Fixture(Method method) {
+			this.method = method;
+		}
+
+		public void run() {
+			try {
+				for (Fixture each : dependencies) {
+					each.done.await();
+					if (each.failure != null) {
+						failure = each.failure;
+						origin = each.origin;
+						return;
+					}
+				}
+				long start = System.nanoTime();
+				try {
+					method.invoke(null);
+				} finally {
+					nanos = System.nanoTime() - start;
+				}
+			} catch (InvocationTargetException e) {
+				failure = e.getCause();
+				origin = this;
+			} catch (Throwable e) {
+				failure = e;
+				origin = this;
+			} finally {
+				done.countDown();
+			}
+		}
+
+		void skip(Fixture failed) {
+			failure = failed.failure;
+			origin = failed;
+			done.countDown();
+		}
+
+		@Override
+		public String toString() {
+			return method.getName();
+		}
+	}
+
+	private static final class FixtureThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "cpsuite-fixture-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,386 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a JVM with the test class path running, so that repeated test runs
+ * don't pay for starting a JVM, warming up the JIT, searching the class path
+ * and loading classes every time. Start it with the test class path:
+ *
+ * <pre>
+ * java -cp &lt;test class path&gt; org.junit.extensions.cpsuite.TestDaemon [&lt;directory&gt;]
+ * </pre>
+ *
+ * and run suites with {@link TestDaemonClient}. The daemon listens on a
+ * local port, which it writes to <code>daemon.port</code> in the directory,
+ * together with a random token the client must send with each request.
+ * <p>
+ * Runs are served one after the other. The jars of the class path are loaded
+ * by one class loader, the directories by another one below it. Before each
+ * run the daemon checks the sizes and modification times of the jars and of
+ * the files in the directories; if the directories changed, their classes are
+ * loaded through a new class loader, if the jars changed, everything is. A
+ * class that is in a jar and in a directory is loaded from the jar. As long
+ * as nothing changed, the test classes found for a suite are kept, see
+ * {@link DiscoveryCache}.
+ */
+public final class TestDaemon {
+
+	static final String DEFAULT_DIRECTORY = "target/cpsuite-daemon";
+	static final String PORT_FILE = "daemon.port";
+
+	static final String RUN = "run";
+	static final String STOP = "stop";
+
+	static final byte OUTPUT = 'O';
+	static final byte EXIT = 'X';
+
+	static final int EXIT_PASSED = 0;
+	static final int EXIT_FAILED = 1;
+	static final int EXIT_ERROR = 2;
+
+	private final File directory;
+	private final List<File> jars = new ArrayList<File>();
+	private final List<File> directories = new ArrayList<File>();
+	private final String token;
+
+	private final PrintStream originalOut = System.out;
+	private final PrintStream originalErr = System.err;
+
+	private URLClassLoader jarLoader;
+	private String jarStamp;
+	private URLClassLoader directoryLoader;
+	private String directoryStamp;
+
+	public TestDaemon(File directory, String classpath) {
+		this.directory = directory;
+		for (String each : classpath.split(File.pathSeparator)) {
+			if (each.length() > 0) {
+				File entry = new File(each).getAbsoluteFile();
+				(entry.isDirectory() ? directories : jars).add(entry);
+			}
+		}
+		byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		this.token = hex(random);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length > 1) {
+			System.err.println("Usage: " + TestDaemon.class.getName() + " [<directory>]");
+			System.exit(EXIT_ERROR);
+		}
+		File directory = new File(args.length > 0 ? args[0] : DEFAULT_DIRECTORY);
+		new TestDaemon(directory, System.getProperty("java.class.path")).serve();
+	}
+
+	/**
+	 * Serves requests until a client asks the daemon to stop.
+	 */
+	public void serve() throws IOException {
+		ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		final File portFile = new File(directory, PORT_FILE);
+		try {
+			writePortFile(portFile, server.getLocalPort());
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					portFile.delete();
+				}
+			});
+			originalErr.println("Test daemon listening on port " + server.getLocalPort());
+			boolean stopped = false;
+			while (!stopped) {
+				Socket socket = server.accept();
+				try {
+					stopped = serve(socket);
+				} catch (IOException e) {
+					// The client went away
+					e.printStackTrace();
+				} finally {
+					socket.close();
+				}
+			}
+		} finally {
+			server.close();
+			portFile.delete();
+			closeLoaders();
+		}
+	}
+
+	private void writePortFile(File portFile, int port) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		File written = new File(directory, PORT_FILE + ".tmp");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(written), "UTF-8"));
+		try {
+			out.println(port + " " + token);
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Cannot write " + written);
+		}
+		portFile.delete();
+		if (!written.renameTo(portFile)) {
+			throw new IOException("Cannot write " + portFile);
+		}
+	}
+
+	/**
+	 * @return whether the daemon is to stop
+	 */
+	private boolean serve(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		if (!token.equals(in.readUTF())) {
+			originalErr.println("Ignored a request with the wrong token");
+			return false;
+		}
+		String command = in.readUTF();
+		if (STOP.equals(command)) {
+			exit(out, EXIT_PASSED);
+			return true;
+		}
+		String suiteClassName = in.readUTF();
+		int shardIndex = in.readInt();
+		int shardCount = in.readInt();
+		Map<String, String> properties = new HashMap<String, String>();
+		int propertyCount = in.readInt();
+		for (int i = 0; i < propertyCount; i++) {
+			properties.put(in.readUTF(), in.readUTF());
+		}
+		int exitCode = run(suiteClassName, shardIndex, shardCount, properties, new FrameOutputStream(out));
+		exit(out, exitCode);
+		return false;
+	}
+
+	private void exit(DataOutputStream out, int exitCode) throws IOException {
+		synchronized (out) {
+			out.writeByte(EXIT);
+			out.writeInt(exitCode);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Runs the suite with the given system properties, with everything
+	 * written to <code>System.out</code> and <code>System.err</code> sent to
+	 * the client.
+	 */
+	private int run(String suiteClassName, int shardIndex, int shardCount, Map<String, String> properties,
+			OutputStream output) {
+		PrintStream clientOut = printStream(output);
+		Map<String, String> previousProperties = setProperties(properties);
+		Thread thread = Thread.currentThread();
+		ClassLoader previousLoader = thread.getContextClassLoader();
+		System.setOut(clientOut);
+		System.setErr(clientOut);
+		try {
+			ClassLoader classLoader = getClassLoader();
+			thread.setContextClassLoader(classLoader);
+			Class<?> runClass = Class.forName(DaemonRun.class.getName(), true, classLoader);
+			Method run = runClass.getDeclaredMethod("run", String.class, int.class, int.class);
+			run.setAccessible(true);
+			boolean passed = (Boolean) run.invoke(null, suiteClassName, shardIndex, shardCount);
+			return passed ? EXIT_PASSED : EXIT_FAILED;
+		} catch (InvocationTargetException e) {
+			e.getCause().printStackTrace();
+			return EXIT_ERROR;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return EXIT_ERROR;
+		} finally {
+			clientOut.flush();
+			System.setOut(originalOut);
+			System.setErr(originalErr);
+			thread.setContextClassLoader(previousLoader);
+			restoreProperties(previousProperties);
+		}
+	}
+
+	private static PrintStream printStream(OutputStream output) {
+		try {
+			return new PrintStream(output, true, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Every JVM has to support UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Map<String, String> setProperties(Map<String, String> properties) {
+		Map<String, String> previous = new HashMap<String, String>();
+		for (Map.Entry<String, String> each : properties.entrySet()) {
+			previous.put(each.getKey(), System.setProperty(each.getKey(), each.getValue()));
+		}
+		return previous;
+	}
+
+	private static void restoreProperties(Map<String, String> previous) {
+		for (Map.Entry<String, String> each : previous.entrySet()) {
+			if (each.getValue() == null) {
+				System.clearProperty(each.getKey());
+			} else {
+				System.setProperty(each.getKey(), each.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return the class loader of the directories, new if anything changed
+	 *         since the last run
+	 */
+	private ClassLoader getClassLoader() throws IOException {
+		String currentJarStamp = stamp(jars);
+		if (jarLoader == null || !currentJarStamp.equals(jarStamp)) {
+			if (jarLoader != null) {
+				originalErr.println("Jars changed, loading all classes again");
+			}
+			closeLoaders();
+			// Not the application class loader, which has the whole class path
+			jarLoader = new URLClassLoader(toUrls(jars), ClassLoader.getSystemClassLoader().getParent());
+			jarStamp = currentJarStamp;
+		}
+		String currentDirectoryStamp = stamp(directories);
+		if (directoryLoader == null || !currentDirectoryStamp.equals(directoryStamp)) {
+			if (directoryLoader != null) {
+				originalErr.println("Classes changed, loading them again");
+				directoryLoader.close();
+			}
+			directoryLoader = new URLClassLoader(toUrls(directories), jarLoader);
+			directoryStamp = currentDirectoryStamp;
+		}
+		return directoryLoader;
+	}
+
+	private void closeLoaders() throws IOException {
+		if (directoryLoader != null) {
+			directoryLoader.close();
+			directoryLoader = null;
+		}
+		if (jarLoader != null) {
+			jarLoader.close();
+			jarLoader = null;
+		}
+	}
+
+	private static URL[] toUrls(List<File> files) throws MalformedURLException {
+		URL[] urls = new URL[files.size()];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = files.get(i).toURI().toURL();
+		}
+		return urls;
+	}
+
+	/**
+	 * The paths, sizes and modification times of the files and of all files
+	 * in the directories.
+	 */
+	private static String stamp(List<File> files) throws UnsupportedEncodingException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+		for (File each : files) {
+			update(digest, each);
+		}
+		return hex(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, File file) throws UnsupportedEncodingException {
+		String entry = file.getPath();
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				Arrays.sort(children);
+				for (File each : children) {
+					update(digest, each);
+				}
+			}
+		} else {
+			entry += ":" + file.length() + ":" + file.lastModified();
+		}
+		digest.update(entry.getBytes("UTF-8"));
+		digest.update((byte) 0);
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte each : bytes) {
+			hex.append(String.format("%02x", each & 0xff));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Sends everything written to it as output frames: the frame type, the
+	 * length and the bytes.
+	 */
+	private static final class FrameOutputStream extends OutputStream {
+		private final DataOutputStream out;
+
+		FrameOutputStream(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return;
+			}
+			synchronized (out) {
+				out.writeByte(OUTPUT);
+				out.writeInt(length);
+				out.write(bytes, offset, length);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (out) {
+				out.flush();
+			}
+		}
+	}
+}
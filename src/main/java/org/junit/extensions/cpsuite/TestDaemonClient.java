@@ -0,0 +1,213 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs a suite in a {@link TestDaemon} and prints its output as it arrives.
+ * Only ClasspathSuite needs to be on the class path of the client:
+ *
+ * <pre>
+ * java -cp cpsuite.jar org.junit.extensions.cpsuite.TestDaemonClient [options] &lt;suite class&gt;
+ * java -cp cpsuite.jar org.junit.extensions.cpsuite.TestDaemonClient [--directory &lt;directory&gt;] --stop
+ * </pre>
+ *
+ * Options:
+ * <ul>
+ * <li><code>--directory &lt;directory&gt;</code> - the directory of the
+ * daemon, <code>target/cpsuite-daemon</code> by default</li>
+ * <li><code>--shard &lt;i&gt;/&lt;n&gt;</code> - runs only the i-th of n
+ * shards of the test classes, starting with 1</li>
+ * <li><code>-D&lt;name&gt;=&lt;value&gt;</code> - sets a system property in
+ * the daemon for the run, e.g. <code>-Dcpsuite.test=com.acme.FooTest</code>
+ * to run a single test class</li>
+ * </ul>
+ * The client exits with 0 if all tests passed, 1 if some failed and 2 if the
+ * suite could not be run.
+ */
+public final class TestDaemonClient {
+
+	private TestDaemonClient() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		File directory = new File(TestDaemon.DEFAULT_DIRECTORY);
+		String suiteClassName = null;
+		boolean stop = false;
+		int shardIndex = 0;
+		int shardCount = 0;
+		Map<String, String> properties = new LinkedHashMap<String, String>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--directory") && i + 1 < args.length) {
+				directory = new File(args[++i]);
+			} else if (arg.equals("--shard") && i + 1 < args.length) {
+				String[] shard = args[++i].split("/");
+				try {
+					shardIndex = Integer.parseInt(shard[0]) - 1;
+					shardCount = shard.length == 2 ? Integer.parseInt(shard[1]) : -1;
+				} catch (NumberFormatException e) {
+					shardCount = -1;
+				}
+				if (shardCount <= 0 || shardIndex < 0 || shardIndex >= shardCount) {
+					usage();
+				}
+			} else if (arg.equals("--stop")) {
+				stop = true;
+			} else if (arg.startsWith("-D") && arg.indexOf('=') > 2) {
+				properties.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+			} else if (!arg.startsWith("-") && suiteClassName == null) {
+				suiteClassName = arg;
+			} else {
+				usage();
+			}
+		}
+		if (stop == (suiteClassName != null)) {
+			usage();
+		}
+		System.exit(stop ? stop(directory) : run(directory, suiteClassName, shardIndex, shardCount, properties));
+	}
+
+	private static void usage() {
+		System.err.println("Usage: " + TestDaemonClient.class.getName()
+				+ " [--directory <directory>] [--shard <i>/<n>] [-D<name>=<value>...] <suite class>");
+		System.err.println("       " + TestDaemonClient.class.getName() + " [--directory <directory>] --stop");
+		System.exit(TestDaemon.EXIT_ERROR);
+	}
+
+	/**
+	 * @return the exit code of the run
+	 */
+	public static int run(File directory, String suiteClassName, int shardIndex, int shardCount,
+			Map<String, String> properties) throws IOException {
+		return run(directory, suiteClassName, shardIndex, shardCount, properties, System.out);
+	}
+
+	/**
+	 * A daemon in the same JVM replaces <code>System.out</code> while it
+	 * runs, so the output is taken before anything is sent.
+	 */
+	static int run(File directory, String suiteClassName, int shardIndex, int shardCount, Map<String, String> properties,
+			PrintStream output) throws IOException {
+		Connection connection = connect(directory);
+		if (connection == null) {
+			return TestDaemon.EXIT_ERROR;
+		}
+		try {
+			DataOutputStream out = connection.out;
+			out.writeUTF(TestDaemon.RUN);
+			out.writeUTF(suiteClassName);
+			out.writeInt(shardIndex);
+			out.writeInt(shardCount);
+			out.writeInt(properties.size());
+			for (Map.Entry<String, String> each : properties.entrySet()) {
+				out.writeUTF(each.getKey());
+				out.writeUTF(each.getValue());
+			}
+			out.flush();
+			return receive(connection.in, output);
+		} finally {
+			connection.socket.close();
+		}
+	}
+
+	public static int stop(File directory) throws IOException {
+		return stop(directory, System.out);
+	}
+
+	static int stop(File directory, PrintStream output) throws IOException {
+		Connection connection = connect(directory);
+		if (connection == null) {
+			return TestDaemon.EXIT_ERROR;
+		}
+		try {
+			connection.out.writeUTF(TestDaemon.STOP);
+			connection.out.flush();
+			return receive(connection.in, output);
+		} finally {
+			connection.socket.close();
+		}
+	}
+
+	/**
+	 * @return <code>null</code> if there is no daemon
+	 */
+	private static Connection connect(File directory) throws IOException {
+		File portFile = new File(directory, TestDaemon.PORT_FILE);
+		if (!portFile.isFile()) {
+			System.err.println("No test daemon running in " + directory);
+			return null;
+		}
+		String[] portAndToken;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(portFile), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			portAndToken = line == null ? new String[0] : line.trim().split(" ");
+		} finally {
+			reader.close();
+		}
+		if (portAndToken.length != 2) {
+			System.err.println("Cannot read " + portFile);
+			return null;
+		}
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(portAndToken[0]));
+		Connection connection = new Connection(socket);
+		connection.out.writeUTF(portAndToken[1]);
+		return connection;
+	}
+
+	private static int receive(DataInputStream in, PrintStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		try {
+			while (true) {
+				byte type = in.readByte();
+				if (type == TestDaemon.EXIT) {
+					out.flush();
+					return in.readInt();
+				}
+				if (type != TestDaemon.OUTPUT) {
+					throw new IOException("Unknown frame type " + type);
+				}
+				int length = in.readInt();
+				if (length > buffer.length) {
+					buffer = new byte[length];
+				}
+				in.readFully(buffer, 0, length);
+				out.write(buffer, 0, length);
+			}
+		} catch (EOFException e) {
+			System.err.println("The test daemon closed the connection");
+			return TestDaemon.EXIT_ERROR;
+		}
+	}
+
+	private static final class Connection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+	}
+}
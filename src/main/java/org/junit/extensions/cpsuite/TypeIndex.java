@@ -0,0 +1,170 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Answers questions about the type hierarchy of a candidate class from class
+ * file headers alone. The headers of supertypes are read through the class
+ * loader as resources, which does not load them, and are kept for the rest of
+ * the search since test classes tend to share their base classes.
+ * <p>
+ * Every question is answered with {@link Boolean#TRUE}, {@link Boolean#FALSE}
+ * or <code>null</code> if it cannot be told, e.g. because the class file of a
+ * supertype cannot be found or read.
+ */
+public final class TypeIndex {
+
+	private static final String OBJECT = "java.lang.Object";
+
+	private final ClassLoader classLoader;
+	private final Map<String, ClassFileHeader> headers = new HashMap<String, ClassFileHeader>();
+	private final Set<String> unavailable = new HashSet<String>();
+
+	public TypeIndex(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * @return whether the type is the given type or one of its subtypes
+	 */
+	public Boolean isSubtypeOf(ClassFileHeader type, String supertypeName) {
+		if (supertypeName.equals(OBJECT) || supertypeName.equals(type.getClassName())) {
+			return Boolean.TRUE;
+		}
+		boolean unknown = false;
+		Set<String> visited = new HashSet<String>();
+		Deque<String> pending = new ArrayDeque<String>();
+		addSupertypes(type, pending);
+		while (!pending.isEmpty()) {
+			String name = pending.remove();
+			if (name.equals(supertypeName)) {
+				return Boolean.TRUE;
+			}
+			if (!visited.add(name) || name.equals(OBJECT)) {
+				continue;
+			}
+			ClassFileHeader header = getHeader(name);
+			if (header == null) {
+				unknown = true;
+			} else {
+				addSupertypes(header, pending);
+			}
+		}
+		return unknown ? null : Boolean.FALSE;
+	}
+
+	/**
+	 * @return whether the type or one of its superclasses is annotated with
+	 *         the given annotation, which is assumed to be
+	 *         <code>@Inherited</code>
+	 */
+	public Boolean hasInheritedAnnotation(ClassFileHeader type, String annotationName) {
+		ClassFileHeader current = type;
+		while (current != null) {
+			if (current.getAnnotationNames().contains(annotationName)) {
+				return Boolean.TRUE;
+			}
+			String superclassName = current.getSuperclassName();
+			if (superclassName == null || superclassName.equals(OBJECT)) {
+				return Boolean.FALSE;
+			}
+			current = getHeader(superclassName);
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the type or one of its supertypes declares a public
+	 *         method with the given annotation; a method that is overridden
+	 *         without the annotation still counts
+	 */
+	public Boolean hasPublicMethodAnnotatedWith(ClassFileHeader type, String annotationName) {
+		boolean unknown = false;
+		Set<String> visited = new HashSet<String>();
+		Deque<ClassFileHeader> pending = new ArrayDeque<ClassFileHeader>();
+		pending.add(type);
+		while (!pending.isEmpty()) {
+			ClassFileHeader current = pending.remove();
+			if (current.getPublicMethodAnnotationNames().contains(annotationName)) {
+				return Boolean.TRUE;
+			}
+			Deque<String> supertypes = new ArrayDeque<String>();
+			addSupertypes(current, supertypes);
+			for (String each : supertypes) {
+				if (each.equals(OBJECT) || !visited.add(each)) {
+					continue;
+				}
+				ClassFileHeader header = getHeader(each);
+				if (header == null) {
+					unknown = true;
+				} else {
+					pending.add(header);
+				}
+			}
+		}
+		return unknown ? null : Boolean.FALSE;
+	}
+
+	private void addSupertypes(ClassFileHeader type, Deque<String> names) {
+		if (type.getSuperclassName() != null) {
+			names.add(type.getSuperclassName());
+		}
+		names.addAll(type.getInterfaceNames());
+	}
+
+	/**
+	 * @return <code>null</code> if the class file cannot be found or read
+	 */
+	ClassFileHeader getHeader(String className) {
+		ClassFileHeader header = headers.get(className);
+		if (header != null || unavailable.contains(className)) {
+			return header;
+		}
+		header = readHeader(className);
+		if (header == null) {
+			unavailable.add(className);
+		} else {
+			headers.put(className, header);
+		}
+		return header;
+	}
+
+	private ClassFileHeader readHeader(String className) {
+		String resourceName = className.replace('.', '/') + ".class";
+		InputStream in = classLoader == null ? ClassLoader.getSystemResourceAsStream(resourceName) : classLoader
+				.getResourceAsStream(resourceName);
+		if (in == null) {
+			return null;
+		}
+		try {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+				return ClassFileHeader.parse(out.toByteArray());
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
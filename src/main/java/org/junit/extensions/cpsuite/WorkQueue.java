@@ -0,0 +1,362 @@
+/*
+ * @author Johannes Link (business@johanneslink.net)
+ * 
+ * Published under Apache License, Version 2.0 (http://apache.org/licenses/LICENSE-2.0)
+ */
+package org.junit.extensions.cpsuite;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A queue of test classes in a directory shared by several JVMs running the
+ * same suite. The first JVM to arrive publishes the suite's children; every
+ * JVM then claims one child at a time and marks it done once it has run it.
+ * All access is serialized by a file lock on the queue.
+ * <p>
+ * Each JVM holds a lock on a file of its own for as long as it takes part.
+ * The operating system releases that lock when the JVM dies, so the children
+ * a dead JVM had claimed but not finished are claimed again by the others.
+ * A JVM keeps going until every child it knows is done. The events of a
+ * child the dead JVM had started are reported by both JVMs, as the child is
+ * run again from the start.
+ * <p>
+ * The files of the queue:
+ * <ul>
+ * <li><code>classes</code>: the published children, one per line</li>
+ * <li><code>claims</code>: one line per claim, <code>claim</code> or
+ * <code>done</code>, the child and the worker, separated by tabs. The file is
+ * only appended to, and each JVM only reads the lines added since it last
+ * looked.</li>
+ * <li><code>queue.lock</code>: locked while the queue is read or changed</li>
+ * <li><code>worker-&lt;id&gt;.lock</code>: locked by a live worker</li>
+ * </ul>
+ */
+final class WorkQueue {
+
+	private static final String CLASSES = "classes";
+	private static final String CLAIMS = "claims";
+	private static final String QUEUE_LOCK = "queue.lock";
+	private static final String CLAIM = "claim";
+	private static final String DONE = "done";
+
+	private static final AtomicInteger WORKER_COUNT = new AtomicInteger();
+	private static final Set<String> LOCAL_WORKERS = Collections.synchronizedSet(new HashSet<String>());
+
+	private final File directory;
+	private final String workerId;
+	private final RandomAccessFile workerFile;
+	private final FileLock workerLock;
+	private final Set<String> deadWorkers = new HashSet<String>();
+
+	// The claims file up to claimsRead, read under the queue lock
+	private final Claims claims = new Claims();
+	private long claimsRead;
+
+	// Read once, the published children never change
+	private List<String> published;
+
+	private WorkQueue(File directory, String workerId, RandomAccessFile workerFile, FileLock workerLock) {
+		this.directory = directory;
+		this.workerId = workerId;
+		this.workerFile = workerFile;
+		this.workerLock = workerLock;
+	}
+
+	/**
+	 * Joins the queue in the directory, publishing the children if no other
+	 * JVM has done so yet.
+	 */
+	static WorkQueue join(File directory, List<String> children) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("Cannot create work queue directory " + directory);
+		}
+		String workerId = createWorkerId();
+		RandomAccessFile workerFile = new RandomAccessFile(workerLockFile(directory, workerId), "rw");
+		FileLock workerLock;
+		try {
+			workerLock = workerFile.getChannel().lock();
+		} catch (IOException e) {
+			workerFile.close();
+			throw e;
+		}
+		LOCAL_WORKERS.add(workerId);
+		WorkQueue queue = new WorkQueue(directory, workerId, workerFile, workerLock);
+		queue.publish(children);
+		return queue;
+	}
+
+	private static String createWorkerId() {
+		String jvm = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9.-]", "_");
+		// The start time tells apart JVMs that happen to get the same process id
+		return jvm + "-" + ManagementFactory.getRuntimeMXBean().getStartTime() + "-" + WORKER_COUNT.incrementAndGet();
+	}
+
+	private static File workerLockFile(File directory, String workerId) {
+		return new File(directory, "worker-" + workerId + ".lock");
+	}
+
+	private void publish(final List<String> children) throws IOException {
+		locked(new LockedAction<Void>() {
+			public Void run() throws IOException {
+				File classes = new File(directory, CLASSES);
+				if (!classes.exists()) {
+					PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(classes), "UTF-8"));
+					try {
+						for (String each : children) {
+							out.println(each);
+						}
+					} finally {
+						out.close();
+					}
+					if (out.checkError()) {
+						throw new IOException("Cannot write " + classes);
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return whether this JVM may run the child, i.e. it is neither done nor
+	 *         claimed by another live JVM
+	 */
+	boolean claim(final String child) throws IOException {
+		return locked(new LockedAction<Boolean>() {
+			public Boolean run() throws IOException {
+				if (!isFree(child, readClaims())) {
+					return Boolean.FALSE;
+				}
+				append(CLAIM, child);
+				return Boolean.TRUE;
+			}
+		});
+	}
+
+	/**
+	 * Claims the first of the given children that is free, in the published
+	 * order.
+	 *
+	 * @return <code>null</code> if none is free
+	 */
+	String claimNext(final Collection<String> children) throws IOException {
+		return locked(new LockedAction<String>() {
+			public String run() throws IOException {
+				Claims claims = readClaims();
+				if (published == null) {
+					published = readLines(new File(directory, CLASSES));
+				}
+				Set<String> ordered = new LinkedHashSet<String>(published);
+				ordered.retainAll(children);
+				ordered.addAll(children);
+				for (String each : ordered) {
+					if (isFree(each, claims)) {
+						append(CLAIM, each);
+						return each;
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	void done(final String child) throws IOException {
+		locked(new LockedAction<Void>() {
+			public Void run() throws IOException {
+				append(DONE, child);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return whether all given children are done
+	 */
+	boolean isFinished(final Collection<String> children) throws IOException {
+		return locked(new LockedAction<Boolean>() {
+			public Boolean run() throws IOException {
+				return readClaims().done.containsAll(children);
+			}
+		});
+	}
+
+	void leave() throws IOException {
+		try {
+			workerLock.release();
+		} finally {
+			workerFile.close();
+			workerLockFile(directory, workerId).delete();
+			LOCAL_WORKERS.remove(workerId);
+		}
+	}
+
+	private boolean isFree(String child, Claims claims) {
+		if (claims.done.contains(child)) {
+			return false;
+		}
+		String worker = claims.claimedBy.get(child);
+		return worker == null || !isAlive(worker);
+	}
+
+	private boolean isAlive(String worker) {
+		if (LOCAL_WORKERS.contains(worker)) {
+			// Never open the lock file of a worker in this JVM, closing it
+			// may release the worker's lock
+			return true;
+		}
+		if (deadWorkers.contains(worker)) {
+			return false;
+		}
+		boolean alive;
+		try {
+			alive = isLocked(workerLockFile(directory, worker));
+		} catch (IOException e) {
+			// Cannot tell, so don't run its children twice
+			return true;
+		}
+		if (!alive) {
+			deadWorkers.add(worker);
+		}
+		return alive;
+	}
+
+	private static boolean isLocked(File workerLockFile) throws IOException {
+		if (!workerLockFile.exists()) {
+			return false;
+		}
+		RandomAccessFile file = new RandomAccessFile(workerLockFile, "rw");
+		try {
+			FileLock lock = file.getChannel().tryLock();
+			if (lock == null) {
+				return true;
+			}
+			lock.release();
+			return false;
+		} finally {
+			file.close();
+		}
+	}
+
+	private Claims readClaims() throws IOException {
+		File file = new File(directory, CLAIMS);
+		if (!file.exists()) {
+			return claims;
+		}
+		byte[] added;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			long length = in.length();
+			if (length <= claimsRead) {
+				return claims;
+			}
+			added = new byte[(int) (length - claimsRead)];
+			in.seek(claimsRead);
+			in.readFully(added);
+		} finally {
+			in.close();
+		}
+		// A line without its end is read once the next claim ends it
+		int end = added.length;
+		while (end > 0 && added[end - 1] != '\n') {
+			end--;
+		}
+		claimsRead += end;
+		for (String each : new String(added, 0, end, "UTF-8").split("\n")) {
+			String[] fields = each.split("\t");
+			if (fields.length != 3) {
+				// A line cut short by a JVM that died while writing it
+				continue;
+			}
+			if (fields[0].equals(DONE)) {
+				claims.done.add(fields[1]);
+			} else if (fields[0].equals(CLAIM)) {
+				claims.claimedBy.put(fields[1], fields[2]);
+			}
+		}
+		return claims;
+	}
+
+	private void append(String kind, String child) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, CLAIMS),
+				true), "UTF-8"));
+		try {
+			// Start on a line of its own in case the last line was cut short
+			out.print("\n" + kind + "\t" + child + "\t" + workerId + "\n");
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Cannot write to work queue " + directory);
+		}
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		if (!file.exists()) {
+			return lines;
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() > 0) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+	/**
+	 * Runs the action while holding the queue lock. Threads of the same JVM
+	 * are serialized first, as file locks are held by the whole JVM.
+	 */
+	private <T> T locked(LockedAction<T> action) throws IOException {
+		synchronized (WorkQueue.class) {
+			RandomAccessFile lockFile = new RandomAccessFile(new File(directory, QUEUE_LOCK), "rw");
+			try {
+				FileChannel channel = lockFile.getChannel();
+				FileLock lock = channel.lock();
+				try {
+					return action.run();
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+	}
+
+	private interface LockedAction<T> {
+		T run() throws IOException;
+	}
+
+	private static final class Claims {
+		final Set<String> done = new HashSet<String>();
+		final Map<String, String> claimedBy = new HashMap<String, String>();
+	}
+}
@@ -0,0 +1,143 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.ParallelExecution;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * With four processors the limit starts at four and moves by one.
+ */
+public final class AdaptiveConcurrencyTest {
+
+	private static final String CONCURRENCY_REPORT_PROPERTY = "cpsuite.concurrencyReport";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void clearProperty() {
+		System.clearProperty(CONCURRENCY_REPORT_PROPERTY);
+	}
+
+	@Test
+	public void lowersLimitWhileGarbageCollectionTakesTooMuchTime() throws InterruptedException {
+		AdaptiveConcurrency adaptive = fullyUsed(16);
+
+		AdaptiveConcurrency.Decision decision = adaptive.decide(1000, 10, 0.5, 0.5);
+
+		assertDecision(4, 3, "garbage collection took 50% of the time", decision);
+	}
+
+	@Test
+	public void lowersLimitWhileSystemIsOverloaded() throws InterruptedException {
+		AdaptiveConcurrency adaptive = fullyUsed(16);
+
+		assertDecision(4, 3, "system overloaded", adaptive.decide(1000, 10, 0.1, 2.5));
+	}
+
+	@Test
+	public void raisesLimitWhileThroughputImproves() throws InterruptedException {
+		AdaptiveConcurrency adaptive = fullyUsed(16);
+
+		assertDecision(4, 5, "first sample", adaptive.decide(1000, 10, 0.1, 0.5));
+		adaptive.acquire();
+		assertDecision(5, 6, "throughput improved", adaptive.decide(2000, 12, 0.1, 0.5));
+		assertDecision(6, 6, "throughput unchanged", adaptive.decide(3000, 12.1, 0.1, 0.5));
+	}
+
+	@Test
+	public void turnsAroundWhenThroughputDegrades() throws InterruptedException {
+		AdaptiveConcurrency adaptive = fullyUsed(16);
+		adaptive.decide(1000, 10, 0.1, 0.5);
+
+		assertDecision(5, 4, "throughput degraded", adaptive.decide(2000, 8, 0.1, 0.5));
+		assertDecision(4, 3, "throughput improved", adaptive.decide(3000, 9, 0.1, 0.5));
+		assertDecision(3, 4, "throughput degraded", adaptive.decide(4000, 7, 0.1, 0.5));
+		assertEquals(4, adaptive.getDecisions().size());
+	}
+
+	@Test
+	public void doesNotRaiseLimitThatIsNotUsed() {
+		AdaptiveConcurrency adaptive = new AdaptiveConcurrency(16, 4);
+
+		assertDecision(4, 4, "first sample, but only 0 children ran at once", adaptive.decide(1000, 10, 0.1, 0.5));
+	}
+
+	@Test
+	public void doesNotRaiseLimitAboveMaximum() throws InterruptedException {
+		AdaptiveConcurrency adaptive = fullyUsed(4);
+
+		assertDecision(4, 4, "first sample", adaptive.decide(1000, 10, 0.1, 0.5));
+	}
+
+	@Test
+	public void unknownMeasurementsDoNotLowerLimit() throws InterruptedException {
+		AdaptiveConcurrency adaptive = fullyUsed(16);
+
+		assertDecision(4, 5, "first sample", adaptive.decide(1000, 10, -1, -1));
+	}
+
+	@Test
+	public void writesDecisionsWithoutProfileReport() throws Exception {
+		File report = new File(folder.getRoot(), "concurrency/decisions.csv");
+		System.setProperty(CONCURRENCY_REPORT_PROPERTY, report.getPath());
+		ClasspathSuite suite = new ClasspathSuite(AdaptiveSuite.class, new AllDefaultPossibilitiesBuilder(true),
+				new ClassesFinderFactory() {
+					public ClassesFinder create(FinderConfig config) {
+						return new ClassesFinder() {
+							public List<Class<?>> find() {
+								return Arrays.<Class<?>> asList(First.class, Second.class);
+							}
+						};
+					}
+				});
+
+		suite.run(new RunNotifier());
+
+		List<String> lines = Files.readAllLines(report.toPath(), Charset.forName("UTF-8"));
+		assertEquals("atMillis,from,to,throughput,gcShare,loadPerProcessor,reason", lines.get(0));
+	}
+
+	/**
+	 * @return a limit of 4 with as many children running
+	 */
+	private static AdaptiveConcurrency fullyUsed(int maxConcurrency) throws InterruptedException {
+		AdaptiveConcurrency adaptive = new AdaptiveConcurrency(maxConcurrency, 4);
+		for (int i = 0; i < 4; i++) {
+			adaptive.acquire();
+		}
+		return adaptive;
+	}
+
+	private static void assertDecision(int from, int to, String reason, AdaptiveConcurrency.Decision decision) {
+		assertEquals(from + " -> " + to + ": " + reason, decision.from + " -> " + decision.to + ": " + decision.reason);
+	}
+
+	@ParallelExecution(adaptive = true)
+	public static final class AdaptiveSuite {
+	}
+
+	public static final class First {
+		@Test
+		public void test() {
+		}
+	}
+
+	public static final class Second {
+		@Test
+		public void test() {
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+
+public final class BatchingRunNotifierTest {
+
+	private static final int THREADS = 4;
+	private static final int TESTS = 500;
+
+	@Test
+	public void deliversEventsOfEachThreadInOrder() throws InterruptedException {
+		RunNotifier downstream = new RunNotifier();
+		Recorder recorder = new Recorder();
+		downstream.addListener(recorder);
+		final BatchingRunNotifier notifier = new BatchingRunNotifier(downstream, 7);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			final String thread = "thread" + i;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int test = 0; test < TESTS; test++) {
+						Description description = Description.createTestDescription(thread, "test" + test);
+						notifier.fireTestStarted(description);
+						if (test % 10 == 0) {
+							notifier.fireTestFailure(new Failure(description, new Error()));
+						}
+						notifier.fireTestFinished(description);
+					}
+					notifier.flush();
+				}
+			});
+		}
+		for (Thread each : threads) {
+			each.start();
+		}
+		for (Thread each : threads) {
+			each.join();
+		}
+		notifier.drain();
+
+		Map<String, List<String>> byThread = new HashMap<String, List<String>>();
+		for (String each : recorder.events) {
+			String thread = each.substring(each.indexOf('(') + 1, each.indexOf(')'));
+			if (!byThread.containsKey(thread)) {
+				byThread.put(thread, new ArrayList<String>());
+			}
+			byThread.get(thread).add(each);
+		}
+		assertEquals(THREADS, byThread.size());
+		for (int i = 0; i < THREADS; i++) {
+			assertEquals(expectedEvents("thread" + i), byThread.get("thread" + i));
+		}
+	}
+
+	@Test
+	public void holdsEventsBackUntilBatchIsFullOrFlushed() {
+		RunNotifier downstream = new RunNotifier();
+		Recorder recorder = new Recorder();
+		downstream.addListener(recorder);
+		BatchingRunNotifier notifier = new BatchingRunNotifier(downstream, 3);
+		Recorder direct = new Recorder();
+		notifier.addListener(direct);
+
+		notifier.fireTestStarted(Description.createTestDescription("a.B", "first"));
+		notifier.fireTestFinished(Description.createTestDescription("a.B", "first"));
+		assertEquals(0, recorder.events.size());
+		assertEquals(2, direct.events.size());
+
+		notifier.fireTestStarted(Description.createTestDescription("a.B", "second"));
+		assertEquals(3, recorder.events.size());
+
+		notifier.fireTestFinished(Description.createTestDescription("a.B", "second"));
+		notifier.flush();
+		assertEquals(direct.events, recorder.events);
+	}
+
+	@Test
+	public void stopsStartingTestsOncePleasedToStop() {
+		BatchingRunNotifier notifier = new BatchingRunNotifier(new RunNotifier(), 3);
+
+		notifier.pleaseStop();
+
+		try {
+			notifier.fireTestStarted(Description.createTestDescription("a.B", "test"));
+			fail();
+		} catch (StoppedByUserException expected) {
+		}
+	}
+
+	private static List<String> expectedEvents(String thread) {
+		List<String> events = new ArrayList<String>();
+		for (int test = 0; test < TESTS; test++) {
+			String name = "test" + test + "(" + thread + ")";
+			events.add("started " + name);
+			if (test % 10 == 0) {
+				events.add("failed " + name);
+			}
+			events.add("finished " + name);
+		}
+		return events;
+	}
+
+	private static final class Recorder extends RunListener {
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void testStarted(Description description) {
+			events.add("started " + description.getDisplayName());
+		}
+
+		@Override
+		public void testFailure(Failure failure) {
+			events.add("failed " + failure.getDescription().getDisplayName());
+		}
+
+		@Override
+		public void testFinished(Description description) {
+			events.add("finished " + description.getDisplayName());
+		}
+	}
+}
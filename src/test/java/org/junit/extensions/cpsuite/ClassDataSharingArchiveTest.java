@@ -0,0 +1,181 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Creates an archive for a suite compiled by the test, with a class path of
+ * the JUnit jars, ClasspathSuite packaged as a jar and a directory with the
+ * suite and its test class.
+ */
+public final class ClassDataSharingArchiveTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String SUITE = "sample.AllTests";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private File samples;
+	private String jars;
+	private String classpath;
+
+	@Before
+	public void createClasspath() throws Exception {
+		directory = new File(folder.getRoot(), "cds");
+		samples = folder.newFolder("samples");
+		compile("AllTests", "@org.junit.runner.RunWith(org.junit.extensions.cpsuite.ClasspathSuite.class)\n"
+				+ "public class AllTests {}");
+		compile("SampleTest", "public class SampleTest { @org.junit.Test public void test() {} }");
+		String junit = location(Test.class) + File.pathSeparator + location(org.hamcrest.Matcher.class);
+		File cpsuite = jar(new File(location(ClasspathSuite.class)));
+		jars = junit + File.pathSeparator + cpsuite;
+		classpath = junit + File.pathSeparator + samples + File.pathSeparator + cpsuite;
+	}
+
+	@Test(timeout = 120000)
+	public void testJvmsMapTheSuiteClassesFromTheArchive() throws Exception {
+		ClassDataSharingArchive archive = new ClassDataSharingArchive(SUITE, directory, classpath);
+
+		assertTrue(archive.update());
+
+		File archiveFile = new File(directory, "suite.jsa");
+		assertEquals(Arrays.asList("-XX:SharedArchiveFile=\"" + archiveFile.getAbsolutePath() + "\"", "-cp \"" + jars
+				+ File.pathSeparator + samples + "\""), read(new File(directory, "jvm.options")));
+		List<String> output = runWithArchive();
+		assertTrue(output.toString(), output.contains("OK (1 test)"));
+		// JUnit 4 class files are too old to be archived, and so are classes
+		// extending them
+		assertTrue(output.toString(), containsEndingWith(output,
+				" org.junit.extensions.cpsuite.ClasspathClassesFinder source: shared objects file (top)"));
+	}
+
+	@Test(timeout = 120000)
+	public void archiveIsOnlyCreatedAgainWhenTheClasspathChanged() throws Exception {
+		ClassDataSharingArchive archive = new ClassDataSharingArchive(SUITE, directory, classpath);
+		assertTrue(archive.update());
+		File classList = new File(directory, "suite.classlist");
+		assertTrue(classList.delete());
+
+		assertTrue(archive.update());
+		assertFalse("created again", classList.exists());
+
+		File sampleTest = new File(samples, "sample/SampleTest.class");
+		assertTrue(sampleTest.setLastModified(sampleTest.lastModified() - 10000));
+		assertTrue(archive.update());
+		assertTrue("not created again", classList.isFile());
+	}
+
+	@Test
+	public void fingerprintCoversTheFilesOfDirectories() throws Exception {
+		String before = new ClassDataSharingArchive(SUITE, directory, classpath).fingerprint();
+		assertEquals(before, new ClassDataSharingArchive(SUITE, directory, classpath).fingerprint());
+
+		Files.write(new File(samples, "sample/Added.class").toPath(), new byte[] { 1 });
+
+		assertFalse(before.equals(new ClassDataSharingArchive(SUITE, directory, classpath).fingerprint()));
+	}
+
+	private List<String> runWithArchive() throws IOException, InterruptedException {
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		ProcessBuilder builder = new ProcessBuilder(java, "@" + new File(directory, "jvm.options").getPath(),
+				"-Xshare:on", "-Xlog:class+load=info", "org.junit.runner.JUnitCore", SUITE);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		List<String> output = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				output.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		assertEquals(output.toString(), 0, process.waitFor());
+		return output;
+	}
+
+	private static boolean containsEndingWith(List<String> lines, String end) {
+		for (String each : lines) {
+			if (each.endsWith(end)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void compile(String className, String body) throws IOException {
+		File sources = new File(folder.getRoot(), "sources/sample");
+		sources.mkdirs();
+		File source = new File(sources, className + ".java");
+		Files.write(source.toPath(), ("package sample;\n" + body).getBytes(UTF8));
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		int result = compiler.run(null, null, null, "-classpath", location(Test.class) + File.pathSeparator
+				+ location(ClasspathSuite.class), "-d", samples.getPath(), source.getPath());
+		assertEquals(0, result);
+	}
+
+	/**
+	 * The JVM only archives classes loaded from jars.
+	 */
+	private File jar(File classes) throws IOException {
+		File jar = new File(folder.getRoot(), "cpsuite.jar");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			addFiles(out, classes, "");
+		} finally {
+			out.close();
+		}
+		return jar;
+	}
+
+	private static void addFiles(JarOutputStream out, File directory, String prefix) throws IOException {
+		File[] files = directory.listFiles();
+		Arrays.sort(files);
+		for (File each : files) {
+			if (each.isDirectory()) {
+				addFiles(out, each, prefix + each.getName() + "/");
+			} else {
+				out.putNextEntry(new ZipEntry(prefix + each.getName()));
+				out.write(Files.readAllBytes(each.toPath()));
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static List<String> read(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), UTF8);
+	}
+
+	private static String location(Class<?> clazz) {
+		try {
+			return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * The class file screen must come to the same result as the loaded class for
+ * these classes, whose hierarchies can all be read.
+ */
+public final class ClassFileScreeningTest {
+
+	private static final List<Class<?>> CLASSES = Arrays.<Class<?>> asList(PlainTest.class, InheritedTest.class,
+			AbstractTest.class, NoTests.class, MarkedTest.class, MarkedWithoutTests.class, Junit38Test.class,
+			AbstractJunit38Test.class, AnnotatedSuite.class, InheritedSuite.class, Marked.class, String.class);
+
+	private static final Class<?>[] OBJECT = { Object.class };
+	private static final Class<?>[] NONE = {};
+
+	private static final String CLASSPATH_PROPERTY = "cpsuite.test.screening.classpath";
+	private static final String GARBAGE = "org.junit.extensions.cpsuite.Garbage";
+	private static final byte[] GARBAGE_BYTES = { 'n', 'o', ' ', 'c', 'l', 'a', 's', 's' };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void clearProperties() {
+		System.clearProperty(CLASSPATH_PROPERTY);
+		System.clearProperty(ClassFilePrefetcher.THREADS_PROPERTY);
+	}
+
+	@Test
+	public void testClasses() {
+		assertScreenMatchesLoadedClasses(tester(new SuiteType[] { SuiteType.TEST_CLASSES }, OBJECT, NONE));
+	}
+
+	@Test
+	public void testClassesWithBaseType() {
+		assertScreenMatchesLoadedClasses(tester(new SuiteType[] { SuiteType.TEST_CLASSES }, new Class<?>[] { Marked.class },
+				NONE));
+	}
+
+	@Test
+	public void testClassesWithExcludedBaseType() {
+		assertScreenMatchesLoadedClasses(tester(new SuiteType[] { SuiteType.TEST_CLASSES }, OBJECT,
+				new Class<?>[] { Marked.class }));
+	}
+
+	@Test
+	public void junit38TestClasses() {
+		assertScreenMatchesLoadedClasses(tester(new SuiteType[] { SuiteType.JUNIT38_TEST_CLASSES }, OBJECT, NONE));
+	}
+
+	@Test
+	public void runWithClasses() {
+		assertScreenMatchesLoadedClasses(tester(new SuiteType[] { SuiteType.RUN_WITH_CLASSES }, OBJECT, NONE));
+	}
+
+	@Test
+	public void allSuiteTypes() {
+		assertScreenMatchesLoadedClasses(tester(new SuiteType[] { SuiteType.TEST_CLASSES, SuiteType.JUNIT38_TEST_CLASSES,
+				SuiteType.RUN_WITH_CLASSES }, OBJECT, NONE));
+	}
+
+	@Test
+	public void classFilesAreOnlyScreenedOnRequest() {
+		assertNull(ClassFilePrefetcher.fromSystemProperties());
+		System.setProperty(ClassFilePrefetcher.THREADS_PROPERTY, "0");
+		assertNotNull(ClassFilePrefetcher.fromSystemProperties());
+	}
+
+	@Test
+	public void candidateWhoseClassFileCannotBeParsedIsLeftToTheClassLoader() throws IOException {
+		File root = folder.newFolder("classes");
+		copyClassFile(JavaStyleClassnameMatcherTest.class, root);
+		write(new File(root, GARBAGE.replace('.', '/') + ".class"), GARBAGE_BYTES);
+
+		assertScreenedSearchFindsTestClassAndLoadsGarbage(root, "0");
+	}
+
+	@Test
+	public void classFilesOfJarsArePrefetchedFromTheSearchedJar() throws IOException {
+		File jar = folder.newFile("classes.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new ZipEntry(GARBAGE.replace('.', '/') + ".class"));
+			out.write(GARBAGE_BYTES);
+			out.putNextEntry(new ZipEntry(classFileName(JavaStyleClassnameMatcherTest.class)));
+			out.write(classFile(JavaStyleClassnameMatcherTest.class));
+		} finally {
+			out.close();
+		}
+
+		assertScreenedSearchFindsTestClassAndLoadsGarbage(jar, "2");
+	}
+
+	private void assertScreenedSearchFindsTestClassAndLoadsGarbage(File root, String prefetchThreads) throws IOException {
+		System.setProperty(CLASSPATH_PROPERTY, root.getAbsolutePath());
+		System.setProperty(ClassFilePrefetcher.THREADS_PROPERTY, prefetchThreads);
+		RecordingClassLoader loader = new RecordingClassLoader(root);
+		try {
+			List<Class<?>> found = new ClasspathClassesFinder(tester(new SuiteType[] { SuiteType.TEST_CLASSES }, OBJECT,
+					NONE), CLASSPATH_PROPERTY, loader).find();
+
+			assertEquals(Arrays.<Class<?>> asList(JavaStyleClassnameMatcherTest.class), new ArrayList<Class<?>>(found));
+			assertTrue(loader.requested.toString(), loader.requested.contains(GARBAGE));
+		} finally {
+			loader.close();
+		}
+	}
+
+	private static void copyClassFile(Class<?> clazz, File root) throws IOException {
+		write(new File(root, classFileName(clazz)), classFile(clazz));
+	}
+
+	private static String classFileName(Class<?> clazz) {
+		return clazz.getName().replace('.', '/') + ".class";
+	}
+
+	private static byte[] classFile(Class<?> clazz) throws IOException {
+		InputStream in = clazz.getClassLoader().getResourceAsStream(classFileName(clazz));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException {
+		file.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads from the given root as well and records the classes asked for.
+	 */
+	private static final class RecordingClassLoader extends URLClassLoader {
+		final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+
+		RecordingClassLoader(File root) throws IOException {
+			super(new URL[] { root.toURI().toURL() }, ClassFileScreeningTest.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			requested.add(name);
+			return super.loadClass(name, resolve);
+		}
+	}
+
+	private static ClasspathSuiteTester tester(SuiteType[] suiteTypes, Class<?>[] baseTypes, Class<?>[] excludedBaseTypes) {
+		return new ClasspathSuiteTester(true, new String[0], new String[0], suiteTypes, baseTypes, excludedBaseTypes);
+	}
+
+	private void assertScreenMatchesLoadedClasses(ClasspathSuiteTester tester) {
+		TypeIndex index = new TypeIndex(getClass().getClassLoader());
+		for (Class<?> each : CLASSES) {
+			ClassFileHeader header = index.getHeader(each.getName());
+			assertNotNull(each.getName(), header);
+			assertEquals(each.getName(), tester.acceptClass(each), tester.acceptClassFile(header, index));
+		}
+	}
+
+	public static class PlainTest {
+		@Test
+		public void test() {
+		}
+	}
+
+	public static class InheritedTest extends PlainTest {
+	}
+
+	public abstract static class AbstractTest {
+		@Test
+		public void test() {
+		}
+	}
+
+	public static class NoTests {
+		public void test() {
+		}
+	}
+
+	public interface Marked {
+	}
+
+	public static class MarkedTest implements Marked {
+		@Test
+		public void test() {
+		}
+	}
+
+	public static class MarkedWithoutTests implements Marked {
+	}
+
+	public static class Junit38Test extends TestCase {
+		public void testSomething() {
+		}
+	}
+
+	public abstract static class AbstractJunit38Test extends TestCase {
+	}
+
+	@RunWith(Suite.class)
+	@SuiteClasses(PlainTest.class)
+	public static class AnnotatedSuite {
+	}
+
+	public static class InheritedSuite extends AnnotatedSuite {
+	}
+}
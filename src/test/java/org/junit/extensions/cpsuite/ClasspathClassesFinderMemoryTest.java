@@ -0,0 +1,185 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Scans two million synthetic entries in a JVM whose heap of 256 MB is too
+ * small for a HashSet of their names, which alone retains about 265 MB.
+ */
+public final class ClasspathClassesFinderMemoryTest {
+
+	private static final String CLASSPATH_PROPERTY = "cpsuite.test.synthetic.classpath";
+	private static final int JARS = 20;
+	private static final int CLASSES_PER_JAR = 100000;
+	private static final String MAX_HEAP = "-Xmx256m";
+	private static final long HEAP_CEILING = 128L * 1024 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test(timeout = 300000)
+	public void retainedHeapStaysBelowCeilingOnHugeClasspath() throws Exception {
+		StringBuilder classpath = new StringBuilder();
+		for (int jar = 0; jar < JARS; jar++) {
+			classpath.append(createJar(jar).getAbsolutePath()).append(File.pathSeparator);
+		}
+		// Visited last, while the names of all jars are still being held
+		classpath.append(folder.newFolder("last").getAbsolutePath());
+
+		List<String> output = scan(classpath.toString());
+
+		assertEquals(output.toString(), 2, output.size());
+		assertEquals(String.valueOf(JARS * CLASSES_PER_JAR), output.get(0));
+		long retained = Long.parseLong(output.get(1));
+		assertTrue("Retained heap " + retained / 1024 + " KB exceeds ceiling of " + HEAP_CEILING / 1024 + " KB",
+				retained < HEAP_CEILING);
+	}
+
+	private File createJar(int jar) throws IOException {
+		File file = folder.newFile("synthetic" + jar + ".jar");
+		ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			for (int i = 0; i < CLASSES_PER_JAR; i++) {
+				ZipEntry entry = new ZipEntry("com/example/synthetic/module" + jar + "/pkg" + (i % 50) + "/Synthetic" + i
+						+ "Test.class");
+				// Stored, since deflating two million entries would take most of the test's time
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(0);
+				entry.setCrc(0);
+				out.putNextEntry(entry);
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return the number of candidates and the retained heap in bytes, as
+	 *         printed by {@link Scan}
+	 */
+	private static List<String> scan(String classpath) throws IOException, InterruptedException {
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		ProcessBuilder builder = new ProcessBuilder(java, MAX_HEAP, "-cp", System.getProperty("java.class.path"),
+				Scan.class.getName(), classpath);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = builder.start();
+		List<String> output = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				output.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		assertEquals(0, process.waitFor());
+		return output;
+	}
+
+	/**
+	 * Searches the class path given as argument and measures the heap once,
+	 * when the last root is entered.
+	 */
+	public static final class Scan {
+		public static void main(String[] args) {
+			System.setProperty(CLASSPATH_PROPERTY, args[0]);
+			String lastRoot = args[0].substring(args[0].lastIndexOf(File.pathSeparator) + 1);
+			long baseline = usedHeapAfterGc();
+			HeapSamplingTester tester = new HeapSamplingTester(lastRoot, baseline);
+			ClasspathClassesFinder finder = new ClasspathClassesFinder(tester, CLASSPATH_PROPERTY,
+					new MissingClassesLoader());
+			if (!finder.find().isEmpty()) {
+				throw new IllegalStateException("Found classes that do not exist");
+			}
+			System.out.println(tester.candidates);
+			System.out.println(tester.retained);
+		}
+	}
+
+	private static long usedHeapAfterGc() {
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Accepts every name and samples the retained heap when the last root is
+	 * entered.
+	 */
+	private static final class HeapSamplingTester implements ClassTester {
+		private final String lastRoot;
+		private final long baseline;
+		long retained = -1;
+		int candidates = 0;
+
+		HeapSamplingTester(String lastRoot, long baseline) {
+			this.lastRoot = lastRoot;
+			this.baseline = baseline;
+		}
+
+		public boolean acceptClassRoot(String classRoot) {
+			if (classRoot.equals(lastRoot)) {
+				retained = usedHeapAfterGc() - baseline;
+			}
+			return true;
+		}
+
+		public boolean acceptClassName(String className) {
+			candidates++;
+			return true;
+		}
+
+		public boolean acceptClass(Class<?> clazz) {
+			return false;
+		}
+
+		public boolean acceptInnerClass() {
+			return true;
+		}
+
+		public boolean searchInJars() {
+			return true;
+		}
+	}
+
+	/**
+	 * Fails every lookup without the cost of filling in a stack trace, so the
+	 * test measures the search and not the exceptions.
+	 */
+	private static final class MissingClassesLoader extends ClassLoader {
+		private static final ClassNotFoundException MISSING = new ClassNotFoundException() {
+			@Override
+			public synchronized Throwable fillInStackTrace() {
+				return this;
+			}
+		};
+
+		MissingClassesLoader() {
+			super(null);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			throw MISSING;
+		}
+	}
+}
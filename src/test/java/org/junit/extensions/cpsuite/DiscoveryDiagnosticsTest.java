@@ -0,0 +1,154 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class DiscoveryDiagnosticsTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String[] NO_PATTERNS = {};
+	private static final String CLASSPATH_PROPERTY = "cpsuite.test.diagnostics.classpath";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void clearProperties() {
+		System.clearProperty(CLASSPATH_PROPERTY);
+		System.clearProperty(DiscoveryDiagnostics.REPORT_PROPERTY);
+	}
+
+	@Test
+	public void reportCountsOutcomesAndListsFailuresAndSlowestClasses() throws IOException {
+		File report = new File(folder.getRoot(), "reports/discovery.json");
+		File root = folder.newFolder("classes");
+		DiscoveryDiagnostics diagnostics = new DiscoveryDiagnostics(report);
+		diagnostics.unreadableRoot(new File(root, "broken.jar"), new IOException("zip END header not found"));
+		diagnostics.enterRoot(root);
+		diagnostics.rejected(DiscoveryDiagnostics.CLASS_FILE_REJECTED);
+		diagnostics.rejected(DiscoveryDiagnostics.CLASS_FILE_REJECTED);
+		diagnostics.loaded("a.FastTest", 1000000, true);
+		diagnostics.loaded("a.Helper", 3000000, false);
+		diagnostics.failed("a.\"Quoted\"Test", 2000000, new NoClassDefFoundError("b/Missing"));
+
+		diagnostics.writeReport();
+
+		String rootPath = quoted(root.getAbsolutePath());
+		assertEquals(Arrays.asList("{", //
+				"  \"outcomes\": {", //
+				"    \"accepted\": 1,", //
+				"    \"java.lang.NoClassDefFoundError\": 1,", //
+				"    \"not accepted\": 1,", //
+				"    \"rejected by class file\": 2", //
+				"  },", //
+				"  \"unreadableRoots\": [", //
+				"    {\"root\": " + quoted(new File(root, "broken.jar").getAbsolutePath())
+						+ ", \"error\": \"java.io.IOException: zip END header not found\"}", //
+				"  ],", //
+				"  \"failures\": [", //
+				"    {\"name\": \"a.\\\"Quoted\\\"Test\", \"root\": " + rootPath
+						+ ", \"millis\": 2.000, \"error\": \"java.lang.NoClassDefFoundError: b/Missing\"}", //
+				"  ],", //
+				"  \"slowest\": [", //
+				"    {\"name\": \"a.Helper\", \"root\": " + rootPath + ", \"millis\": 3.000},", //
+				"    {\"name\": \"a.\\\"Quoted\\\"Test\", \"root\": " + rootPath
+						+ ", \"millis\": 2.000, \"error\": \"java.lang.NoClassDefFoundError: b/Missing\"},", //
+				"    {\"name\": \"a.FastTest\", \"root\": " + rootPath + ", \"millis\": 1.000}", //
+				"  ]", //
+				"}"), read(report));
+	}
+
+	@Test
+	public void onlyTheHundredSlowestClassesAreListed() throws IOException {
+		File report = new File(folder.getRoot(), "discovery.json");
+		DiscoveryDiagnostics diagnostics = new DiscoveryDiagnostics(report);
+		for (int i = 1; i <= 150; i++) {
+			diagnostics.loaded("a.Test" + i, i * 1000000L, false);
+		}
+
+		diagnostics.writeReport();
+
+		List<String> lines = read(report);
+		int slowest = lines.indexOf("  \"slowest\": [");
+		assertEquals("    {\"name\": \"a.Test150\", \"root\": null, \"millis\": 150.000},", lines.get(slowest + 1));
+		assertEquals("    {\"name\": \"a.Test51\", \"root\": null, \"millis\": 51.000}", lines.get(slowest + 100));
+		assertEquals("  ]", lines.get(slowest + 101));
+	}
+
+	@Test
+	public void withoutPropertyThereIsNoReport() {
+		assertNull(DiscoveryDiagnostics.fromSystemProperties());
+	}
+
+	@Test
+	public void searchReportsWhatHappenedToItsCandidates() throws IOException {
+		File report = new File(folder.getRoot(), "discovery.json");
+		File classes = folder.newFolder("classes");
+		String sampleFile = SampleTest.class.getName().replace('.', '/') + ".class";
+		copy(sampleFile, new File(classes, sampleFile));
+		File broken = new File(classes, "org/example/BrokenTest.class");
+		broken.getParentFile().mkdirs();
+		Files.write(broken.toPath(), new byte[] { 0 });
+		File notAJar = folder.newFile("broken.jar");
+		System.setProperty(CLASSPATH_PROPERTY, classes.getPath() + File.pathSeparator + notAJar.getPath());
+		System.setProperty(DiscoveryDiagnostics.REPORT_PROPERTY, report.getPath());
+		ClasspathSuiteTester tester = new ClasspathSuiteTester(true, NO_PATTERNS, NO_PATTERNS,
+				new SuiteType[] { SuiteType.TEST_CLASSES }, new Class<?>[] { Object.class }, new Class<?>[0]);
+		URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+
+		List<Class<?>> found;
+		PrintStream originalErr = System.err;
+		// The search prints why it cannot open the jar
+		System.setErr(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			found = new ClasspathClassesFinder(tester, CLASSPATH_PROPERTY, loader).find();
+		} finally {
+			System.setErr(originalErr);
+		}
+
+		assertEquals(Arrays.<Class<?>> asList(SampleTest.class), found);
+		List<String> lines = read(report);
+		assertEquals(lines.toString(), "    \"accepted\": 1,", lines.get(2));
+		assertEquals(lines.toString(), "    \"java.lang.ClassFormatError\": 1", lines.get(3));
+		assertTrue(lines.toString(), lines.get(6).startsWith("    {\"root\": " + quoted(notAJar.getAbsolutePath())));
+		int failures = lines.indexOf("  \"failures\": [");
+		assertTrue(lines.toString(), lines.get(failures + 1).startsWith("    {\"name\": \"org.example.BrokenTest\", \"root\": "
+				+ quoted(classes.getAbsolutePath())));
+	}
+
+	private static String quoted(String value) {
+		return ProfilingListener.jsonQuote(value);
+	}
+
+	private static List<String> read(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), UTF8);
+	}
+
+	private static void copy(String resource, File target) throws IOException {
+		target.getParentFile().mkdirs();
+		Files.copy(DiscoveryDiagnosticsTest.class.getClassLoader().getResourceAsStream(resource), target.toPath());
+	}
+
+	public static final class SampleTest {
+		@Test
+		public void test() {
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+public final class FailedTestsTest {
+
+	private static final String FAILURES_FILE_PROPERTY = "cpsuite.failuresFile";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File failuresFile;
+
+	@Before
+	public void useFailuresFile() throws IOException {
+		failuresFile = new File(folder.getRoot(), "failures/" + AllTests.class.getName() + ".txt");
+		System.setProperty(FAILURES_FILE_PROPERTY, failuresFile.getPath());
+	}
+
+	@After
+	public void clearProperties() {
+		System.clearProperty(FAILURES_FILE_PROPERTY);
+		System.clearProperty(FailedTests.RERUN_PROPERTY);
+	}
+
+	@Test
+	public void recordedFailuresAreRerun() throws IOException {
+		Description suite = Description.createSuiteDescription(AllTests.class);
+		FailedTests.Recorder recorder = new FailedTests.Recorder(suite);
+		recorder.testFailure(new Failure(Description.createTestDescription(Failing.class, "failing"), new Error()));
+		recorder.testFailure(new Failure(Description.createSuiteDescription(Passing.class.getName() + " [2/3]"),
+				new Error()));
+		recorder.write(failuresFile);
+		System.setProperty(FailedTests.RERUN_PROPERTY, "true");
+
+		FailedTests failedTests = FailedTests.forRerun(AllTests.class);
+
+		assertEquals(Arrays.<Class<?>> asList(Failing.class, Passing.class), failedTests.find());
+		Filter filter = failedTests.filter();
+		assertTrue(filter.shouldRun(Description.createTestDescription(Failing.class, "failing")));
+		assertFalse(filter.shouldRun(Description.createTestDescription(Failing.class, "passing")));
+		assertTrue(filter.shouldRun(Description.createTestDescription(Passing.class, "test")));
+	}
+
+	@Test
+	public void failuresAreOnlyRerunInRerunMode() throws IOException {
+		write("*");
+		assertNull(FailedTests.forRerun(AllTests.class));
+		write(Failing.class.getName());
+		assertNull(FailedTests.forRerun(AllTests.class));
+	}
+
+	@Test
+	public void failureOfSuiteRerunsEverything() throws IOException {
+		FailedTests.Recorder recorder = new FailedTests.Recorder(Description.createSuiteDescription(AllTests.class));
+		recorder.testFailure(new Failure(Description.createSuiteDescription(AllTests.class), new Error()));
+		recorder.write(failuresFile);
+		System.setProperty(FailedTests.RERUN_PROPERTY, "true");
+
+		assertNull(FailedTests.forRerun(AllTests.class));
+	}
+
+	@Test
+	public void classesThatCannotBeFoundAreLeftOut() throws IOException {
+		write("does.not.Exist#test", Failing.class.getName() + "#failing");
+		System.setProperty(FailedTests.RERUN_PROPERTY, "true");
+
+		assertEquals(Arrays.<Class<?>> asList(Failing.class), FailedTests.forRerun(AllTests.class).find());
+	}
+
+	@Test
+	public void suiteRerunsOnlyWhatFailedInItsLastRun() throws Exception {
+		Result first = run(new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true),
+				new FixedFactory()));
+		assertEquals(3, first.getRunCount());
+		assertEquals(1, first.getFailureCount());
+		assertTrue(failuresFile.isFile());
+
+		System.setProperty(FailedTests.RERUN_PROPERTY, "true");
+		ClasspathSuite rerun = new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true),
+				new FixedFactory());
+		assertEquals(1, rerun.getDescription().testCount());
+		Result second = run(rerun);
+		assertEquals(1, second.getRunCount());
+		assertEquals("failing", second.getFailures().get(0).getDescription().getMethodName());
+	}
+
+	@Test
+	public void nestedSuiteThatFailedAsAWholeIsRerunWithAllItsTests() throws Exception {
+		write(NestedSuite.class.getName());
+		System.setProperty(FailedTests.RERUN_PROPERTY, "true");
+
+		ClasspathSuite rerun = new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true),
+				new FixedFactory());
+
+		assertEquals(1, rerun.getDescription().testCount());
+		Result result = run(rerun);
+		assertEquals(1, result.getRunCount());
+		assertEquals(0, result.getFailureCount());
+	}
+
+	@Test
+	public void rerunFailsIfNoneOfTheFailedTestsIsLeft() throws Exception {
+		write("does.not.Exist#test");
+		System.setProperty(FailedTests.RERUN_PROPERTY, "true");
+
+		Result result = run(new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true),
+				new FixedFactory()));
+
+		assertEquals(0, result.getRunCount());
+		assertEquals(1, result.getFailureCount());
+		assertTrue(result.getFailures().get(0).getMessage(), result.getFailures().get(0).getMessage().contains(
+				failuresFile.getPath()));
+		// The next rerun runs the whole suite
+		assertNull(FailedTests.forRerun(AllTests.class));
+	}
+
+	@Test
+	public void rerunAfterPassingRunRunsNothing() throws Exception {
+		write();
+		System.setProperty(FailedTests.RERUN_PROPERTY, "true");
+
+		Result result = run(new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true),
+				new FixedFactory()));
+
+		assertEquals(0, result.getRunCount());
+		assertEquals(0, result.getFailureCount());
+	}
+
+	private static Result run(ClasspathSuite suite) {
+		Result result = new Result();
+		RunNotifier notifier = new RunNotifier();
+		notifier.addListener(result.createListener());
+		suite.run(notifier);
+		return result;
+	}
+
+	private void write(String... lines) throws IOException {
+		failuresFile.getParentFile().mkdirs();
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(failuresFile), "UTF-8"));
+		try {
+			for (String each : lines) {
+				out.println(each);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static final class FixedFactory implements ClassesFinderFactory {
+		public ClassesFinder create(FinderConfig config) {
+			return new ClassesFinder() {
+				public List<Class<?>> find() {
+					return Arrays.<Class<?>> asList(Failing.class, Passing.class);
+				}
+			};
+		}
+	}
+
+	public static final class AllTests {
+	}
+
+	@RunWith(Suite.class)
+	@SuiteClasses(Passing.class)
+	public static final class NestedSuite {
+	}
+
+	public static final class Failing {
+		@Test
+		public void failing() {
+			assertTrue(false);
+		}
+
+		@Test
+		public void passing() {
+		}
+	}
+
+	public static final class Passing {
+		@Test
+		public void test() {
+		}
+	}
+}
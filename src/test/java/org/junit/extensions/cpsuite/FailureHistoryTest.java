@@ -0,0 +1,140 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class FailureHistoryTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final ClassLoader LOADER = FailureHistoryTest.class.getClassLoader();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void missingFileIsAnEmptyHistory() {
+		FailureHistory history = FailureHistory.load(new File(folder.getRoot(), "history.txt"));
+
+		assertTrue(history.isEmpty());
+		assertEquals(-1, history.runsSinceFailure(First.class.getName()));
+	}
+
+	@Test
+	public void countsRunsSinceTheLastFailure() throws IOException {
+		File file = new File(folder.getRoot(), "history/history.txt");
+		FailureHistory first = FailureHistory.load(file);
+		first.record(names(First.class, Second.class), names(Second.class), LOADER);
+		first.save();
+		FailureHistory second = FailureHistory.load(file);
+		second.record(names(First.class), names(), LOADER);
+		second.save();
+
+		FailureHistory history = FailureHistory.load(file);
+
+		assertFalse(history.isEmpty());
+		assertEquals(-1, history.runsSinceFailure(First.class.getName()));
+		assertEquals(1, history.runsSinceFailure(Second.class.getName()));
+		assertEquals(Arrays.asList("runs\t2", First.class.getName() + "\t0\t" + modified(First.class),
+				Second.class.getName() + "\t1\t" + modified(Second.class)), read(file));
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void classesAreChangedUntilTheyHaveRunWithTheirCurrentClassFile() throws IOException {
+		File file = new File(folder.getRoot(), "history.txt");
+		write(file, "runs\t1", First.class.getName() + "\t0\t" + modified(First.class), Second.class.getName()
+				+ "\t0\t1");
+
+		FailureHistory history = FailureHistory.load(file);
+
+		assertFalse(history.hasChanged(First.class.getName(), LOADER));
+		assertTrue(history.hasChanged(Second.class.getName(), LOADER));
+		assertTrue(history.hasChanged(FailureHistoryTest.class.getName(), LOADER));
+	}
+
+	@Test
+	public void classesInJarsHaveTheModificationTimeOfTheirJar() throws Exception {
+		File jar = new File(Test.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+		assertEquals(jar.lastModified(), FailureHistory.classFileModified(Test.class.getName(), LOADER));
+	}
+
+	@Test
+	public void malformedHistoryIsReportedAndKeptWhenTheNextOneIsSaved() throws IOException {
+		File file = new File(folder.getRoot(), "history.txt");
+		write(file, "runs\t3", First.class.getName() + "\tnot a number\t0");
+
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		PrintStream originalErr = System.err;
+		System.setErr(new PrintStream(errors, true));
+		try {
+			FailureHistory history = FailureHistory.load(file);
+			assertTrue(history.isEmpty());
+			history.record(names(Second.class), names(), LOADER);
+			history.save();
+		} finally {
+			System.setErr(originalErr);
+		}
+
+		assertTrue(errors.toString(), errors.toString().startsWith("Ignoring failure history " + file));
+		assertEquals(Arrays.asList("runs\t3", First.class.getName() + "\tnot a number\t0"), read(new File(file
+				.getPath() + FailureHistory.UNREADABLE_SUFFIX)));
+		assertEquals(Arrays.asList("runs\t1", Second.class.getName() + "\t0\t" + modified(Second.class)), read(file));
+	}
+
+	@Test
+	public void linesWithMissingFieldsMakeTheHistoryUnreadable() throws IOException {
+		File file = new File(folder.getRoot(), "history.txt");
+		write(file, "runs\t3", First.class.getName() + "\t3");
+
+		PrintStream originalErr = System.err;
+		System.setErr(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			assertTrue(FailureHistory.load(file).isEmpty());
+		} finally {
+			System.setErr(originalErr);
+		}
+	}
+
+	private static Set<String> names(Class<?>... classes) {
+		Set<String> names = new HashSet<String>();
+		for (Class<?> each : classes) {
+			names.add(each.getName());
+		}
+		return names;
+	}
+
+	private static long modified(Class<?> clazz) {
+		return FailureHistory.classFileModified(clazz.getName(), LOADER);
+	}
+
+	private static void write(File file, String... lines) throws IOException {
+		Files.write(file.toPath(), Arrays.asList(lines), UTF8);
+	}
+
+	private static List<String> read(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), UTF8);
+	}
+
+	public static final class First {
+	}
+
+	public static final class Second {
+	}
+}
@@ -0,0 +1,184 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.ClassnameFilters;
+import org.junit.extensions.cpsuite.ClasspathSuite.FinderFactory;
+import org.junit.extensions.cpsuite.ClasspathSuite.IncludeJars;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.model.InitializationError;
+
+public final class FinderConfigTest {
+
+	private static final String SERVICES = "META-INF/services/" + ClassesFinderFactory.class.getName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void configHoldsTheSettingsOfTheSuiteAnnotations() throws InitializationError {
+		FinderConfig config = ClasspathSuite.createFinderConfig(ConfiguredSuite.class);
+
+		assertSame(ConfiguredSuite.class, config.getSuiteClass());
+		assertTrue(config.isSearchInJars());
+		assertArrayEquals(new String[] { ".*Spec" }, config.getClassnameFilters());
+		assertEquals(0, config.getRequestedClassnames().length);
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		options.put("depth", "3");
+		options.put("mode", "a=b");
+		assertEquals(options, config.getOptions());
+		assertEquals("3", config.getOption("depth", "1"));
+		assertEquals("1", config.getOption("missing", "1"));
+	}
+
+	@Test
+	public void requestedClassnamesLeaveTheOtherSettingsAsTheyAre() throws InitializationError {
+		FinderConfig config = ClasspathSuite.createFinderConfig(ConfiguredSuite.class);
+
+		FinderConfig requested = config.withRequestedClassnames(new String[] { "a.BTest" });
+
+		assertArrayEquals(new String[] { "a.BTest" }, requested.getRequestedClassnames());
+		assertSame(config.getClassnameFilters(), requested.getClassnameFilters());
+		assertEquals(config.getOptions(), requested.getOptions());
+		assertEquals(config.getClasspathProperty(), requested.getClasspathProperty());
+	}
+
+	@Test
+	public void optionsCannotBeChangedByTheFactory() throws InitializationError {
+		try {
+			ClasspathSuite.createFinderConfig(ConfiguredSuite.class).getOptions().put("depth", "4");
+			fail();
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+
+	@Test
+	public void optionsWithoutValueAreRejected() {
+		try {
+			ClasspathSuite.createFinderConfig(MalformedOptionSuite.class);
+			fail();
+		} catch (InitializationError expected) {
+			assertEquals("Finder option 'depth' is not of the form name=value", expected.getCauses().get(0)
+					.getMessage());
+		}
+	}
+
+	@Test
+	public void annotatedFactoryIsUsed() throws InitializationError {
+		assertEquals(AnnotatedFactory.class, ClasspathSuite.getFinderFactory(ConfiguredSuite.class).getClass());
+	}
+
+	@Test
+	public void withoutAnnotationTheFirstRegisteredFactoryIsUsed() throws Exception {
+		Class<?> suiteClass = suiteWithServices(RegisteredFactory.class.getName(), AnnotatedFactory.class.getName());
+
+		assertEquals(RegisteredFactory.class, ClasspathSuite.getFinderFactory(suiteClass).getClass());
+	}
+
+	@Test
+	public void withoutAnnotationOrRegistrationTheClasspathIsSearched() throws Exception {
+		assertEquals(ClasspathFinderFactory.class, ClasspathSuite.getFinderFactory(suiteWithServices()).getClass());
+	}
+
+	@Test
+	public void brokenRegistrationFailsTheSuite() throws Exception {
+		Class<?> suiteClass = suiteWithServices("org.example.MissingFactory");
+
+		try {
+			ClasspathSuite.getFinderFactory(suiteClass);
+			fail();
+		} catch (InitializationError expected) {
+			assertTrue(expected.getCauses().get(0).getMessage(), expected.getCauses().get(0).getMessage().contains(
+					"org.example.MissingFactory"));
+		}
+	}
+
+	@Test
+	public void suiteFindsItsClassesWithTheRegisteredFactory() throws Exception {
+		Class<?> suiteClass = suiteWithServices(RegisteredFactory.class.getName());
+
+		ClasspathSuite suite = new ClasspathSuite(suiteClass, new AllDefaultPossibilitiesBuilder(true));
+
+		assertEquals(1, suite.testCount());
+		assertEquals(SampleTest.class.getName(), suite.getDescription().getChildren().get(0).getClassName());
+	}
+
+	/**
+	 * @return a suite class without annotations, defined by a class loader
+	 *         that registers the given factories as services
+	 */
+	private Class<?> suiteWithServices(String... factories) throws Exception {
+		File classes = folder.newFolder("classes");
+		File services = new File(classes, SERVICES);
+		services.getParentFile().mkdirs();
+		Files.write(services.toPath(), Arrays.asList(factories), Charset.forName("UTF-8"));
+		compileSuite(classes);
+		URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+		return loader.loadClass("sample.ServiceSuite");
+	}
+
+	private void compileSuite(File classes) throws IOException {
+		File source = new File(folder.newFolder("sources"), "ServiceSuite.java");
+		Files.write(source.toPath(), "package sample; public class ServiceSuite {}".getBytes("UTF-8"));
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assertEquals(0, compiler.run(null, null, null, "-d", classes.getPath(), source.getPath()));
+	}
+
+	@FinderFactory(value = AnnotatedFactory.class, options = { "depth = 3", "mode=a=b" })
+	@ClassnameFilters(".*Spec")
+	@IncludeJars(true)
+	public static final class ConfiguredSuite {
+	}
+
+	@FinderFactory(value = AnnotatedFactory.class, options = "depth")
+	public static final class MalformedOptionSuite {
+	}
+
+	public static final class AnnotatedFactory implements ClassesFinderFactory {
+		public ClassesFinder create(FinderConfig config) {
+			return new ClassesFinder() {
+				public List<Class<?>> find() {
+					return Collections.emptyList();
+				}
+			};
+		}
+	}
+
+	public static final class RegisteredFactory implements ClassesFinderFactory {
+		public ClassesFinder create(FinderConfig config) {
+			return new ClassesFinder() {
+				public List<Class<?>> find() {
+					return Collections.<Class<?>> singletonList(SampleTest.class);
+				}
+			};
+		}
+	}
+
+	public static final class SampleTest {
+		@Test
+		public void test() {
+		}
+	}
+}
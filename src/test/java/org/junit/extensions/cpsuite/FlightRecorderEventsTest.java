@@ -0,0 +1,119 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.ClassnameFilters;
+import org.junit.extensions.cpsuite.ClasspathSuite.ClasspathProperty;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * Records a suite that searches the test classes of this project for one of
+ * the classes below and runs it.
+ */
+public final class FlightRecorderEventsTest {
+
+	private static final String CLASSPATH_PROPERTY = "cpsuite.test.jfr.classpath";
+	private static final String PREFIX = "org.junit.extensions.cpsuite.";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void clearProperty() {
+		System.clearProperty(CLASSPATH_PROPERTY);
+	}
+
+	@Test
+	public void nothingIsBegunWithoutRecording() {
+		assertNull(FlightRecorderEvents.beginRootScan());
+		assertNull(FlightRecorderEvents.beginClassLoad());
+		assertNull(FlightRecorderEvents.beginChildRun());
+	}
+
+	@Test
+	public void discoveryAndChildRunsAreRecorded() throws Exception {
+		String testClasses = new File(FlightRecorderEventsTest.class.getProtectionDomain().getCodeSource()
+				.getLocation().toURI()).getAbsolutePath();
+		System.setProperty(CLASSPATH_PROPERTY, testClasses);
+
+		List<RecordedEvent> events = record();
+
+		RecordedEvent rootScanned = single(events, "RootScanned", "root", testClasses);
+		assertTrue(String.valueOf(rootScanned), rootScanned.getInt("entries") > 0);
+		assertTrue(String.valueOf(rootScanned), rootScanned.getLong("bytes") > 0);
+		RecordedEvent loaded = single(events, "CandidateLoaded", "className", SampleTest.class.getName());
+		assertNull(loaded.getString("failure"));
+		RecordedEvent checked = single(events, "CandidateChecked", "className", SampleTest.class.getName());
+		assertTrue(checked.getBoolean("accepted"));
+		assertEquals(DiscoveryDiagnostics.ACCEPTED, checked.getString("reason"));
+		RecordedEvent childRun = single(events, "ChildRun", "child", SampleTest.class.getName());
+		assertEquals(Suite.class.getName(), childRun.getString("suite"));
+		assertEquals(2, childRun.getInt("testCount"));
+	}
+
+	private List<RecordedEvent> record() throws Exception {
+		Recording recording = new Recording();
+		try {
+			for (String each : new String[] { "RootScanned", "CandidateLoaded", "CandidateChecked", "ChildRun" }) {
+				recording.enable(PREFIX + each).withoutThreshold();
+			}
+			recording.start();
+			Result result = new Result();
+			RunNotifier notifier = new RunNotifier();
+			notifier.addListener(result.createListener());
+			new ClasspathSuite(Suite.class, new AllDefaultPossibilitiesBuilder(true)).run(notifier);
+			recording.stop();
+			assertEquals(2, result.getRunCount());
+			File dump = new File(folder.getRoot(), "recording.jfr");
+			recording.dump(dump.toPath());
+			return RecordingFile.readAllEvents(dump.toPath());
+		} finally {
+			recording.close();
+		}
+	}
+
+	/**
+	 * @return the only event of the type with the given value
+	 */
+	private static RecordedEvent single(List<RecordedEvent> events, String type, String field, String value) {
+		List<RecordedEvent> matching = new ArrayList<RecordedEvent>();
+		for (RecordedEvent each : events) {
+			if (each.getEventType().getName().equals(PREFIX + type) && value.equals(each.getString(field))) {
+				matching.add(each);
+			}
+		}
+		assertEquals(events.toString(), 1, matching.size());
+		return matching.get(0);
+	}
+
+	@ClasspathProperty(CLASSPATH_PROPERTY)
+	@ClassnameFilters("org.junit.extensions.cpsuite.FlightRecorderEventsTest$SampleTest")
+	public static final class Suite {
+	}
+
+	public static final class SampleTest {
+		@Test
+		public void first() {
+		}
+
+		@Test
+		public void second() {
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The tests run on Java 9 or later, so version 9 always applies and version
+ * 999 never does.
+ */
+public final class JarFilenameIteratorTest {
+
+	private static final String[] ENTRIES = { "a/Base.class", "a/", "META-INF/versions/9/a/Base.class",
+			"META-INF/versions/9/a/Newer.class", "META-INF/versions/999/a/Base.class",
+			"META-INF/versions/999/a/Future.class", "META-INF/versions/x/a/Odd.class", "META-INF/versions/9" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void multiReleaseJarGivesVersionedEntriesThatApplyByTheirBaseName() throws IOException {
+		JarFilenameIterator iterator = new JarFilenameIterator(jar("multi.jar", multiRelease(), ENTRIES));
+
+		assertEquals(Arrays.asList("META-INF/MANIFEST.MF -> META-INF/MANIFEST.MF",
+				"a/Base.class -> META-INF/versions/9/a/Base.class", "a/Base.class -> META-INF/versions/9/a/Base.class",
+				"a/Newer.class -> META-INF/versions/9/a/Newer.class"), namesAndEntries(iterator));
+	}
+
+	@Test
+	public void otherJarsGiveVersionedEntriesAsTheyAre() throws IOException {
+		JarFilenameIterator iterator = new JarFilenameIterator(jar("plain.jar", new Manifest(), ENTRIES));
+
+		List<String> expected = new ArrayList<String>();
+		expected.add("META-INF/MANIFEST.MF -> META-INF/MANIFEST.MF");
+		for (String each : ENTRIES) {
+			if (!each.endsWith("/")) {
+				expected.add(each + " -> " + each);
+			}
+		}
+		assertEquals(expected, namesAndEntries(iterator));
+	}
+
+	@Test
+	public void classPathReferencesAreResolvedAgainstTheJar() throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, "lib/first.jar  ../second/ http://host/remote.jar");
+		File jar = jar("app.jar", manifest, "a/Base.class");
+
+		JarFilenameIterator iterator = new JarFilenameIterator(jar);
+
+		assertEquals(Arrays.asList(new File(folder.getRoot(), "lib/first.jar"), new File(folder.getRoot()
+				.getParentFile(), "second")), iterator.getClassPathReferences());
+		iterator.close();
+	}
+
+	private static List<String> namesAndEntries(JarFilenameIterator iterator) {
+		List<String> names = new ArrayList<String>();
+		for (String each : iterator) {
+			names.add(each + " -> " + iterator.getEntryName());
+		}
+		return names;
+	}
+
+	private static Manifest multiRelease() {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().putValue("Multi-Release", "true");
+		return manifest;
+	}
+
+	private File jar(String name, Manifest manifest, String... entries) throws IOException {
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		File jar = new File(folder.getRoot(), name);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+		try {
+			for (String each : entries) {
+				out.putNextEntry(new ZipEntry(each));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return jar;
+	}
+}
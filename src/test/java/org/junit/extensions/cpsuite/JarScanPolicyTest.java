@@ -0,0 +1,201 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class JarScanPolicyTest {
+
+	private static final String[] NO_PATTERNS = {};
+	private static final String CONFIGURATION = "tests";
+	private static final String CLASSPATH_PROPERTY = "cpsuite.test.jars.classpath";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void clearProperties() {
+		System.clearProperty(CLASSPATH_PROPERTY);
+		System.clearProperty(JarScanPolicy.CACHE_PROPERTY);
+	}
+
+	@Test
+	public void includedJarsAreScannedAndAllOthersSkipped() throws IOException {
+		JarScanPolicy policy = new JarScanPolicy(new String[] { "*-tests.jar" }, false, null, CONFIGURATION);
+
+		assertTrue(policy.shouldScan(folder.newFile("app-tests.jar")));
+		assertFalse(policy.shouldScan(folder.newFile("library.jar")));
+	}
+
+	@Test
+	public void everyJarIsScannedByDefault() throws IOException {
+		JarScanPolicy policy = new JarScanPolicy(NO_PATTERNS, false, null, CONFIGURATION);
+
+		assertTrue(policy.shouldScan(folder.newFile("library.jar")));
+	}
+
+	@Test
+	public void markedJarsAreScannedAsWellAsIncludedOnes() throws IOException {
+		JarScanPolicy policy = new JarScanPolicy(new String[] { "*-tests.jar" }, true, null, CONFIGURATION);
+		File marked = folder.newFile("marked.jar");
+		folder.newFile("marked.jar" + JarScanPolicy.MARKER_SUFFIX);
+
+		assertTrue(policy.shouldScan(marked));
+		assertTrue(policy.shouldScan(folder.newFile("app-tests.jar")));
+		assertFalse(policy.shouldScan(folder.newFile("library.jar")));
+	}
+
+	@Test
+	public void markerIsLookedForWithoutOpeningTheJar() throws IOException {
+		JarScanPolicy policy = new JarScanPolicy(NO_PATTERNS, true, null, CONFIGURATION);
+		File notAJar = folder.newFile("broken.jar");
+		folder.newFile("broken.jar" + JarScanPolicy.MARKER_SUFFIX);
+
+		assertTrue(policy.shouldScan(notAJar));
+	}
+
+	@Test
+	public void emptyJarsAreSkippedUntilTheyChange() throws IOException {
+		File cache = new File(folder.getRoot(), "cache/jars.txt");
+		File jar = folder.newFile("library.jar");
+		JarScanPolicy first = new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION);
+		first.scanned(jar, false, true);
+		first.saveCache();
+
+		assertFalse(new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION).shouldScan(jar));
+
+		assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+		assertTrue(new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION).shouldScan(jar));
+	}
+
+	@Test
+	public void jarsThatGrewAreScannedAgain() throws IOException {
+		File cache = new File(folder.getRoot(), "jars.txt");
+		File jar = folder.newFile("library.jar");
+		JarScanPolicy first = new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION);
+		first.scanned(jar, false, true);
+		first.saveCache();
+		long modified = jar.lastModified();
+
+		Files.write(jar.toPath(), new byte[] { 1 });
+		assertTrue(jar.setLastModified(modified));
+
+		assertTrue(new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION).shouldScan(jar));
+	}
+
+	@Test
+	public void jarsThatHoldClassesAgainAreForgotten() throws IOException {
+		File cache = new File(folder.getRoot(), "jars.txt");
+		File jar = folder.newFile("library.jar");
+		JarScanPolicy first = new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION);
+		first.scanned(jar, false, true);
+		first.scanned(jar, true, true);
+		first.saveCache();
+
+		assertTrue(new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION).shouldScan(jar));
+	}
+
+	@Test
+	public void emptyJarsAreOnlySkippedForTheSameConfiguration() throws IOException {
+		File cache = new File(folder.getRoot(), "jars.txt");
+		File jar = folder.newFile("library.jar");
+		JarScanPolicy first = new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION);
+		first.scanned(jar, false, true);
+		first.saveCache();
+		JarScanPolicy other = new JarScanPolicy(NO_PATTERNS, false, cache, "other tests");
+		other.scanned(folder.newFile("other.jar"), false, true);
+		other.saveCache();
+
+		assertTrue(new JarScanPolicy(NO_PATTERNS, false, cache, "other tests").shouldScan(jar));
+		assertFalse(new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION).shouldScan(jar));
+	}
+
+	@Test
+	public void nothingIsCachedWithoutConfiguration() throws IOException {
+		File cache = new File(folder.getRoot(), "jars.txt");
+		File jar = folder.newFile("library.jar");
+		JarScanPolicy policy = new JarScanPolicy(NO_PATTERNS, false, cache, null);
+		policy.scanned(jar, false, true);
+		policy.saveCache();
+
+		assertFalse(cache.exists());
+		assertTrue(new JarScanPolicy(NO_PATTERNS, false, cache, null).shouldScan(jar));
+	}
+
+	@Test
+	public void jarsWithClassesThatFailedToLoadAreNotCached() throws IOException {
+		File cache = new File(folder.getRoot(), "jars.txt");
+		File jar = folder.newFile("library.jar");
+		JarScanPolicy policy = new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION);
+		policy.scanned(jar, false, false);
+		policy.saveCache();
+
+		assertTrue(new JarScanPolicy(NO_PATTERNS, false, cache, CONFIGURATION).shouldScan(jar));
+	}
+
+	@Test
+	public void searchOnlyCachesJarsWhoseClassesCouldAllBeLoaded() throws IOException {
+		String className = JarScanPolicy.class.getName().replace('.', '/') + ".class";
+		File empty = jar("empty.jar", className, classFile(className));
+		File broken = jar("broken.jar", "org/junit/extensions/cpsuite/Broken.class", new byte[] { 0 });
+		File cache = new File(folder.getRoot(), "jars.txt");
+		System.setProperty(JarScanPolicy.CACHE_PROPERTY, cache.getPath());
+		System.setProperty(CLASSPATH_PROPERTY, empty.getPath() + File.pathSeparator + broken.getPath());
+		URLClassLoader loader = new URLClassLoader(new URL[] { empty.toURI().toURL(), broken.toURI().toURL() },
+				getClass().getClassLoader());
+		ClasspathSuiteTester tester = new ClasspathSuiteTester(true, NO_PATTERNS, NO_PATTERNS,
+				new SuiteType[] { SuiteType.TEST_CLASSES }, new Class<?>[] { Object.class }, new Class<?>[0]);
+
+		List<Class<?>> found = new ClasspathClassesFinder(tester, CLASSPATH_PROPERTY, loader).find();
+
+		assertEquals(0, found.size());
+		List<String> lines = Files.readAllLines(cache.toPath());
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0), lines.get(0).endsWith(empty.getAbsolutePath()));
+	}
+
+	private static byte[] classFile(String name) throws IOException {
+		InputStream in = JarScanPolicyTest.class.getClassLoader().getResourceAsStream(name);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private File jar(String name, String entry, byte[] content) throws IOException {
+		File jar = new File(folder.getRoot(), name);
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new ZipEntry(entry));
+			out.write(content);
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		return jar;
+	}
+}
@@ -0,0 +1,185 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.Splittable;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.runner.Description;
+import org.junit.runner.Request;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.model.RunnerBuilder;
+
+public final class MethodChunkRunnerTest {
+
+	private final RunnerBuilder builder = new AllDefaultPossibilitiesBuilder(true);
+
+	@Test
+	public void splitsIntoChunksThatRunEveryMethodOnce() {
+		List<Runner> chunks = MethodChunkRunner.split(runner(FiveTests.class), builder, 2);
+
+		assertEquals(3, chunks.size());
+		Set<String> methods = new HashSet<String>();
+		int count = 0;
+		for (int i = 0; i < chunks.size(); i++) {
+			Description description = chunks.get(i).getDescription();
+			assertEquals(FiveTests.class.getName() + " [" + (i + 1) + "/3]", description.getDisplayName());
+			for (Description each : description.getChildren()) {
+				methods.add(each.getMethodName());
+				count++;
+			}
+		}
+		assertEquals(5, count);
+		assertEquals(5, methods.size());
+	}
+
+	@Test
+	public void doesNotSplitSmallClasses() {
+		Runner runner = runner(FiveTests.class);
+
+		List<Runner> chunks = MethodChunkRunner.split(runner, builder, 5);
+
+		assertEquals(1, chunks.size());
+		assertSame(runner, chunks.get(0));
+	}
+
+	@Test
+	public void doesNotSplitClassesWithClassFixturesUnlessSplittable() {
+		Runner runner = runner(ClassFixture.class);
+
+		assertSame(runner, MethodChunkRunner.split(runner, builder, 1).get(0));
+		assertEquals(3, MethodChunkRunner.split(runner(SplittableClassFixture.class), builder, 1).size());
+	}
+
+	@Test
+	public void reportsClassEventsUnderTheChunkAndMethodEventsUnchanged() {
+		List<Runner> chunks = MethodChunkRunner.split(runner(FiveTests.class), builder, 2);
+		Events events = new Events();
+		RunNotifier notifier = new RunNotifier();
+		notifier.addListener(events);
+
+		for (Runner each : chunks) {
+			each.run(notifier);
+		}
+
+		assertEquals(5, events.started.size());
+		for (Description each : events.started) {
+			assertEquals(FiveTests.class.getName(), each.getClassName());
+		}
+		assertEquals(1, events.failures.size());
+		assertEquals("failing", events.failures.get(0).getDescription().getMethodName());
+		List<String> suites = new ArrayList<String>();
+		for (Runner each : chunks) {
+			suites.add(each.getDescription().getDisplayName());
+		}
+		assertEquals(suites, events.suites);
+	}
+
+	@Test
+	public void reportsClassFixtureFailuresUnderTheChunk() {
+		List<Runner> chunks = MethodChunkRunner.split(runner(SplittableClassFixture.class), builder, 1);
+		Events events = new Events();
+		RunNotifier notifier = new RunNotifier();
+		notifier.addListener(events);
+
+		chunks.get(1).run(notifier);
+
+		assertEquals(1, events.failures.size());
+		Description failed = events.failures.get(0).getDescription();
+		assertEquals(SplittableClassFixture.class.getName() + " [2/3]", failed.getDisplayName());
+		assertEquals(SplittableClassFixture.class.getName(), MethodChunkRunner.testClassName(failed));
+	}
+
+	private static Runner runner(Class<?> testClass) {
+		return Request.aClass(testClass).getRunner();
+	}
+
+	private static final class Events extends RunListener {
+		final List<String> suites = new ArrayList<String>();
+		final List<Description> started = new ArrayList<Description>();
+		final List<Failure> failures = new ArrayList<Failure>();
+
+		@Override
+		public void testSuiteStarted(Description description) {
+			suites.add(description.getDisplayName());
+		}
+
+		@Override
+		public void testStarted(Description description) {
+			started.add(description);
+		}
+
+		@Override
+		public void testFailure(Failure failure) {
+			failures.add(failure);
+		}
+	}
+
+	public static final class FiveTests {
+		@Test
+		public void first() {
+		}
+
+		@Test
+		public void second() {
+		}
+
+		@Test
+		public void third() {
+		}
+
+		@Test
+		public void fourth() {
+		}
+
+		@Test
+		public void failing() {
+			assertTrue(false);
+		}
+	}
+
+	public static final class ClassFixture {
+		@BeforeClass
+		public static void setUpClass() {
+		}
+
+		@Test
+		public void first() {
+		}
+
+		@Test
+		public void second() {
+		}
+	}
+
+	@Splittable
+	public static final class SplittableClassFixture {
+		@BeforeClass
+		public static void setUpClass() {
+			throw new IllegalStateException("no fixture");
+		}
+
+		@Test
+		public void first() {
+		}
+
+		@Test
+		public void second() {
+		}
+
+		@Test
+		public void third() {
+		}
+	}
+}
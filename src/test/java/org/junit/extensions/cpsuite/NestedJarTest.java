@@ -0,0 +1,130 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class NestedJarTest {
+
+	private static final byte[] CLASS_CONTENT = repeated("class file content ", 200);
+	private static final byte[] TEXT_CONTENT = "stored as it is".getBytes();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsStoredNestedJar() throws IOException {
+		assertReadsEntries(ZipEntry.STORED);
+	}
+
+	@Test
+	public void readsDeflatedNestedJar() throws IOException {
+		assertReadsEntries(ZipEntry.DEFLATED);
+	}
+
+	@Test
+	public void rejectsEntryThatIsNoJar() throws IOException {
+		File outer = writeOuterJar("lib/tests.jar", TEXT_CONTENT, ZipEntry.DEFLATED);
+		JarFile jar = new JarFile(outer);
+		try {
+			NestedJar.read(outer, jar, jar.getEntry("lib/tests.jar"));
+			fail();
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().endsWith("!/lib/tests.jar"));
+		} finally {
+			jar.close();
+		}
+	}
+
+	private void assertReadsEntries(int outerMethod) throws IOException {
+		File outer = writeOuterJar("lib/tests.jar", innerJar(), outerMethod);
+		JarFile jar = new JarFile(outer);
+		NestedJar nested;
+		try {
+			nested = NestedJar.read(outer, jar, jar.getEntry("lib/tests.jar"));
+		} finally {
+			jar.close();
+		}
+
+		assertEquals(outer.getAbsolutePath() + "!/lib/tests.jar", nested.getLocation());
+		assertEquals(Arrays.asList("a/BTest.class", "c.txt", "\u00e4/Umlaut.class"), nested.getFileNames());
+		assertArrayEquals(CLASS_CONTENT, nested.read("a/BTest.class"));
+		assertArrayEquals(TEXT_CONTENT, nested.read("c.txt"));
+		assertArrayEquals(TEXT_CONTENT, nested.read("\u00e4/Umlaut.class"));
+		assertArrayEquals(TEXT_CONTENT, nested.read("META-INF/versions/11/a/BTest.class"));
+		assertTrue(nested.contains("a/"));
+		assertFalse(nested.contains("missing.class"));
+		assertNull(nested.read("missing.class"));
+	}
+
+	/**
+	 * A deflated class, a stored text file, a directory, a versioned class
+	 * and a class with a name that is not ASCII.
+	 */
+	private static byte[] innerJar() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JarOutputStream out = new JarOutputStream(bytes);
+		try {
+			out.putNextEntry(new ZipEntry("a/"));
+			out.closeEntry();
+			put(out, "a/BTest.class", CLASS_CONTENT, ZipEntry.DEFLATED);
+			put(out, "c.txt", TEXT_CONTENT, ZipEntry.STORED);
+			put(out, "META-INF/versions/11/a/BTest.class", TEXT_CONTENT, ZipEntry.DEFLATED);
+			put(out, "\u00e4/Umlaut.class", TEXT_CONTENT, ZipEntry.DEFLATED);
+		} finally {
+			out.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private File writeOuterJar(String name, byte[] content, int method) throws IOException {
+		File outer = folder.newFile("app.jar");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(outer));
+		try {
+			put(out, name, content, method);
+		} finally {
+			out.close();
+		}
+		return outer;
+	}
+
+	private static void put(JarOutputStream out, String name, byte[] content, int method) throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(method);
+		if (method == ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			entry.setCrc(crc.getValue());
+			entry.setSize(content.length);
+			entry.setCompressedSize(content.length);
+		}
+		out.putNextEntry(entry);
+		out.write(content);
+		out.closeEntry();
+	}
+
+	private static byte[] repeated(String text, int times) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			builder.append(text).append(i);
+		}
+		return builder.toString().getBytes();
+	}
+}
@@ -0,0 +1,200 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.ParallelExecution;
+import org.junit.extensions.cpsuite.ClasspathSuite.SharedWorkQueue;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.model.RunnerScheduler;
+
+public final class ParallelChildSchedulerTest {
+
+	private static final int CHILDREN = 8;
+	private static final String WORK_QUEUE_PROPERTY = "cpsuite.workQueue";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void clearProperty() {
+		System.clearProperty(WORK_QUEUE_PROPERTY);
+	}
+
+	@Test
+	public void fixedPoolRunsEveryChildOnceWithAtMostMaxConcurrencyAtATime() throws Throwable {
+		Recorder recorder = new Recorder();
+
+		new ParallelChildScheduler(false, 2).runAll(children(), recorder);
+
+		assertEquals(CHILDREN, recorder.ran.size());
+		assertEquals(2, recorder.peak.get());
+		for (Thread each : recorder.threads) {
+			assertTrue(each.getName(), each.getName().startsWith("cpsuite-child-"));
+			assertTrue(each.getName(), each.isDaemon());
+		}
+	}
+
+	@Test
+	public void virtualThreadsRunEveryChildOnceIfTheJvmHasThem() throws Throwable {
+		Recorder recorder = new Recorder();
+
+		new ParallelChildScheduler(true, 3).runAll(children(), recorder);
+
+		assertEquals(CHILDREN, recorder.ran.size());
+		assertTrue(String.valueOf(recorder.peak.get()), recorder.peak.get() <= 3);
+		Method isVirtual = isVirtualMethod();
+		for (Thread each : recorder.threads) {
+			if (isVirtual == null) {
+				// Falls back to the pool of platform threads
+				assertTrue(each.getName(), each.getName().startsWith("cpsuite-child-"));
+			} else {
+				assertEquals(Boolean.TRUE, isVirtual.invoke(each));
+			}
+		}
+	}
+
+	@Test
+	public void suiteFailsIfItHasBothParallelExecutionAndAScheduler() throws Exception {
+		ClasspathSuite suite = suite(ParallelSuite.class);
+		RecordingScheduler scheduler = new RecordingScheduler();
+		suite.setScheduler(scheduler);
+
+		Result result = run(suite);
+
+		assertEquals(1, result.getFailureCount());
+		assertTrue(result.getFailures().get(0).getMessage(), result.getFailures().get(0).getMessage().contains(
+				"ParallelComputer"));
+		assertEquals(0, scheduler.scheduled);
+	}
+
+	@Test
+	public void schedulerRunsTheChildrenOfASharedWorkQueue() throws Exception {
+		System.setProperty(WORK_QUEUE_PROPERTY, new File(folder.getRoot(), "queue").getPath());
+		ClasspathSuite suite = suite(QueueSuite.class);
+		RecordingScheduler scheduler = new RecordingScheduler();
+		suite.setScheduler(scheduler);
+
+		Result result = run(suite);
+
+		assertTrue(result.wasSuccessful());
+		assertEquals(2, result.getRunCount());
+		assertEquals(2, scheduler.scheduled);
+		assertTrue(scheduler.finished);
+	}
+
+	private static ClasspathSuite suite(Class<?> suiteClass) throws Exception {
+		return new ClasspathSuite(suiteClass, new AllDefaultPossibilitiesBuilder(true), new ClassesFinderFactory() {
+			public ClassesFinder create(FinderConfig config) {
+				return new ClassesFinder() {
+					public List<Class<?>> find() {
+						return Arrays.<Class<?>> asList(First.class, Second.class);
+					}
+				};
+			}
+		});
+	}
+
+	private static Result run(ClasspathSuite suite) {
+		Result result = new Result();
+		RunNotifier notifier = new RunNotifier();
+		notifier.addListener(result.createListener());
+		suite.run(notifier);
+		return result;
+	}
+
+	private static List<Runner> children() {
+		List<Runner> children = new ArrayList<Runner>();
+		for (int i = 0; i < CHILDREN; i++) {
+			children.add(Request.aClass(i % 2 == 0 ? First.class : Second.class).getRunner());
+		}
+		return children;
+	}
+
+	/**
+	 * @return <code>null</code> if the JVM has no virtual threads
+	 */
+	private static Method isVirtualMethod() {
+		try {
+			return Thread.class.getMethod("isVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Keeps each child running for a while, so that the children overlap.
+	 */
+	private static final class Recorder implements ParallelChildScheduler.ChildRunner {
+		final List<Runner> ran = Collections.synchronizedList(new ArrayList<Runner>());
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger peak = new AtomicInteger();
+
+		public void run(Runner child) {
+			int now = running.incrementAndGet();
+			synchronized (peak) {
+				peak.set(Math.max(peak.get(), now));
+			}
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				running.decrementAndGet();
+			}
+			ran.add(child);
+			threads.add(Thread.currentThread());
+		}
+	}
+
+	private static final class RecordingScheduler implements RunnerScheduler {
+		int scheduled;
+		boolean finished;
+
+		public void schedule(Runnable childStatement) {
+			scheduled++;
+			childStatement.run();
+		}
+
+		public void finished() {
+			finished = true;
+		}
+	}
+
+	@ParallelExecution
+	public static final class ParallelSuite {
+	}
+
+	@SharedWorkQueue("unused")
+	public static final class QueueSuite {
+	}
+
+	public static final class First {
+		@Test
+		public void test() {
+		}
+	}
+
+	public static final class Second {
+		@Test
+		public void test() {
+		}
+	}
+}
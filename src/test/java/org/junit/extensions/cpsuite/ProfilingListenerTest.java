@@ -0,0 +1,132 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.ProfileReport;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+public final class ProfilingListenerTest {
+
+	private static final String JSON_REPORT = "target/cpsuite-profile-test/report.json";
+	private static final String CSV_REPORT = "target/cpsuite-profile-test/report.csv";
+
+	private static final String SLOW = SlowTest.class.getName();
+	private static final String NAMED = NamedTest.class.getName();
+
+	@After
+	public void deleteReports() {
+		new File(JSON_REPORT).delete();
+		new File(CSV_REPORT).delete();
+	}
+
+	@Test
+	public void jsonReportListsSlowestFirstAndEscapesNames() throws Exception {
+		List<String> lines = runAndRead(JsonSuite.class, JSON_REPORT);
+
+		assertEquals("{", lines.get(0));
+		assertEquals("  \"classes\": [", lines.get(1));
+		assertTrue(lines.get(2), lines.get(2).startsWith("    {\"name\": \"" + SLOW + "\", \"wallMillis\": "));
+		int methods = lines.indexOf("  \"methods\": [");
+		assertTrue(lines.get(methods + 1), lines.get(methods + 1).startsWith("    {\"name\": \"" + SLOW + ".slow\""));
+		assertTrue(lines.toString(), containsStartingWith(lines, "    {\"name\": \"" + NAMED
+				+ ".test[with, \\\"quotes\\\"]\", \"wallMillis\": "));
+		assertEquals("}", lines.get(lines.size() - 1));
+	}
+
+	@Test
+	public void csvReportListsSlowestFirstAndQuotesNames() throws Exception {
+		List<String> lines = runAndRead(CsvSuite.class, CSV_REPORT);
+
+		assertEquals("kind,name,wallMillis,cpuMillis,allocatedBytes", lines.get(0));
+		assertTrue(lines.get(1), lines.get(1).startsWith("class," + SLOW + ","));
+		List<String> methods = new ArrayList<String>();
+		for (String each : lines) {
+			if (each.startsWith("method,")) {
+				methods.add(each);
+			}
+		}
+		assertEquals(3, methods.size());
+		assertTrue(methods.get(0), methods.get(0).startsWith("method," + SLOW + ".slow,"));
+		assertTrue(lines.toString(), containsStartingWith(methods, "method,\"" + NAMED + ".test[with, \"\"quotes\"\"]\","));
+		assertTrue(lines.toString(), containsStartingWith(methods, "method," + NAMED + ".test[plain],"));
+	}
+
+	private static List<String> runAndRead(Class<?> suiteClass, String report) throws Exception {
+		ClasspathSuite suite = new ClasspathSuite(suiteClass, new AllDefaultPossibilitiesBuilder(true),
+				new ClassesFinderFactory() {
+					public ClassesFinder create(FinderConfig config) {
+						return new ClassesFinder() {
+							public List<Class<?>> find() {
+								return Arrays.<Class<?>> asList(NamedTest.class, SlowTest.class);
+							}
+						};
+					}
+				});
+		Result result = new Result();
+		RunNotifier notifier = new RunNotifier();
+		notifier.addListener(result.createListener());
+		suite.run(notifier);
+		assertEquals(3, result.getRunCount());
+		assertTrue(result.wasSuccessful());
+		return read(new File(report));
+	}
+
+	private static List<String> read(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+	}
+
+	private static boolean containsStartingWith(List<String> lines, String start) {
+		for (String each : lines) {
+			if (each.startsWith(start)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@ProfileReport(JSON_REPORT)
+	public static final class JsonSuite {
+	}
+
+	@ProfileReport(CSV_REPORT)
+	public static final class CsvSuite {
+	}
+
+	public static final class SlowTest {
+		@Test
+		public void slow() throws InterruptedException {
+			Thread.sleep(100);
+		}
+	}
+
+	@RunWith(Parameterized.class)
+	public static final class NamedTest {
+		@Parameters(name = "{0}")
+		public static List<Object[]> names() {
+			return Arrays.asList(new Object[] { "plain" }, new Object[] { "with, \"quotes\"" });
+		}
+
+		public NamedTest(String name) {
+		}
+
+		@Test
+		public void test() {
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.ClassOrder;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunNotifier;
+
+public final class RecentFailuresFirstTest {
+
+	private static final String FAILURE_HISTORY_PROPERTY = "cpsuite.failureHistory";
+	private static final ClassLoader LOADER = RecentFailuresFirstTest.class.getClassLoader();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File historyFile;
+
+	@Before
+	public void useHistoryFile() {
+		historyFile = new File(folder.getRoot(), "history.txt");
+		System.setProperty(FAILURE_HISTORY_PROPERTY, historyFile.getPath());
+	}
+
+	@After
+	public void clearProperty() {
+		System.clearProperty(FAILURE_HISTORY_PROPERTY);
+	}
+
+	@Test
+	public void recentFailuresComeFirstThenChangedAndNewClassesThenAllOthers() throws IOException {
+		Files.write(historyFile.toPath(), Arrays.asList("runs\t12", //
+				entry(RecentFailure.class, 12, modified(RecentFailure.class)), //
+				entry(OlderFailure.class, 10, modified(OlderFailure.class)), //
+				entry(OldFailure.class, 2, modified(OldFailure.class)), //
+				entry(Changed.class, 0, 1), //
+				entry(Unchanged.class, 0, modified(Unchanged.class))), Charset.forName("UTF-8"));
+
+		assertEquals(Arrays.<Class<?>> asList(RecentFailure.class, OlderFailure.class, Changed.class,
+				NewClass.class, OldFailure.class, Unchanged.class), sorted(new RecentFailuresFirst(Suite.class)));
+	}
+
+	@Test
+	public void withoutHistoryTheOrderIsAlphabetical() {
+		assertEquals(Arrays.<Class<?>> asList(Changed.class, NewClass.class, OldFailure.class, OlderFailure.class,
+				RecentFailure.class, Unchanged.class), sorted(new RecentFailuresFirst(Suite.class)));
+	}
+
+	@Test
+	public void suiteRunsTheClassThatFailedLastTimeFirst() throws Exception {
+		suite().run(new RunNotifier());
+
+		List<Description> children = suite().getDescription().getChildren();
+
+		assertEquals(Failing.class.getName(), children.get(0).getClassName());
+		assertEquals(Passing.class.getName(), children.get(1).getClassName());
+	}
+
+	private static ClasspathSuite suite() throws Exception {
+		return new ClasspathSuite(Suite.class, new AllDefaultPossibilitiesBuilder(true), new ClassesFinderFactory() {
+			public ClassesFinder create(FinderConfig config) {
+				return new ClassesFinder() {
+					public List<Class<?>> find() {
+						return Arrays.<Class<?>> asList(Passing.class, Failing.class);
+					}
+				};
+			}
+		});
+	}
+
+	/**
+	 * Ranks the classes first, as the suite does.
+	 */
+	private static List<Class<?>> sorted(RecentFailuresFirst comparator) {
+		List<Class<?>> classes = new ArrayList<Class<?>>(Arrays.<Class<?>> asList(Unchanged.class, OldFailure.class,
+				NewClass.class, Changed.class, OlderFailure.class, RecentFailure.class));
+		comparator.rankAll(classes);
+		Collections.sort(classes, comparator);
+		return classes;
+	}
+
+	private static String entry(Class<?> clazz, int lastFailedRun, long classFileModified) {
+		return clazz.getName() + "\t" + lastFailedRun + "\t" + classFileModified;
+	}
+
+	private static long modified(Class<?> clazz) {
+		return FailureHistory.classFileModified(clazz.getName(), LOADER);
+	}
+
+	@ClassOrder(RecentFailuresFirst.class)
+	public static final class Suite {
+	}
+
+	public static final class RecentFailure {
+	}
+
+	public static final class OlderFailure {
+	}
+
+	public static final class OldFailure {
+	}
+
+	public static final class Changed {
+	}
+
+	public static final class NewClass {
+	}
+
+	public static final class Unchanged {
+	}
+
+	public static final class Passing {
+		@Test
+		public void test() {
+		}
+	}
+
+	public static final class Failing {
+		@Test
+		public void test() {
+			fail("fails on purpose");
+		}
+	}
+}
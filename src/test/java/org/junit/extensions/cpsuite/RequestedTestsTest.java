@@ -0,0 +1,183 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.FinderFactory;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+
+public final class RequestedTestsTest {
+
+	@After
+	public void clearProperty() {
+		System.clearProperty(RequestedTests.TEST_PROPERTY);
+	}
+
+	@Test
+	public void nothingIsRequestedWithoutProperty() {
+		assertNull(RequestedTests.fromSystemProperties());
+		System.setProperty(RequestedTests.TEST_PROPERTY, " , ");
+		assertNull(RequestedTests.fromSystemProperties());
+	}
+
+	@Test
+	public void propertyRequestsClassesAndMethods() {
+		System.setProperty(RequestedTests.TEST_PROPERTY, "a.*Test#first, b.Other");
+
+		Filter filter = RequestedTests.fromSystemProperties();
+
+		assertArrayEquals(new String[] { "a.*Test", "b.Other" }, RequestedTests.getClassnames(filter));
+		assertTrue(filter.shouldRun(Description.createTestDescription("a.SomeTest", "first")));
+		assertTrue(filter.shouldRun(Description.createTestDescription("a.SomeTest", "first[0]")));
+		assertFalse(filter.shouldRun(Description.createTestDescription("a.SomeTest", "second")));
+		assertTrue(filter.shouldRun(Description.createTestDescription("b.Other", "any")));
+		assertFalse(filter.shouldRun(Description.createTestDescription("c.Third", "first")));
+	}
+
+	@Test
+	public void methodFilterRequestsItsClass() {
+		Filter filter = Filter.matchMethodDescription(Description.createTestDescription(First.class, "test"));
+
+		assertArrayEquals(new String[] { First.class.getName() }, RequestedTests.getClassnames(filter));
+	}
+
+	@Test
+	public void otherFiltersRequestNothing() {
+		assertNull(RequestedTests.getClassnames(Filter.ALL));
+		assertNull(RequestedTests.getClassnames(Filter.matchMethodDescription(Description.createSuiteDescription(
+				First.class))));
+	}
+
+	@Test
+	public void methodFilterNarrowsTheSearch() throws Exception {
+		RecordingFactory factory = new RecordingFactory(true);
+		ClasspathSuite suite = new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true), factory);
+
+		suite.filter(Filter.matchMethodDescription(Description.createTestDescription(First.class, "test")));
+
+		assertEquals(Arrays.asList(First.class.getName()), factory.requests);
+		assertEquals(1, suite.getDescription().testCount());
+	}
+
+	@Test
+	public void propertyNarrowsTheSearch() throws Exception {
+		System.setProperty(RequestedTests.TEST_PROPERTY, Second.class.getName());
+		RecordingFactory factory = new RecordingFactory(true);
+
+		ClasspathSuite suite = new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true), factory);
+
+		assertEquals(Arrays.asList(Second.class.getName()), factory.requests);
+		assertEquals(Second.class.getName(), suite.getDescription().getChildren().get(0).getClassName());
+	}
+
+	@Test
+	public void fallsBackToFullSearchIfNarrowedSearchFindsNothing() throws Exception {
+		RecordingFactory factory = new RecordingFactory(false);
+		ClasspathSuite suite = new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true), factory);
+
+		suite.filter(Filter.matchMethodDescription(Description.createTestDescription(First.class, "test")));
+
+		assertEquals(Arrays.asList(First.class.getName(), ""), factory.requests);
+		assertEquals(1, suite.getDescription().testCount());
+	}
+
+	@Test
+	public void describedSuiteIsNotSearchedAgainWhenFiltered() throws Exception {
+		RecordingFactory factory = new RecordingFactory(true);
+		ClasspathSuite suite = new ClasspathSuite(AllTests.class, new AllDefaultPossibilitiesBuilder(true), factory);
+
+		assertEquals(2, suite.getDescription().testCount());
+		suite.filter(Filter.matchMethodDescription(Description.createTestDescription(First.class, "test")));
+
+		assertEquals(Arrays.asList(""), factory.requests);
+		assertEquals(1, suite.getDescription().testCount());
+	}
+
+	@Test
+	public void propertyNarrowsTheSearchOfSuitesCreatedByRunnerBuilders() throws Exception {
+		System.setProperty(RequestedTests.TEST_PROPERTY, Second.class.getName());
+
+		Runner runner = new AllDefaultPossibilitiesBuilder(true).safeRunnerForClass(BuiltSuite.class);
+
+		assertEquals(1, runner.getDescription().testCount());
+		assertEquals(Second.class.getName(), runner.getDescription().getChildren().get(0).getClassName());
+		assertEquals(Arrays.asList(Second.class.getName()), BuiltSuite.requests);
+	}
+
+	/**
+	 * Finds {@link First} and {@link Second}, or the requested ones among
+	 * them if it honors requests.
+	 */
+	private static final class RecordingFactory implements ClassesFinderFactory {
+		private final boolean honorsRequests;
+		final List<String> requests = new ArrayList<String>();
+
+		RecordingFactory(boolean honorsRequests) {
+			this.honorsRequests = honorsRequests;
+		}
+
+		public ClassesFinder create(FinderConfig config) {
+			final String[] requested = config.getRequestedClassnames();
+			StringBuilder request = new StringBuilder();
+			for (String each : requested) {
+				request.append(request.length() == 0 ? "" : ",").append(each);
+			}
+			requests.add(request.toString());
+			return new ClassesFinder() {
+				public List<Class<?>> find() {
+					List<Class<?>> found = new ArrayList<Class<?>>();
+					for (Class<?> each : Arrays.<Class<?>> asList(First.class, Second.class)) {
+						if (requested.length == 0 || honorsRequests && Arrays.asList(requested).contains(each.getName())) {
+							found.add(each);
+						}
+					}
+					return found;
+				}
+			};
+		}
+	}
+
+	public static final class AllTests {
+	}
+
+	@RunWith(ClasspathSuite.class)
+	@FinderFactory(BuiltSuite.Factory.class)
+	public static final class BuiltSuite {
+		static final List<String> requests = new ArrayList<String>();
+
+		public static final class Factory implements ClassesFinderFactory {
+			private final RecordingFactory recording = new RecordingFactory(true);
+
+			public ClassesFinder create(FinderConfig config) {
+				ClassesFinder finder = recording.create(config);
+				requests.addAll(recording.requests);
+				return finder;
+			}
+		}
+	}
+
+	public static final class First {
+		@Test
+		public void test() {
+		}
+	}
+
+	public static final class Second {
+		@Test
+		public void test() {
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.ResourceLock;
+import org.junit.extensions.cpsuite.ClasspathSuite.ResourceLocks;
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.RunNotifier;
+
+public final class ResourceScheduleTest {
+
+	@Test
+	public void readersRunTogether() throws InterruptedException {
+		Runner first = child(Reader.class);
+		Runner second = child(Reader.class);
+		ResourceSchedule schedule = new ResourceSchedule(Arrays.asList(first, second));
+
+		assertSame(first, schedule.takeNext());
+		assertSame(second, schedule.takeNext());
+		assertFalse(schedule.hasPending());
+	}
+
+	@Test
+	public void exclusiveUserWaitsForReadersAndUnrelatedChildOvertakes() throws InterruptedException {
+		Runner reader = child(Reader.class);
+		Runner writer = child(Writer.class);
+		Runner unrelated = child(Unrelated.class);
+		ResourceSchedule schedule = new ResourceSchedule(Arrays.asList(reader, writer, unrelated));
+
+		assertSame(reader, schedule.takeNext());
+		assertSame(unrelated, schedule.takeNext());
+		Taker taker = new Taker(schedule);
+		assertTrue("writer started while the reader runs", taker.isBlocked());
+
+		schedule.finished(reader);
+		assertSame(writer, taker.await());
+	}
+
+	@Test
+	public void waitingExclusiveUserKeepsLaterReadersOut() throws InterruptedException {
+		Runner firstReader = child(Reader.class);
+		Runner writer = child(Writer.class);
+		Runner secondReader = child(Reader.class);
+		ResourceSchedule schedule = new ResourceSchedule(Arrays.asList(firstReader, writer, secondReader));
+
+		assertSame(firstReader, schedule.takeNext());
+		Taker taker = new Taker(schedule);
+		assertTrue("reader overtook the waiting writer", taker.isBlocked());
+
+		schedule.finished(firstReader);
+		assertSame(writer, taker.await());
+		taker = new Taker(schedule);
+		assertTrue("reader started while the writer runs", taker.isBlocked());
+		schedule.finished(writer);
+		assertSame(secondReader, taker.await());
+	}
+
+	@Test
+	public void strongestAccessOfResourceDeclaredTwiceCounts() {
+		Map<String, ResourceAccess> claims = ResourceSchedule.getClaims(Description.createSuiteDescription(
+				ReaderAndWriter.class));
+
+		assertEquals(1, claims.size());
+		assertEquals(ResourceAccess.EXCLUSIVE, claims.get("db"));
+	}
+
+	private static Runner child(Class<?> testClass) {
+		final Description description = Description.createSuiteDescription(testClass.getName(),
+				testClass.getAnnotations());
+		return new Runner() {
+			@Override
+			public Description getDescription() {
+				return description;
+			}
+
+			@Override
+			public void run(RunNotifier notifier) {
+			}
+		};
+	}
+
+	/**
+	 * Takes the next child on a thread of its own.
+	 */
+	private static final class Taker extends Thread {
+		private final ResourceSchedule schedule;
+		private final AtomicReference<Runner> taken = new AtomicReference<Runner>();
+
+		Taker(ResourceSchedule schedule) {
+			this.schedule = schedule;
+			setDaemon(true);
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				taken.set(schedule.takeNext());
+			} catch (InterruptedException e) {
+				// The test is over
+			}
+		}
+
+		boolean isBlocked() throws InterruptedException {
+			join(200);
+			return isAlive();
+		}
+
+		Runner await() throws InterruptedException {
+			join(5000);
+			return taken.get();
+		}
+	}
+
+	@ResourceLock(value = "db", access = ResourceAccess.READ)
+	static final class Reader {
+	}
+
+	@ResourceLock("db")
+	static final class Writer {
+	}
+
+	@ResourceLock("network")
+	static final class Unrelated {
+	}
+
+	@ResourceLocks({ @ResourceLock(value = "db", access = ResourceAccess.READ), @ResourceLock("db") })
+	static final class ReaderAndWriter {
+	}
+}
@@ -0,0 +1,151 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.extensions.cpsuite.ClasspathSuite.ClassnameFilters;
+import org.junit.extensions.cpsuite.ClasspathSuite.ClasspathProperty;
+import org.junit.extensions.cpsuite.ClasspathSuite.DiscoverTogether;
+import org.junit.extensions.cpsuite.ClasspathSuite.FinderFactory;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+
+/**
+ * The suites search the test classes of this project. Once the first suite of
+ * a group has been created, the class paths are pointed at an empty
+ * directory: only suites that were discovered together with it still find
+ * their classes.
+ */
+public final class SharedDiscoveryTest {
+
+	private static final String CLASSPATH_PROPERTY = "cpsuite.test.shared.classpath";
+	private static final String OTHER_CLASSPATH_PROPERTY = "cpsuite.test.shared.other.classpath";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void searchTestClasses() throws Exception {
+		String testClasses = new File(SharedDiscoveryTest.class.getProtectionDomain().getCodeSource().getLocation()
+				.toURI()).getPath();
+		System.setProperty(CLASSPATH_PROPERTY, testClasses);
+		System.setProperty(OTHER_CLASSPATH_PROPERTY, testClasses);
+	}
+
+	@After
+	public void clearProperties() {
+		System.clearProperty(CLASSPATH_PROPERTY);
+		System.clearProperty(OTHER_CLASSPATH_PROPERTY);
+	}
+
+	@Test
+	public void suitesOfAGroupAreDiscoveredWhenTheFirstOfThemIsCreated() throws Exception {
+		List<String> first = testClasses(FirstOfGroup.class);
+		searchEmptyDirectory();
+
+		List<String> second = testClasses(SecondOfGroup.class);
+
+		assertEquals(names(AlphaTest.class), first);
+		assertEquals(names(BetaTest.class), second);
+	}
+
+	@Test
+	public void suitesSearchingAnotherClassPathAreDiscoveredOnTheirOwn() throws Exception {
+		assertEquals(names(AlphaTest.class), testClasses(WithOtherClassPath.class));
+		searchEmptyDirectory();
+
+		assertEquals(names(), testClasses(OtherClassPath.class));
+	}
+
+	@Test
+	public void suitesWithTheirOwnFactoryAreDiscoveredOnTheirOwn() throws Exception {
+		assertEquals(names(AlphaTest.class), testClasses(WithOwnFactory.class));
+		searchEmptyDirectory();
+
+		assertEquals(names(), testClasses(OwnFactory.class));
+	}
+
+	private void searchEmptyDirectory() {
+		String empty = new File(folder.getRoot(), "empty").getPath();
+		new File(empty).mkdir();
+		System.setProperty(CLASSPATH_PROPERTY, empty);
+		System.setProperty(OTHER_CLASSPATH_PROPERTY, empty);
+	}
+
+	private static List<String> testClasses(Class<?> suiteClass) throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (Description each : new ClasspathSuite(suiteClass, new AllDefaultPossibilitiesBuilder(true))
+				.getDescription().getChildren()) {
+			names.add(each.getClassName());
+		}
+		return names;
+	}
+
+	private static List<String> names(Class<?>... classes) {
+		List<String> names = new ArrayList<String>();
+		for (Class<?> each : classes) {
+			names.add(each.getName());
+		}
+		return names;
+	}
+
+	@DiscoverTogether({ FirstOfGroup.class, SecondOfGroup.class })
+	@ClasspathProperty(CLASSPATH_PROPERTY)
+	@ClassnameFilters("org.junit.extensions.cpsuite.SharedDiscoveryTest$AlphaTest")
+	public static final class FirstOfGroup {
+	}
+
+	@DiscoverTogether({ FirstOfGroup.class, SecondOfGroup.class })
+	@ClasspathProperty(CLASSPATH_PROPERTY)
+	@ClassnameFilters("org.junit.extensions.cpsuite.SharedDiscoveryTest$BetaTest")
+	public static final class SecondOfGroup {
+	}
+
+	@DiscoverTogether({ WithOtherClassPath.class, OtherClassPath.class })
+	@ClasspathProperty(CLASSPATH_PROPERTY)
+	@ClassnameFilters("org.junit.extensions.cpsuite.SharedDiscoveryTest$AlphaTest")
+	public static final class WithOtherClassPath {
+	}
+
+	@DiscoverTogether({ WithOtherClassPath.class, OtherClassPath.class })
+	@ClasspathProperty(OTHER_CLASSPATH_PROPERTY)
+	@ClassnameFilters("org.junit.extensions.cpsuite.SharedDiscoveryTest$BetaTest")
+	public static final class OtherClassPath {
+	}
+
+	@DiscoverTogether({ WithOwnFactory.class, OwnFactory.class })
+	@ClasspathProperty(CLASSPATH_PROPERTY)
+	@ClassnameFilters("org.junit.extensions.cpsuite.SharedDiscoveryTest$AlphaTest")
+	public static final class WithOwnFactory {
+	}
+
+	@DiscoverTogether({ WithOwnFactory.class, OwnFactory.class })
+	@ClasspathProperty(CLASSPATH_PROPERTY)
+	@ClassnameFilters("org.junit.extensions.cpsuite.SharedDiscoveryTest$BetaTest")
+	@FinderFactory(SubclassedFinderFactory.class)
+	public static final class OwnFactory {
+	}
+
+	public static final class SubclassedFinderFactory extends ClasspathFinderFactory {
+	}
+
+	public static final class AlphaTest {
+		@Test
+		public void test() {
+		}
+	}
+
+	public static final class BetaTest {
+		@Test
+		public void test() {
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+/**
+ * Every test uses classes of its own, since a class is only initialized once.
+ */
+public final class StaticInitializerTest {
+
+	static final Map<String, String> initializedBy = new ConcurrentHashMap<String, String>();
+
+	@Test
+	public void initializesAheadOnlyAsFarAsTheLookahead() throws Exception {
+		StaticInitializer initializer = new StaticInitializer(Arrays.<Class<?>> asList(Ahead.class, Behind.class), 1, 1);
+		initializer.start();
+		try {
+			awaitInitialization(Ahead.class);
+
+			assertTrue(initializedBy.get(Ahead.class.getName()).startsWith("cpsuite-static-init-"));
+			assertFalse(initializedBy.containsKey(Behind.class.getName()));
+			assertNull(initializer.awaitInitialized(Ahead.class));
+			assertNull(initializer.awaitInitialized(Behind.class));
+			assertTrue(initializedBy.containsKey(Behind.class.getName()));
+		} finally {
+			initializer.shutdown();
+		}
+	}
+
+	@Test
+	public void initializesOnAskingThreadWithoutBackgroundThreads() throws Exception {
+		StaticInitializer initializer = new StaticInitializer(Arrays.<Class<?>> asList(AskedFor.class), 1, 1);
+
+		assertNull(initializer.awaitInitialized(AskedFor.class));
+
+		assertEquals(Thread.currentThread().getName(), initializedBy.get(AskedFor.class.getName()));
+	}
+
+	@Test
+	public void handsErrorOfBackgroundInitializationToAskingThread() throws Exception {
+		StaticInitializer initializer = new StaticInitializer(Arrays.<Class<?>> asList(FailingInBackground.class), 1, 1);
+		initializer.start();
+		try {
+			awaitInitialization(FailingInBackground.class);
+
+			Throwable error = initializer.awaitInitialized(FailingInBackground.class);
+
+			assertTrue(String.valueOf(error), error instanceof ExceptionInInitializerError);
+			assertEquals("broken " + FailingInBackground.class.getName(), error.getCause().getMessage());
+			assertSame(error, initializer.awaitInitialized(FailingInBackground.class));
+		} finally {
+			initializer.shutdown();
+		}
+	}
+
+	@Test
+	public void attributesErrorToFailingClassOnly() throws Exception {
+		StaticInitializer initializer = new StaticInitializer(Arrays.<Class<?>> asList(BeforeFailing.class,
+				Failing.class, AfterFailing.class), 2, 3);
+		initializer.start();
+		try {
+			assertNull(initializer.awaitInitialized(BeforeFailing.class));
+			assertTrue(initializer.awaitInitialized(Failing.class) instanceof ExceptionInInitializerError);
+			assertNull(initializer.awaitInitialized(AfterFailing.class));
+		} finally {
+			initializer.shutdown();
+		}
+	}
+
+	@Test
+	public void unknownClassesNeedNoInitialization() throws Exception {
+		StaticInitializer initializer = new StaticInitializer(Arrays.<Class<?>> asList(Unknown.class), 1, 1);
+
+		assertNull(initializer.awaitInitialized(String.class));
+		assertFalse(initializedBy.containsKey(Unknown.class.getName()));
+	}
+
+	private static void awaitInitialization(Class<?> clazz) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!initializedBy.containsKey(clazz.getName()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	static void initialized(Class<?> clazz) {
+		initializedBy.put(clazz.getName(), Thread.currentThread().getName());
+	}
+
+	static void initializationFails(Class<?> clazz) {
+		initialized(clazz);
+		throw new IllegalStateException("broken " + clazz.getName());
+	}
+
+	static final class Ahead {
+		static {
+			initialized(Ahead.class);
+		}
+	}
+
+	static final class Behind {
+		static {
+			initialized(Behind.class);
+		}
+	}
+
+	static final class AskedFor {
+		static {
+			initialized(AskedFor.class);
+		}
+	}
+
+	static final class FailingInBackground {
+		static {
+			initializationFails(FailingInBackground.class);
+		}
+	}
+
+	static final class BeforeFailing {
+		static {
+			initialized(BeforeFailing.class);
+		}
+	}
+
+	static final class Failing {
+		static {
+			initializationFails(Failing.class);
+		}
+	}
+
+	static final class AfterFailing {
+		static {
+			initialized(AfterFailing.class);
+		}
+	}
+
+	static final class Unknown {
+		static {
+			initialized(Unknown.class);
+		}
+	}
+}
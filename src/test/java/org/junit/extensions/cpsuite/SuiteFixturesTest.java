@@ -0,0 +1,169 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class SuiteFixturesTest {
+
+	static final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+	static final RuntimeException FAILURE = new RuntimeException("broken");
+
+	private final List<Method> methods = new ArrayList<Method>();
+	private final Map<Method, String[]> dependencies = new HashMap<Method, String[]>();
+
+	@Before
+	public void clearCalls() {
+		calls.clear();
+	}
+
+	@Test
+	public void runsInGivenOrderOnCallingThreadWithDependenciesFirst() throws Exception {
+		add("second", "third");
+		add("first");
+		add("third");
+
+		new SuiteFixtures(methods, dependencies).runInOrder(true);
+
+		assertEquals(Arrays.asList("third", "second", "first"), names());
+		for (String each : calls) {
+			assertTrue(each, each.endsWith("@" + Thread.currentThread().getName()));
+		}
+	}
+
+	@Test
+	public void stopsAtFirstFailureAndHandsItOut() throws Exception {
+		add("first");
+		add("failing");
+		add("third");
+		SuiteFixtures fixtures = new SuiteFixtures(methods, dependencies);
+
+		fixtures.runInOrder(true);
+
+		assertEquals(Arrays.asList("first", "failing"), names());
+		assertSame(FAILURE, fixtures.awaitAll());
+		assertSame(FAILURE, fixtures.await(Arrays.asList("third")));
+		assertNull(fixtures.await(Arrays.asList("first")));
+		assertEquals(0, fixtures.awaitUnreportedFailures().size());
+	}
+
+	@Test
+	public void runsIndependentMethodsAfterFailureUnlessStopping() throws Exception {
+		add("failing");
+		add("first", "failing");
+		add("third");
+		SuiteFixtures fixtures = new SuiteFixtures(methods, dependencies);
+
+		fixtures.runInOrder(false);
+
+		assertEquals(Arrays.asList("failing", "third"), names());
+		assertEquals(Arrays.<Throwable> asList(FAILURE), fixtures.awaitUnreportedFailures());
+		assertSame(FAILURE, fixtures.await(Arrays.asList("first")));
+	}
+
+	@Test
+	public void concurrentMethodsWaitForTheirDependencies() throws Exception {
+		add("third", "second");
+		add("second", "first");
+		add("first");
+		SuiteFixtures fixtures = new SuiteFixtures(methods, dependencies);
+
+		fixtures.start();
+
+		assertNull(fixtures.awaitAll());
+		assertEquals(Arrays.asList("first", "second", "third"), names());
+		assertEquals(3, fixtures.getDurations().size());
+	}
+
+	@Test
+	public void concurrentMethodsInheritFailuresOfTheirDependencies() throws Exception {
+		add("failing");
+		add("first", "failing");
+		SuiteFixtures fixtures = new SuiteFixtures(methods, dependencies);
+
+		fixtures.start();
+
+		assertSame(FAILURE, fixtures.await(Arrays.asList("first")));
+		assertEquals(Arrays.asList("failing"), names());
+		// Handed out through the method depending on it
+		assertEquals(0, fixtures.awaitUnreportedFailures().size());
+	}
+
+	@Test
+	public void rejectsCycles() throws Exception {
+		add("first", "third");
+		add("second", "first");
+		add("third", "second");
+		try {
+			new SuiteFixtures(methods, dependencies);
+			fail();
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("cyclically"));
+		}
+	}
+
+	@Test
+	public void rejectsUnknownDependencies() throws Exception {
+		add("first", "missing");
+		try {
+			new SuiteFixtures(methods, dependencies);
+			fail();
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("missing"));
+		}
+	}
+
+	private void add(String name, String... dependsOn) throws NoSuchMethodException {
+		Method method = Fixtures.class.getMethod(name);
+		methods.add(method);
+		dependencies.put(method, dependsOn);
+	}
+
+	private static List<String> names() {
+		List<String> names = new ArrayList<String>();
+		synchronized (calls) {
+			for (String each : calls) {
+				names.add(each.substring(0, each.indexOf('@')));
+			}
+		}
+		return names;
+	}
+
+	public static final class Fixtures {
+		public static void first() {
+			record("first");
+		}
+
+		public static void second() throws InterruptedException {
+			// Gives methods that don't wait for it a chance to overtake it
+			Thread.sleep(50);
+			record("second");
+		}
+
+		public static void third() {
+			record("third");
+		}
+
+		public static void failing() {
+			record("failing");
+			throw FAILURE;
+		}
+
+		private static void record(String name) {
+			calls.add(name + "@" + Thread.currentThread().getName());
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs a daemon in this JVM with a class path of its own: JUnit, ClasspathSuite
+ * and a directory of sample classes compiled by the test.
+ */
+public final class TestDaemonTest {
+
+	private static final String SUITE = "sample.AllTests";
+	private static final String CLASSPATH_PROPERTY = "sample.classpath";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File classes;
+	private File daemonDirectory;
+	private File report;
+	private Thread daemon;
+
+	@Before
+	public void startDaemon() throws Exception {
+		classes = folder.newFolder("classes");
+		daemonDirectory = new File(folder.getRoot(), "daemon");
+		report = new File(folder.getRoot(), "discovery.txt");
+		compile("AllTests", "@org.junit.runner.RunWith(org.junit.extensions.cpsuite.ClasspathSuite.class)\n"
+				+ "@org.junit.extensions.cpsuite.ClasspathSuite.ClasspathProperty(\"" + CLASSPATH_PROPERTY + "\")\n"
+				+ "public class AllTests {}");
+		compileSampleTest("first");
+		final TestDaemon testDaemon = new TestDaemon(daemonDirectory, location(Test.class) + File.pathSeparator
+				+ location(org.hamcrest.Matcher.class) + File.pathSeparator + location(ClasspathSuite.class)
+				+ File.pathSeparator + classes);
+		daemon = new Thread() {
+			@Override
+			public void run() {
+				try {
+					testDaemon.serve();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		daemon.start();
+		File portFile = new File(daemonDirectory, TestDaemon.PORT_FILE);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!portFile.isFile() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(portFile.isFile());
+	}
+
+	@After
+	public void stopDaemon() throws Exception {
+		if (new File(daemonDirectory, TestDaemon.PORT_FILE).isFile()) {
+			assertEquals(TestDaemon.EXIT_PASSED, TestDaemonClient.stop(daemonDirectory, new PrintStream(
+					new ByteArrayOutputStream())));
+		}
+		daemon.join(10000);
+		assertFalse(daemon.isAlive());
+	}
+
+	@Test(timeout = 60000)
+	public void runsSuiteAgainWithoutSearchingOrLoadingAgain() throws Exception {
+		String first = run(TestDaemon.EXIT_PASSED);
+		assertTrue(first, first.contains("run 1 of first"));
+		assertTrue(first, first.contains("OK (1 test)"));
+		assertTrue(report.delete());
+
+		String second = run(TestDaemon.EXIT_PASSED);
+
+		assertTrue(second, second.contains("run 2 of first"));
+		assertTrue(second, second.contains("OK (1 test)"));
+		assertFalse("searched again", report.exists());
+	}
+
+	@Test(timeout = 60000)
+	public void loadsChangedClassesAgain() throws Exception {
+		run(TestDaemon.EXIT_PASSED);
+		assertTrue(report.delete());
+		File classFile = new File(classes, "sample/SampleTest.class");
+		long modified = classFile.lastModified();
+
+		compileSampleTest("first", "second");
+		assertTrue(classFile.setLastModified(modified + 2000));
+		String output = run(TestDaemon.EXIT_PASSED);
+
+		assertTrue(output, output.contains("run 1 of first"));
+		assertTrue(output, output.contains("run 1 of second"));
+		assertTrue(output, output.contains("OK (2 tests)"));
+		assertTrue("not searched again", report.isFile());
+	}
+
+	@Test(timeout = 60000)
+	public void refusesRequestWithWrongToken() throws Exception {
+		File portFile = new File(daemonDirectory, TestDaemon.PORT_FILE);
+		List<String> portAndToken = Files.readAllLines(portFile.toPath());
+		String port = portAndToken.get(0).split(" ")[0];
+		Files.write(portFile.toPath(), Arrays.asList(port + " wrong"));
+		try {
+			PrintStream originalErr = System.err;
+			System.setErr(new PrintStream(new ByteArrayOutputStream()));
+			try {
+				assertEquals(TestDaemon.EXIT_ERROR, TestDaemonClient.run(daemonDirectory, SUITE, 0, 0,
+						new HashMap<String, String>(), new PrintStream(new ByteArrayOutputStream())));
+			} finally {
+				System.setErr(originalErr);
+			}
+		} finally {
+			Files.write(portFile.toPath(), portAndToken);
+		}
+		assertFalse(report.exists());
+
+		run(TestDaemon.EXIT_PASSED);
+	}
+
+	private String run(int expectedExitCode) throws IOException {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(CLASSPATH_PROPERTY, classes.getPath());
+		properties.put(DiscoveryDiagnostics.REPORT_PROPERTY, report.getPath());
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		int exitCode = TestDaemonClient.run(daemonDirectory, SUITE, 0, 0, properties, new PrintStream(output, true,
+				"UTF-8"));
+		String text = output.toString("UTF-8");
+		assertEquals(text, expectedExitCode, exitCode);
+		return text;
+	}
+
+	/**
+	 * Each test method prints how often the class has run it, which only
+	 * starts over in a new class loader.
+	 */
+	private void compileSampleTest(String... methods) throws IOException {
+		StringBuilder source = new StringBuilder("public class SampleTest {\n"
+				+ "private static final java.util.Map<String, Integer> runs = new java.util.HashMap<String, Integer>();\n"
+				+ "private static void ran(String method) {\n"
+				+ "Integer count = runs.get(method);\n"
+				+ "runs.put(method, count == null ? 1 : count + 1);\n"
+				+ "System.out.println(\"run \" + runs.get(method) + \" of \" + method);\n}\n");
+		for (String each : methods) {
+			source.append("@org.junit.Test public void ").append(each).append("() { ran(\"").append(each).append("\"); }\n");
+		}
+		compile("SampleTest", source.append("}").toString());
+	}
+
+	private void compile(String className, String body) throws IOException {
+		File sources = new File(folder.getRoot(), "sources/sample");
+		sources.mkdirs();
+		File source = new File(sources, className + ".java");
+		Files.write(source.toPath(), ("package sample;\n" + body).getBytes("UTF-8"));
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		int result = compiler.run(null, null, null, "-classpath", location(Test.class) + File.pathSeparator
+				+ location(ClasspathSuite.class), "-d", classes.getPath(), source.getPath());
+		assertEquals(0, result);
+	}
+
+	private static String location(Class<?> clazz) {
+		try {
+			return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
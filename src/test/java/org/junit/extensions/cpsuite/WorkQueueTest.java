@@ -0,0 +1,183 @@
+package org.junit.extensions.cpsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class WorkQueueTest {
+
+	private static final int CHILDREN = 12;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test(timeout = 120000)
+	public void jvmsRunEveryChildOnceAndTakeOverTheClaimOfAKilledJvm() throws Exception {
+		File directory = folder.newFolder("queue");
+		Process claimer = start(directory, "claim");
+		BufferedReader claimerOut = new BufferedReader(new InputStreamReader(claimer.getInputStream(), "UTF-8"));
+		assertEquals("claimed child0", claimerOut.readLine());
+		// What the killed JVM reported of child0 is reported again by the JVM
+		// that runs it once more
+		assertEquals("started child0", claimerOut.readLine());
+
+		Output first = new Output(start(directory, "work"));
+		Output second = new Output(start(directory, "work"));
+		// Neither can finish while the claimed child is held by a live JVM
+		Thread.sleep(1000);
+		claimer.destroy();
+		claimer.waitFor();
+
+		assertEquals(0, first.process.waitFor());
+		assertEquals(0, second.process.waitFor());
+		List<String> ran = new ArrayList<String>();
+		ran.addAll(first.await());
+		ran.addAll(second.await());
+		Collections.sort(ran);
+		assertEquals(children(), ran);
+		assertTrue("child0 was run again", ran.contains("child0"));
+	}
+
+	@Test
+	public void claimsAddedMeanwhileAreSeenAndLinesCutShortAreSkipped() throws IOException {
+		File directory = folder.newFolder("queue");
+		WorkQueue first = WorkQueue.join(directory, children());
+		WorkQueue second = WorkQueue.join(directory, children());
+		try {
+			assertTrue(first.claim("child0"));
+			assertFalse(second.isFinished(Arrays.asList("child0")));
+			// A JVM that died while claiming child1
+			FileOutputStream out = new FileOutputStream(new File(directory, "claims"), true);
+			try {
+				out.write("claim\tchild1".getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			assertFalse(second.isFinished(Arrays.asList("child0")));
+
+			first.done("child0");
+
+			assertTrue(second.isFinished(Arrays.asList("child0")));
+			assertEquals("child1", second.claimNext(children()));
+		} finally {
+			first.leave();
+			second.leave();
+		}
+	}
+
+	@Test
+	public void childrenClaimedInThisJvmAreNotClaimedAgain() throws IOException {
+		File directory = folder.newFolder("queue");
+		WorkQueue first = WorkQueue.join(directory, children());
+		WorkQueue second = WorkQueue.join(directory, children());
+		try {
+			assertTrue(first.claim("child3"));
+			assertEquals("child0", second.claimNext(children()));
+			assertEquals("child1", first.claimNext(children()));
+			assertTrue(!second.claim("child3"));
+			first.done("child3");
+			assertTrue(!second.claim("child3"));
+		} finally {
+			first.leave();
+			second.leave();
+		}
+	}
+
+	private static List<String> children() {
+		List<String> children = new ArrayList<String>();
+		for (int i = 0; i < CHILDREN; i++) {
+			children.add("child" + i);
+		}
+		Collections.sort(children);
+		return children;
+	}
+
+	private static Process start(File directory, String mode) throws IOException {
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				Worker.class.getName(), directory.getPath(), mode);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		return builder.start();
+	}
+
+	/**
+	 * Collects the children a worker JVM reports as run.
+	 */
+	private static final class Output extends Thread {
+		final Process process;
+		final List<String> ran = new ArrayList<String>();
+		IOException failure;
+
+		Output(Process process) {
+			this.process = process;
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.startsWith("ran ")) {
+						ran.add(line.substring("ran ".length()));
+					}
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+
+		List<String> await() throws Exception {
+			join();
+			if (failure != null) {
+				throw failure;
+			}
+			return ran;
+		}
+	}
+
+	/**
+	 * Takes part in the queue in a JVM of its own. In "claim" mode it claims
+	 * the first child, reports starting it and then waits to be killed; in "work" mode it runs
+	 * children until all are done.
+	 */
+	static final class Worker {
+		public static void main(String[] args) throws Exception {
+			List<String> children = children();
+			WorkQueue queue = WorkQueue.join(new File(args[0]), children);
+			if (args[1].equals("claim")) {
+				String child = queue.claimNext(children);
+				System.out.println("claimed " + child);
+				System.out.println("started " + child);
+				System.out.flush();
+				Thread.sleep(Long.MAX_VALUE);
+			}
+			while (!queue.isFinished(children)) {
+				String child = queue.claimNext(children);
+				if (child == null) {
+					Thread.sleep(50);
+					continue;
+				}
+				Thread.sleep(20);
+				System.out.println("ran " + child);
+				queue.done(child);
+			}
+			queue.leave();
+		}
+	}
+}